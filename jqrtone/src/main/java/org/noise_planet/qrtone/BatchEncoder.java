@@ -0,0 +1,328 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Render many payloads concurrently into little-endian PCM streams. Each worker thread owns its {@link QRTone}
+ * instance and its scratch buffers, a message is rendered and written chunk by chunk so the memory use does not
+ * depend on the message length. PCM16 samples are saturated, without dither.
+ */
+public class BatchEncoder {
+    public static final int DEFAULT_CHUNK_LENGTH = 8192;
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+    private final Configuration configuration;
+    private final int chunkLength;
+    private final ExecutorService executorService;
+    private final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            return new Worker();
+        }
+    };
+
+    /**
+     * @param configuration QRTone configuration used for all messages
+     * @param threadCount Number of worker threads, usually the number of available processors
+     */
+    public BatchEncoder(Configuration configuration, int threadCount) {
+        this(configuration, threadCount, DEFAULT_CHUNK_LENGTH);
+    }
+
+    /**
+     * @param configuration QRTone configuration used for all messages
+     * @param threadCount Number of worker threads, usually the number of available processors
+     * @param chunkLength Number of samples rendered and written at once by a worker
+     */
+    public BatchEncoder(Configuration configuration, int threadCount, int chunkLength) {
+        if(threadCount < 1) {
+            throw new IllegalArgumentException("At least one thread is required");
+        }
+        if(chunkLength < 1) {
+            throw new IllegalArgumentException("Chunk length must be strictly positive");
+        }
+        this.configuration = configuration;
+        this.chunkLength = chunkLength;
+        final AtomicInteger threadIndex = new AtomicInteger(0);
+        executorService = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "qrtone-encoder-" + threadIndex.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Render the payloads and write each message into its own channel. The channels are closed once written.
+     * If a message fails, the messages not yet started are skipped and the method returns once the messages being
+     * written are done, then rethrows the first error.
+     * @param payloads Payloads to send
+     * @param eccLevel Error correction level
+     * @param addPayloadCRC Add a CRC to the payloads
+     * @param power Signal peak power
+     * @param sampleFormat Encoding of the written samples
+     * @param writeWavHeader Write a RIFF/WAVE header before the samples
+     * @param channelFactory Provide the destination channel of each message
+     * @return Total number of bytes written
+     * @throws IOException If a channel could not be opened or written
+     * @throws InterruptedException If interrupted while waiting for the workers
+     */
+    public long encode(List<byte[]> payloads, final Configuration.ECC_LEVEL eccLevel, final boolean addPayloadCRC,
+                       final double power, final SampleFormat sampleFormat, final boolean writeWavHeader,
+                       final ChannelFactory channelFactory) throws IOException, InterruptedException {
+        // Set by the first failing message so that the messages not yet started are skipped
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        List<Future<Long>> results = new ArrayList<>(payloads.size());
+        for(int i = 0; i < payloads.size(); i++) {
+            final int index = i;
+            final byte[] payload = payloads.get(i);
+            results.add(executorService.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws IOException {
+                    if(failed.get()) {
+                        return 0L;
+                    }
+                    try {
+                        return workers.get().encode(index, payload, eccLevel, addPayloadCRC, power, sampleFormat,
+                                writeWavHeader, channelFactory);
+                    } catch (IOException | RuntimeException ex) {
+                        failed.set(true);
+                        throw ex;
+                    }
+                }
+            }));
+        }
+        // Wait for every task, even after a failure, so that no worker is still writing once this method returns
+        long writtenBytes = 0;
+        ExecutionException error = null;
+        try {
+            for (Future<Long> result : results) {
+                try {
+                    writtenBytes += result.get();
+                } catch (ExecutionException ex) {
+                    if(error == null) {
+                        error = ex;
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            failed.set(true);
+            throw ex;
+        }
+        if(error != null) {
+            Throwable cause = error.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+        return writtenBytes;
+    }
+
+    /**
+     * Render the payloads into WAV files
+     * @param payloads Payloads to send
+     * @param eccLevel Error correction level
+     * @param addPayloadCRC Add a CRC to the payloads
+     * @param power Signal peak power
+     * @param sampleFormat Encoding of the written samples
+     * @param files Destination file of each payload, in the same order
+     * @return Total number of bytes written
+     * @throws IOException If a file could not be written
+     * @throws InterruptedException If interrupted while waiting for the workers
+     */
+    public long encodeWavFiles(List<byte[]> payloads, Configuration.ECC_LEVEL eccLevel, boolean addPayloadCRC,
+                               double power, SampleFormat sampleFormat, final List<File> files)
+            throws IOException, InterruptedException {
+        if(files.size() != payloads.size()) {
+            throw new IllegalArgumentException("Expected one file per payload");
+        }
+        return encode(payloads, eccLevel, addPayloadCRC, power, sampleFormat, true, new ChannelFactory() {
+            @Override
+            public WritableByteChannel open(int index, long byteLength) throws IOException {
+                return new FileOutputStream(files.get(index)).getChannel();
+            }
+        });
+    }
+
+    /**
+     * Stop the worker threads once the submitted messages have been written
+     */
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    /**
+     * Wait for the workers to finish after {@link #shutdown()}
+     * @param timeout How long to wait
+     * @param unit Unit of timeout
+     * @return True if all workers have terminated
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executorService.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * @param sampleFormat Encoding of the samples
+     * @return Length in bytes of the header written by
+     * {@link #writeWavHeader(ByteBuffer, double, SampleFormat, int)}
+     */
+    public static int getWavHeaderLength(SampleFormat sampleFormat) {
+        // The IEEE float format requires the extension size field and a fact chunk
+        return sampleFormat == SampleFormat.PCM16 ? 44 : 58;
+    }
+
+    /**
+     * Write a mono RIFF/WAVE header
+     * @param buffer Destination, must have {@link #getWavHeaderLength(SampleFormat)} bytes remaining
+     * @param sampleRate Sampling rate in Hz
+     * @param sampleFormat Encoding of the samples
+     * @param sampleCount Number of samples that follow the header
+     */
+    public static void writeWavHeader(ByteBuffer buffer, double sampleRate, SampleFormat sampleFormat,
+                                      int sampleCount) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int dataLength = sampleCount * sampleFormat.bytesPerSample;
+        int rate = (int) Math.round(sampleRate);
+        boolean pcm = sampleFormat == SampleFormat.PCM16;
+        buffer.put(new byte[]{'R', 'I', 'F', 'F'});
+        buffer.putInt(getWavHeaderLength(sampleFormat) - 8 + dataLength);
+        buffer.put(new byte[]{'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+        buffer.putInt(pcm ? 16 : 18);
+        buffer.putShort((short) (pcm ? WAVE_FORMAT_PCM : WAVE_FORMAT_IEEE_FLOAT));
+        buffer.putShort((short) 1);
+        buffer.putInt(rate);
+        buffer.putInt(rate * sampleFormat.bytesPerSample);
+        buffer.putShort((short) sampleFormat.bytesPerSample);
+        buffer.putShort((short) (sampleFormat.bytesPerSample * 8));
+        if(!pcm) {
+            buffer.putShort((short) 0);
+            buffer.put(new byte[]{'f', 'a', 'c', 't'});
+            buffer.putInt(4);
+            buffer.putInt(sampleCount);
+        }
+        buffer.put(new byte[]{'d', 'a', 't', 'a'});
+        buffer.putInt(dataLength);
+        buffer.order(order);
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Encoder and scratch buffers confined to one worker thread
+     */
+    private final class Worker {
+        final QRTone qrTone = new QRTone(configuration);
+        final PcmConverter pcmConverter = new PcmConverter();
+        final ByteBuffer bytes = ByteBuffer.allocateDirect(Math.max(chunkLength * SampleFormat.FLOAT32.bytesPerSample,
+                getWavHeaderLength(SampleFormat.FLOAT32))).order(ByteOrder.LITTLE_ENDIAN);
+
+        long encode(int index, byte[] payload, Configuration.ECC_LEVEL eccLevel, boolean addPayloadCRC, double power,
+                    SampleFormat sampleFormat, boolean writeWavHeader, ChannelFactory channelFactory)
+                throws IOException {
+            int sampleCount = qrTone.setPayload(payload, eccLevel, addPayloadCRC);
+            long byteLength = (long) sampleCount * sampleFormat.bytesPerSample;
+            if(writeWavHeader) {
+                byteLength += getWavHeaderLength(sampleFormat);
+            }
+            WritableByteChannel channel = channelFactory.open(index, byteLength);
+            try {
+                if(writeWavHeader) {
+                    ((Buffer) bytes).clear();
+                    writeWavHeader(bytes, configuration.sampleRate, sampleFormat, sampleCount);
+                    ((Buffer) bytes).flip();
+                    writeFully(channel, bytes);
+                }
+                int cursor = 0;
+                while (cursor < sampleCount) {
+                    int length = Math.min(chunkLength, sampleCount - cursor);
+                    ((Buffer) bytes).clear();
+                    ((Buffer) bytes).limit(length * sampleFormat.bytesPerSample);
+                    qrTone.getSamples(bytes, sampleFormat, ByteOrder.LITTLE_ENDIAN, power, pcmConverter);
+                    ((Buffer) bytes).flip();
+                    writeFully(channel, bytes);
+                    cursor += length;
+                }
+            } finally {
+                channel.close();
+            }
+            return byteLength;
+        }
+    }
+
+    public interface ChannelFactory {
+        /**
+         * Called by a worker thread before writing a message
+         * @param index Index of the payload in the batch
+         * @param byteLength Number of bytes that will be written into the channel
+         * @return Destination of the message, closed by the encoder once the message is written
+         * @throws IOException If the channel could not be opened
+         */
+        WritableByteChannel open(int index, long byteLength) throws IOException;
+    }
+}
@@ -31,38 +31,104 @@
  *
  */
 
+
 package org.noise_planet.qrtone;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 
 /**
  * CRC16 Code
  * x**16 + x**15 + x**2 + 1
+ * Table driven implementation, 8 bytes are processed at each step (slice-by-8)
  * @author Nicolas Fortin
  */
 public class CRC16 {
     private static final int CRC_POLY_16 = 0xA001;
+    private static final int SLICES = 8;
+    // TABLES[k][i] is the crc of byte i followed by k zero bytes
+    private static final int[][] TABLES = new int[SLICES][256];
+    // Size of the copy buffer for ByteBuffer without backing array
+    private static final int CHUNK_SIZE = 4096;
     private int crc = 0;
 
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crcXor = 0;
+            int c = i;
+            for (int j = 0; j < 8; j++) {
+                if (((crcXor ^ c) & 0x0001) != 0) {
+                    crcXor = (crcXor >> 1) ^ CRC_POLY_16;
+                } else {
+                    crcXor = crcXor >> 1;
+                }
+                c = c >> 1;
+            }
+            TABLES[0][i] = crcXor;
+        }
+        for (int k = 1; k < SLICES; k++) {
+            for (int i = 0; i < 256; i++) {
+                int previous = TABLES[k - 1][i];
+                TABLES[k][i] = (previous >>> 8) ^ TABLES[0][previous & 0xFF];
+            }
+        }
+    }
+
     void add(byte data) {
-        int i = (crc ^ data) & 0xff;
-        int crcXor = 0;
-        int c = i;
-        for (int j = 0; j < 8; j++) {
-            if (((crcXor ^ c) & 0x0001) != 0) {
-                crcXor = (crcXor >> 1) ^ CRC_POLY_16;
-            } else {
-                crcXor = crcXor >> 1;
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ data) & 0xFF];
+    }
+
+    /**
+     * Update the crc with the provided bytes
+     * @param data Bytes
+     * @param off First byte index
+     * @param len Number of bytes
+     */
+    public void update(byte[] data, int off, int len) {
+        if (off < 0 || len < 0 || off > data.length - len) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        final int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        final int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+        int value = crc;
+        int i = off;
+        final int end = off + len;
+        for (; i <= end - SLICES; i += SLICES) {
+            int a = value ^ ((data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8);
+            value = t7[a & 0xFF] ^ t6[a >>> 8] ^ t5[data[i + 2] & 0xFF] ^ t4[data[i + 3] & 0xFF]
+                    ^ t3[data[i + 4] & 0xFF] ^ t2[data[i + 5] & 0xFF] ^ t1[data[i + 6] & 0xFF]
+                    ^ t0[data[i + 7] & 0xFF];
+        }
+        for (; i < end; i++) {
+            value = (value >>> 8) ^ t0[(value ^ data[i]) & 0xFF];
+        }
+        crc = value;
+    }
+
+    /**
+     * Update the crc with the remaining bytes of the buffer. The buffer position is moved to its limit.
+     * @param buffer Bytes
+     */
+    public void update(ByteBuffer buffer) {
+        int remaining = buffer.remaining();
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), remaining);
+            ((Buffer) buffer).position(buffer.limit());
+        } else {
+            byte[] chunk = new byte[Math.min(remaining, CHUNK_SIZE)];
+            while (buffer.hasRemaining()) {
+                int length = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, length);
+                update(chunk, 0, length);
             }
-            c = c >> 1;
         }
-        crc = (crc >>> 8) ^ crcXor;
     }
 
-    void reset() {
+    public void reset() {
         crc = 0;
     }
 
-    int crc() {
+    public int crc() {
         return crc & 0xFFFF;
     }
 }
@@ -31,32 +31,103 @@
  *
  */
 
+
 package org.noise_planet.qrtone;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * CRC8 Code
+ * Table driven implementation, 8 bytes are processed at each step (slice-by-8)
+ */
 public class CRC8 {
+    private static final int SLICES = 8;
+    // TABLES[k][i] is the crc of byte i followed by k zero bytes
+    private static final int[][] TABLES = new int[SLICES][256];
+    // Size of the copy buffer for ByteBuffer without backing array
+    private static final int CHUNK_SIZE = 4096;
     private int crc8 = 0;
 
-    void add(byte[] data, int from, int to) {
-        for (int i=from; i < to; i++) {
-            add(data[i]);
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = 0;
+            int accumulator = i;
+            for (int j = 0; j < 8; j++) {
+                if (((accumulator ^ crc) & 0x01) == 0x01) {
+                    crc = ((crc ^ 0x18) >> 1) | 0x80;
+                } else {
+                    crc = crc >> 1;
+                }
+                accumulator = accumulator >> 1;
+            }
+            TABLES[0][i] = crc;
         }
+        for (int k = 1; k < SLICES; k++) {
+            for (int i = 0; i < 256; i++) {
+                TABLES[k][i] = TABLES[0][TABLES[k - 1][i]];
+            }
+        }
+    }
+
+    void add(byte[] data, int from, int to) {
+        update(data, from, to - from);
     }
 
     void add(byte data) {
-        int crc = 0;
-        int accumulator = (crc8 ^ data) & 0x0FF;
-        for (int j = 0; j < 8; j++) {
-            if (((accumulator ^ crc) & 0x01) == 0x01) {
-                crc = ((crc ^ 0x18) >> 1) | 0x80;
-            } else {
-                crc = crc >> 1;
+        crc8 = TABLES[0][(crc8 ^ data) & 0xFF];
+    }
+
+    /**
+     * Update the crc with the provided bytes
+     * @param data Bytes
+     * @param off First byte index
+     * @param len Number of bytes
+     */
+    public void update(byte[] data, int off, int len) {
+        if (off < 0 || len < 0 || off > data.length - len) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        final int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        final int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+        int value = crc8;
+        int i = off;
+        final int end = off + len;
+        for (; i <= end - SLICES; i += SLICES) {
+            value = t7[(value ^ data[i]) & 0xFF] ^ t6[data[i + 1] & 0xFF] ^ t5[data[i + 2] & 0xFF]
+                    ^ t4[data[i + 3] & 0xFF] ^ t3[data[i + 4] & 0xFF] ^ t2[data[i + 5] & 0xFF]
+                    ^ t1[data[i + 6] & 0xFF] ^ t0[data[i + 7] & 0xFF];
+        }
+        for (; i < end; i++) {
+            value = t0[(value ^ data[i]) & 0xFF];
+        }
+        crc8 = value;
+    }
+
+    /**
+     * Update the crc with the remaining bytes of the buffer. The buffer position is moved to its limit.
+     * @param buffer Bytes
+     */
+    public void update(ByteBuffer buffer) {
+        int remaining = buffer.remaining();
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), remaining);
+            ((Buffer) buffer).position(buffer.limit());
+        } else {
+            byte[] chunk = new byte[Math.min(remaining, CHUNK_SIZE)];
+            while (buffer.hasRemaining()) {
+                int length = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, length);
+                update(chunk, 0, length);
             }
-            accumulator = accumulator >> 1;
         }
-        crc8 = (byte) crc;
     }
 
-    byte crc() {
+    public void reset() {
+        crc8 = 0;
+    }
+
+    public byte crc() {
         return (byte) (crc8 & 0x0FF);
     }
 }
@@ -49,6 +49,14 @@ public class CircularArray extends AbstractList<Float> {
 
     @Override
     public Float get(int index) {
+        return getFloat(index);
+    }
+
+    /**
+     * @param index Index of the element, 0 is the oldest element
+     * @return Element value without boxing
+     */
+    public float getFloat(int index) {
         int cicularIndex = cursor - inserted + index;
         if (cicularIndex < 0) {
             cicularIndex += values.length;
@@ -71,6 +79,15 @@ public class CircularArray extends AbstractList<Float> {
 
     @Override
     public boolean add(Float value) {
+        return add(value.floatValue());
+    }
+
+    /**
+     * Append a value without boxing, the oldest value is overwritten when the array is full
+     * @param value Value to append
+     * @return true
+     */
+    public boolean add(float value) {
         values[cursor] = value;
         cursor += 1;
         if(cursor == values.length) {
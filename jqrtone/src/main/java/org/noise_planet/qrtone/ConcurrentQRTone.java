@@ -0,0 +1,182 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safe facade of {@link QRTone}. Calls are serialized on this instance. Decoded payloads are queued with their
+ * location so that a thread can push samples while other threads retrieve the messages.
+ * {@link QRTone} itself uses plain fields and must stay confined to one thread at a time.
+ */
+public class ConcurrentQRTone {
+    private final QRTone qrTone;
+    private final BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+
+    public ConcurrentQRTone(Configuration configuration) {
+        this(new QRTone(configuration));
+    }
+
+    /**
+     * @param qrTone Instance to protect, must not be used directly anymore
+     */
+    public ConcurrentQRTone(QRTone qrTone) {
+        this.qrTone = qrTone;
+    }
+
+    private boolean onPushed(boolean decoded) {
+        if(decoded) {
+            QRTone.DecodedMessage message;
+            while((message = qrTone.pollDecodedMessage()) != null) {
+                messages.add(new Message(message.sampleIndex, message.payload, message.fixedErrors));
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * @see QRTone#pushSamples(short[])
+     */
+    public synchronized boolean pushSamples(short[] samples) {
+        return onPushed(qrTone.pushSamples(samples));
+    }
+
+    /**
+     * @see QRTone#pushSamples(short[], int, int)
+     */
+    public synchronized boolean pushSamples(short[] samples, int offset, int length) {
+        return onPushed(qrTone.pushSamples(samples, offset, length));
+    }
+
+    /**
+     * @see QRTone#pushSamples(float[])
+     */
+    public synchronized boolean pushSamples(float[] samples) {
+        return onPushed(qrTone.pushSamples(samples));
+    }
+
+    /**
+     * @see QRTone#pushSamples(float[], int, int)
+     */
+    public synchronized boolean pushSamples(float[] samples, int offset, int length) {
+        return onPushed(qrTone.pushSamples(samples, offset, length));
+    }
+
+    /**
+     * @see QRTone#pushSamples(ShortBuffer)
+     */
+    public synchronized boolean pushSamples(ShortBuffer samples) {
+        return onPushed(qrTone.pushSamples(samples));
+    }
+
+    /**
+     * @see QRTone#pushSamples(FloatBuffer)
+     */
+    public synchronized boolean pushSamples(FloatBuffer samples) {
+        return onPushed(qrTone.pushSamples(samples));
+    }
+
+    /**
+     * @see QRTone#pushSamples(ByteBuffer, SampleFormat, ByteOrder)
+     */
+    public synchronized boolean pushSamples(ByteBuffer samples, SampleFormat sampleFormat, ByteOrder byteOrder) {
+        return onPushed(qrTone.pushSamples(samples, sampleFormat, byteOrder));
+    }
+
+    /**
+     * @return Next decoded message or null if there is none
+     */
+    public Message poll() {
+        return messages.poll();
+    }
+
+    /**
+     * @param timeout Maximum time to wait
+     * @param unit Unit of timeout
+     * @return Next decoded message or null if none has been decoded before the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Message poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return messages.poll(timeout, unit);
+    }
+
+    public synchronized int getMaximumWindowLength() {
+        return qrTone.getMaximumWindowLength();
+    }
+
+    public synchronized long getPushedSamples() {
+        return qrTone.getPushedSamples();
+    }
+
+    public synchronized void reset() {
+        qrTone.reset();
+    }
+
+    /**
+     * Generate the whole signal of a message, the encoding state is not shared with other calls
+     * @param payload Payload to send
+     * @param eccLevel Error correction level
+     * @param addPayloadCRC Add a CRC to the payload
+     * @param power Signal peak power
+     * @return Audio samples
+     */
+    public synchronized float[] getSamples(byte[] payload, Configuration.ECC_LEVEL eccLevel, boolean addPayloadCRC,
+                                           double power) {
+        float[] samples = new float[qrTone.setPayload(payload, eccLevel, addPayloadCRC)];
+        qrTone.getSamples(samples, power);
+        return samples;
+    }
+
+    public Configuration getConfiguration() {
+        return qrTone.getConfiguration();
+    }
+
+    public static class Message {
+        public final long sampleIndex;
+        public final byte[] payload;
+        public final int fixedErrors;
+
+        public Message(long sampleIndex, byte[] payload, int fixedErrors) {
+            this.sampleIndex = sampleIndex;
+            this.payload = payload;
+            this.fixedErrors = fixedErrors;
+        }
+    }
+}
@@ -33,6 +33,9 @@
 
 package org.noise_planet.qrtone;
 
+import java.util.Arrays;
+import java.util.Locale;
+
 /**
  * QRTone configuration object
  */
@@ -47,7 +50,13 @@ public class Configuration {
   public static final double DEFAULT_INAUDIBLE_FIRST_FREQUENCY = 18200;
   public static final int DEFAULT_INAUDIBLE_STEP = 50;
   public static final double DEFAULT_TRIGGER_SNR = 15;
+  public static final double DEFAULT_TRIGGER_OVERLAP = 0.5;
   public static final ECC_LEVEL DEFAULT_ECC_LEVEL = ECC_LEVEL.ECC_Q;
+  public static final int DEFAULT_TONES_PER_WORD = 2;
+  // The gate tones use the frequencies of the second group
+  public static final int MIN_TONES_PER_WORD = 2;
+  public static final int MAX_TONES_PER_WORD = 4;
+  public static final int MAX_PHASE_BITS = 2;
 
   public final double sampleRate;
   public final double firstFrequency;
@@ -57,9 +66,57 @@ public class Configuration {
   public final double triggerSnr;
   public final double gateTime;
   public final double wordSilenceTime;
+  public final double triggerOverlap;
+  public final int tonesPerWord;
+  public final int phaseBits;
 
   public Configuration(double sampleRate, double firstFrequency, int frequencyIncrement, double frequencyMulti,
                        double wordTime, double triggerSnr, double gateTime, double wordSilenceTime) {
+    this(sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime, triggerSnr, gateTime,
+            wordSilenceTime, DEFAULT_TRIGGER_OVERLAP);
+  }
+
+  /**
+   * @param triggerOverlap Overlap [0, 1[ of the gate tone analysis windows. 0 halve the CPU usage while waiting for a
+   *                       message, 0.75 or more give a finer location of the message start
+   *                       see {@link TriggerAnalyzer#TriggerAnalyzer(double, int, double[], int, double, double)}
+   */
+  public Configuration(double sampleRate, double firstFrequency, int frequencyIncrement, double frequencyMulti,
+                       double wordTime, double triggerSnr, double gateTime, double wordSilenceTime,
+                       double triggerOverlap) {
+    this(sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime, triggerSnr, gateTime,
+            wordSilenceTime, triggerOverlap, DEFAULT_TONES_PER_WORD);
+  }
+
+  /**
+   * @param tonesPerWord Number of simultaneous tones of a word, each tone carries a 4 bits symbol using its own
+   *                     group of {@link QRTone#FREQUENCY_ROOT} frequencies. More tones increase the bit rate, and
+   *                     the frequency range, and share the signal power between more tones.
+   *                     See {@link #checkFrequencies()}
+   */
+  public Configuration(double sampleRate, double firstFrequency, int frequencyIncrement, double frequencyMulti,
+                       double wordTime, double triggerSnr, double gateTime, double wordSilenceTime,
+                       double triggerOverlap, int tonesPerWord) {
+    this(sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime, triggerSnr, gateTime,
+            wordSilenceTime, triggerOverlap, tonesPerWord, 0);
+  }
+
+  /**
+   * @param phaseBits Number of bits carried by the phase of each tone of the payload words, 0 to disable the
+   *                  differential phase modulation. The phase of a tone is shifted by a multiple of
+   *                  2 * pi / 2^phaseBits relatively to the tone of the previous word in the same frequency group,
+   *                  the first word of the payload is the phase reference. See {@link PhaseModulation}
+   */
+  public Configuration(double sampleRate, double firstFrequency, int frequencyIncrement, double frequencyMulti,
+                       double wordTime, double triggerSnr, double gateTime, double wordSilenceTime,
+                       double triggerOverlap, int tonesPerWord, int phaseBits) {
+    if(phaseBits < 0 || phaseBits > MAX_PHASE_BITS) {
+      throw new IllegalArgumentException(String.format("Phase bits must be between 0 and %d", MAX_PHASE_BITS));
+    }
+    if(tonesPerWord < MIN_TONES_PER_WORD || tonesPerWord > MAX_TONES_PER_WORD) {
+      throw new IllegalArgumentException(String.format("Tones per word must be between %d and %d",
+              MIN_TONES_PER_WORD, MAX_TONES_PER_WORD));
+    }
     this.sampleRate = sampleRate;
     this.firstFrequency = firstFrequency;
     this.frequencyIncrement = frequencyIncrement;
@@ -68,6 +125,81 @@ public class Configuration {
     this.triggerSnr = triggerSnr;
     this.gateTime = gateTime;
     this.wordSilenceTime = wordSilenceTime;
+    this.triggerOverlap = triggerOverlap;
+    this.tonesPerWord = tonesPerWord;
+    this.phaseBits = phaseBits;
+  }
+
+  /**
+   * @param tonesPerWord Number of simultaneous tones of a word
+   * @return Copy of this configuration with another number of tones per word
+   */
+  public Configuration withTonesPerWord(int tonesPerWord) {
+    return new Configuration(sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime, triggerSnr,
+            gateTime, wordSilenceTime, triggerOverlap, tonesPerWord, phaseBits);
+  }
+
+  /**
+   * @param phaseBits Number of bits carried by the phase of each tone, 0 to disable the phase modulation
+   * @return Copy of this configuration with another phase modulation
+   */
+  public Configuration withPhaseBits(int phaseBits) {
+    return new Configuration(sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime, triggerSnr,
+            gateTime, wordSilenceTime, triggerOverlap, tonesPerWord, phaseBits);
+  }
+
+  /**
+   * @return Number of frequencies used by the words
+   */
+  public int getFrequencyCount() {
+    return tonesPerWord * QRTone.FREQUENCY_ROOT;
+  }
+
+  /**
+   * @param symbolCount Number of symbols
+   * @return Number of words carrying these symbols
+   */
+  public int getWordCount(int symbolCount) {
+    return (symbolCount + tonesPerWord - 1) / tonesPerWord;
+  }
+
+  /**
+   * @param symbolCount Number of payload symbols
+   * @return Number of words carrying the payload symbols, in frequency and in phase
+   */
+  public int getPayloadWordCount(int symbolCount) {
+    int wordCount = getWordCount(symbolCount);
+    if(phaseBits > 0) {
+      // The phase symbols shorten the payload, remove words while the capacity is sufficient
+      while (wordCount > 1 && PhaseModulation.getCapacity(wordCount - 1, tonesPerWord, phaseBits) +
+              (wordCount - 1) * tonesPerWord >= symbolCount) {
+        wordCount--;
+      }
+    }
+    return wordCount;
+  }
+
+  /**
+   * Check that all the frequencies of the words are below the Nyquist frequency, and that two adjacent frequencies
+   * can be distinguished by a spectral analysis window no longer than a word.
+   * @throws IllegalArgumentException If the frequencies can not be used with this sampling rate and word length
+   */
+  public void checkFrequencies() {
+    final int frequencyCount = getFrequencyCount();
+    final double[] frequencies = computeFrequencies(frequencyCount + 1);
+    if(frequencies[frequencyCount - 1] >= sampleRate / 2) {
+      throw new IllegalArgumentException(String.format(Locale.ROOT, "Highest frequency %.0f Hz with %d tones per " +
+              "word is above the Nyquist frequency", frequencies[frequencyCount - 1], tonesPerWord));
+    }
+    final int wordLength = (int)(sampleRate * wordTime);
+    for(int i = 0; i < frequencyCount; i++) {
+      int windowSize = computeMinimumWindowSize(sampleRate, frequencies[i], frequencies[i + 1]);
+      if(windowSize > wordLength) {
+        throw new IllegalArgumentException(String.format(Locale.ROOT, "Frequencies %.0f Hz and %.0f Hz require a" +
+                " window of %d samples, longer than the word length of %d samples", frequencies[i],
+                frequencies[i + 1], windowSize, wordLength));
+      }
+    }
   }
 
   /**
@@ -137,4 +269,32 @@ public class Configuration {
   public static int getEccSymbolsForEcc(ECC_LEVEL eccLevel) {
     return ECC_SYMBOLS[eccLevel.ordinal()][1];
   }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    Configuration that = (Configuration) o;
+    return Double.compare(that.sampleRate, sampleRate) == 0 &&
+            Double.compare(that.firstFrequency, firstFrequency) == 0 &&
+            frequencyIncrement == that.frequencyIncrement &&
+            Double.compare(that.frequencyMulti, frequencyMulti) == 0 &&
+            Double.compare(that.wordTime, wordTime) == 0 &&
+            Double.compare(that.triggerSnr, triggerSnr) == 0 &&
+            Double.compare(that.gateTime, gateTime) == 0 &&
+            Double.compare(that.wordSilenceTime, wordSilenceTime) == 0 &&
+            Double.compare(that.triggerOverlap, triggerOverlap) == 0 &&
+            tonesPerWord == that.tonesPerWord &&
+            phaseBits == that.phaseBits;
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(new double[] {sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime,
+            triggerSnr, gateTime, wordSilenceTime, triggerOverlap, tonesPerWord, phaseBits});
+  }
 }
@@ -0,0 +1,180 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Inner loops of the signal processing. This class is the scalar implementation, compatible with all Java versions.
+ * On Java 17 and later the multi-release jar provides VectorDspKernels, an implementation using the
+ * jdk.incubator.vector API. It is used only if the module is available
+ * (java --add-modules jdk.incubator.vector) and if the system property {@link #VECTOR_PROPERTY} is not false.
+ */
+public class DspKernels {
+    public static final String VECTOR_PROPERTY = "qrtone.vector";
+    private static final String VECTOR_IMPLEMENTATION = "org.noise_planet.qrtone.VectorDspKernels";
+    private static final DspKernels SCALAR = new DspKernels();
+    private static final DspKernels INSTANCE = loadInstance();
+
+    protected DspKernels() {
+    }
+
+    private static DspKernels loadInstance() {
+        if(!Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))) {
+            return SCALAR;
+        }
+        try {
+            return (DspKernels) Class.forName(VECTOR_IMPLEMENTATION).getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException | NoSuchMethodException | InvocationTargetException | InstantiationException |
+                IllegalAccessException | LinkageError | RuntimeException ex) {
+            // Java version lower than 17, vector module not added or no vector unit
+            return SCALAR;
+        }
+    }
+
+    /**
+     * @return Fastest implementation available on this runtime
+     */
+    public static DspKernels getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return Scalar implementation
+     */
+    public static DspKernels getScalar() {
+        return SCALAR;
+    }
+
+    /**
+     * @return True if this implementation use the vector API
+     */
+    public boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * Goertzel recurrence of several frequencies s0 = sample * window + coefficient * s1 - s2
+     * @param samples Audio samples
+     * @param from Index of the first sample
+     * @param to Excluded index of the last sample
+     * @param windowTable Window weights interleaved by sample position, coefficients.length weights per sample
+     * @param tableIndex Index in windowTable of the weight of the first sample for the first frequency
+     * @param coefficients 2 * cos(2 * pi * frequency / sampleRate) of each frequency
+     * @param s1 State s[n-1] of each frequency, updated
+     * @param s2 State s[n-2] of each frequency, updated
+     */
+    public void goertzel(float[] samples, int from, int to, float[] windowTable, int tableIndex, double[] coefficients,
+                         double[] s1, double[] s2) {
+        final int k = coefficients.length;
+        for(int i = from; i < to; i++) {
+            final double sample = samples[i];
+            for(int idfreq = 0; idfreq < k; idfreq++) {
+                final double s0 = sample * windowTable[tableIndex + idfreq] + coefficients[idfreq] * s1[idfreq] - s2[idfreq];
+                s2[idfreq] = s1[idfreq];
+                s1[idfreq] = s0;
+            }
+            tableIndex += k;
+        }
+    }
+
+    /**
+     * Apply a window dest[i] = source[i] * window[i]
+     * @param source Samples to read
+     * @param sourceFrom Index of the first sample to read
+     * @param window Window weights
+     * @param windowFrom Index of the first window weight
+     * @param dest Where to write windowed samples, may be the source array
+     * @param destFrom Index of the first sample to write
+     * @param length Number of samples
+     */
+    public void multiply(float[] source, int sourceFrom, float[] window, int windowFrom, float[] dest, int destFrom,
+                         int length) {
+        for(int i = 0; i < length; i++) {
+            dest[destFrom + i] = source[sourceFrom + i] * window[windowFrom + i];
+        }
+    }
+
+    /**
+     * Scaled accumulation dest[i] += scale * source[i]
+     * @param source Samples to read
+     * @param sourceFrom Index of the first sample to read
+     * @param scale Gain applied to source samples
+     * @param dest Where to add scaled samples
+     * @param destFrom Index of the first sample to write
+     * @param length Number of samples
+     */
+    public void addScaled(float[] source, int sourceFrom, float scale, float[] dest, int destFrom, int length) {
+        for(int i = 0; i < length; i++) {
+            dest[destFrom + i] += scale * source[sourceFrom + i];
+        }
+    }
+
+    /**
+     * Add a sinusoid samples[i] += amplitude * sin(omega * (index + i - from))
+     * @param samples Where to add the tone
+     * @param from Index of the first sample
+     * @param to Excluded index of the last sample
+     * @param omega Angular step 2 * pi * frequency / sampleRate
+     * @param index Tone sample index of the first sample
+     * @param amplitude Peak amplitude
+     */
+    public void addSine(float[] samples, int from, int to, double omega, long index, double amplitude) {
+        addSine(samples, from, to, omega, index, 0, amplitude);
+    }
+
+    /**
+     * Add a sinusoid samples[i] += amplitude * sin(omega * (index + i - from) + phase)
+     * @param samples Where to add the tone
+     * @param from Index of the first sample
+     * @param to Excluded index of the last sample
+     * @param omega Angular step 2 * pi * frequency / sampleRate
+     * @param index Tone sample index of the first sample
+     * @param phase Phase of the tone at index 0 in radians
+     * @param amplitude Peak amplitude
+     */
+    public void addSine(float[] samples, int from, int to, double omega, long index, double phase, double amplitude) {
+        // Rotation of the (sin, cos) pair
+        final double stepCos = Math.cos(omega);
+        final double stepSin = Math.sin(omega);
+        double sin = Math.sin(omega * index + phase);
+        double cos = Math.cos(omega * index + phase);
+        for(int i = from; i < to; i++) {
+            samples[i] += (float)(sin * amplitude);
+            final double nextSin = sin * stepCos + cos * stepSin;
+            cos = cos * stepCos - sin * stepSin;
+            sin = nextSin;
+        }
+    }
+}
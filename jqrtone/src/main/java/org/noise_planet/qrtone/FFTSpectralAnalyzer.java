@@ -0,0 +1,270 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.util.Arrays;
+
+/**
+ * Evaluate all frequencies with a single real FFT of one Hann window centered in the word.
+ * The window length is the longest window required by the frequencies, zero-padded to a power of two multiplied by
+ * {@link #ZERO_PADDING}. The level at the exact frequency is interpolated on the three nearest bins in the log domain.
+ * Cost is proportional to M.log(M) with M the FFT size, it does not depend on the number of frequencies.
+ * The phase of the frequencies is not interpolated, it is computed with a discrete Fourier transform of the window at
+ * each exact frequency.
+ */
+public class FFTSpectralAnalyzer implements SpectralAnalyzer {
+    public static final int ZERO_PADDING = 2;
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public SpectralAnalyzer create(double sampleRate, double[] frequencies, int[] windowLengths, int wordLength) {
+            return new FFTSpectralAnalyzer(sampleRate, frequencies, windowLengths, wordLength);
+        }
+    };
+    private final int windowLength;
+    private final int windowStart;
+    private final int fftSize;
+    private final float[] window;
+    private final float[] windowedSamples;
+    private final DspKernels kernels = DspKernels.getInstance();
+    private final double[] binPosition;
+    // Angular frequency in radians per sample
+    private final double[] omegas;
+    private final double sampleRate;
+    // Complex FFT of half size, real samples are packed as even/odd pairs
+    private final double[] real;
+    private final double[] imag;
+    private final double[] cosTable;
+    private final double[] sinTable;
+    private final int[] bitReverse;
+    private final double[] binLevels;
+    private int processedSamples = 0;
+
+    public FFTSpectralAnalyzer(double sampleRate, double[] frequencies, int[] windowLengths, int wordLength) {
+        int maxWindow = 0;
+        for(int windowLength : windowLengths) {
+            maxWindow = Math.max(maxWindow, Math.min(wordLength, windowLength));
+        }
+        windowLength = maxWindow;
+        windowStart = wordLength / 2 - windowLength / 2;
+        int size = 2;
+        while (size < windowLength) {
+            size <<= 1;
+        }
+        fftSize = size * ZERO_PADDING;
+        window = new float[windowLength];
+        windowedSamples = new float[windowLength];
+        for(int i = 0; i < windowLength; i++) {
+            window[i] = (float)(0.5 - 0.5 * Math.cos((IterativeGeneralizedGoertzel.M2PI * i) / (windowLength - 1)));
+        }
+        this.sampleRate = sampleRate;
+        binPosition = new double[frequencies.length];
+        omegas = new double[frequencies.length];
+        setFrequencies(frequencies);
+        int halfSize = fftSize / 2;
+        real = new double[halfSize];
+        imag = new double[halfSize];
+        cosTable = new double[fftSize / 2 + 1];
+        sinTable = new double[fftSize / 2 + 1];
+        for(int i = 0; i < cosTable.length; i++) {
+            cosTable[i] = Math.cos(IterativeGeneralizedGoertzel.M2PI * i / fftSize);
+            sinTable[i] = Math.sin(IterativeGeneralizedGoertzel.M2PI * i / fftSize);
+        }
+        bitReverse = new int[halfSize];
+        int bits = Integer.numberOfTrailingZeros(halfSize);
+        for(int i = 0; i < halfSize; i++) {
+            bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+        binLevels = new double[fftSize / 2 + 1];
+    }
+
+    public int getFFTSize() {
+        return fftSize;
+    }
+
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    @Override
+    public void processSamples(float[] samples, int from, int to) {
+        int startCopy = Math.max(processedSamples, windowStart);
+        int endCopy = Math.min(processedSamples + to - from, windowStart + windowLength);
+        if(endCopy > startCopy) {
+            kernels.multiply(samples, from + startCopy - processedSamples, window, startCopy - windowStart,
+                    windowedSamples, startCopy - windowStart, endCopy - startCopy);
+        }
+        processedSamples += to - from;
+    }
+
+    @Override
+    public int getProcessedSamples() {
+        return processedSamples;
+    }
+
+    @Override
+    public void computeRMS(double[] rms) {
+        if(processedSamples < windowStart + windowLength) {
+            throw new IllegalStateException("Not enough processed samples");
+        }
+        // even samples in the real part, odd samples in the imaginary part, then zero padding
+        int halfWindow = windowLength / 2;
+        for(int i = 0; i < halfWindow; i++) {
+            real[i] = windowedSamples[2 * i];
+            imag[i] = windowedSamples[2 * i + 1];
+        }
+        if((windowLength & 1) == 0) {
+            real[halfWindow] = 0;
+        } else {
+            real[halfWindow] = windowedSamples[windowLength - 1];
+        }
+        Arrays.fill(real, halfWindow + 1, real.length, 0);
+        Arrays.fill(imag, halfWindow, imag.length, 0);
+        complexFFT();
+        Arrays.fill(binLevels, Double.NaN);
+        for(int idfreq = 0; idfreq < binPosition.length; idfreq++) {
+            int bin = (int)Math.round(binPosition[idfreq]);
+            double delta = binPosition[idfreq] - bin;
+            double a = binLevel(bin - 1);
+            double b = binLevel(bin);
+            double c = binLevel(bin + 1);
+            // Quadratic interpolation of the log magnitude, exact at the bin center
+            double level = b + (c - a) / 2 * delta + (a - 2 * b + c) / 2 * delta * delta;
+            rms[idfreq] = Math.sqrt(2) * Math.exp(level) / windowLength;
+        }
+        processedSamples = 0;
+    }
+
+    @Override
+    public void computeRMS(double[] rms, double[] phase) {
+        computeRMS(rms);
+        for(int idfreq = 0; idfreq < omegas.length; idfreq++) {
+            // sum of windowedSamples[i] * exp(-i * omega * i), the rotation is updated by recurrence
+            final double stepReal = Math.cos(omegas[idfreq]);
+            final double stepImag = -Math.sin(omegas[idfreq]);
+            double rotationReal = 1;
+            double rotationImag = 0;
+            double sumReal = 0;
+            double sumImag = 0;
+            for(int i = 0; i < windowLength; i++) {
+                sumReal += windowedSamples[i] * rotationReal;
+                sumImag += windowedSamples[i] * rotationImag;
+                final double nextReal = rotationReal * stepReal - rotationImag * stepImag;
+                rotationImag = rotationReal * stepImag + rotationImag * stepReal;
+                rotationReal = nextReal;
+            }
+            phase[idfreq] = Math.atan2(sumImag, sumReal) - omegas[idfreq] * windowStart;
+        }
+    }
+
+    /**
+     * Natural logarithm of the magnitude of a bin of the real FFT, computed from the half size complex FFT
+     */
+    private double binLevel(int k) {
+        if(!Double.isNaN(binLevels[k])) {
+            return binLevels[k];
+        }
+        int halfSize = real.length;
+        int k1 = k % halfSize;
+        int k2 = (halfSize - k) % halfSize;
+        // Even part E = (Z[k] + conj(Z[N/2-k])) / 2, odd part O = (Z[k] - conj(Z[N/2-k])) / 2j
+        double eReal = (real[k1] + real[k2]) / 2;
+        double eImag = (imag[k1] - imag[k2]) / 2;
+        double oReal = (imag[k1] + imag[k2]) / 2;
+        double oImag = -(real[k1] - real[k2]) / 2;
+        // X[k] = E + exp(-2j.pi.k/N) O
+        double c = cosTable[k];
+        double s = -sinTable[k];
+        double xReal = eReal + c * oReal - s * oImag;
+        double xImag = eImag + c * oImag + s * oReal;
+        double level = 0.5 * Math.log(xReal * xReal + xImag * xImag + Double.MIN_NORMAL);
+        binLevels[k] = level;
+        return level;
+    }
+
+    /**
+     * In-place iterative radix-2 complex FFT of real/imag arrays
+     */
+    private void complexFFT() {
+        int n = real.length;
+        for(int i = 0; i < n; i++) {
+            int j = bitReverse[i];
+            if(j > i) {
+                double tmp = real[i];
+                real[i] = real[j];
+                real[j] = tmp;
+                tmp = imag[i];
+                imag[i] = imag[j];
+                imag[j] = tmp;
+            }
+        }
+        for(int size = 2; size <= n; size <<= 1) {
+            int halfSize = size >> 1;
+            // twiddle tables are computed for the full size fft
+            int tableStep = fftSize / size;
+            for(int start = 0; start < n; start += size) {
+                for(int j = 0; j < halfSize; j++) {
+                    double wReal = cosTable[j * tableStep];
+                    double wImag = -sinTable[j * tableStep];
+                    int even = start + j;
+                    int odd = even + halfSize;
+                    double tReal = wReal * real[odd] - wImag * imag[odd];
+                    double tImag = wReal * imag[odd] + wImag * real[odd];
+                    real[odd] = real[even] - tReal;
+                    imag[odd] = imag[even] - tImag;
+                    real[even] += tReal;
+                    imag[even] += tImag;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void setFrequencies(double[] frequencies) {
+        if(frequencies.length != binPosition.length) {
+            throw new IllegalArgumentException("The number of frequencies can not be changed");
+        }
+        for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+            omegas[idfreq] = IterativeGeneralizedGoertzel.M2PI * frequencies[idfreq] / sampleRate;
+            binPosition[idfreq] = frequencies[idfreq] * fftSize / sampleRate;
+            if(binPosition[idfreq] < 1 || binPosition[idfreq] > fftSize / 2 - 1) {
+                throw new IllegalArgumentException(String.format("Frequency %.1f Hz out of analysis range", frequencies[idfreq]));
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        processedSamples = 0;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Join the frames produced by {@link MessageFramer} back into messages. Frames may arrive in any order and more than
+ * once. Incomplete messages are dropped when no frame of the message has been received for the timeout, or when the
+ * buffered frames exceed the memory budget, the least recently updated message first. Completed messages are
+ * remembered until no frame of them has been received for the timeout, so that a repeated message is delivered once.
+ * The clock is the sample index of the frames, as given by {@link QRTone#gePayloadSampleIndex()}, so that frames
+ * chained after a single pair of gate tones advance the clock too.
+ * This class is not thread-safe.
+ */
+public class FrameReassembler {
+    public static final long DEFAULT_MAXIMUM_BUFFERED_BYTES = 1 << 20;
+    private final long maximumBufferedBytes;
+    private final long timeout;
+    // Incomplete messages by identifier, least recently updated first
+    private final LinkedHashMap<Integer, PendingMessage> pendingMessages = new LinkedHashMap<>(16, 0.75f, true);
+    // Recently completed messages by identifier, their frames are dropped as repeats
+    private final LinkedHashMap<Integer, CompletedMessage> recentMessages = new LinkedHashMap<>();
+    private long bufferedBytes = 0;
+    private byte[] message;
+    private int messageId = -1;
+    private long messageSampleIndex = -1;
+    private long completedMessages = 0;
+    private long expiredMessages = 0;
+    private long evictedMessages = 0;
+    private long rejectedFrames = 0;
+    private long repeatedFrames = 0;
+
+    /**
+     * @param configuration Configuration of the decoder, used to convert the timeout into samples
+     * @param timeout Maximum time in seconds between two frames of a message
+     */
+    public FrameReassembler(Configuration configuration, double timeout) {
+        this(DEFAULT_MAXIMUM_BUFFERED_BYTES, (long) (timeout * configuration.sampleRate));
+    }
+
+    /**
+     * @param maximumBufferedBytes Maximum size in bytes of the frames of incomplete messages
+     * @param timeout Maximum number of samples between two frames of a message
+     */
+    public FrameReassembler(long maximumBufferedBytes, long timeout) {
+        if(maximumBufferedBytes < 0 || timeout < 0) {
+            throw new IllegalArgumentException("Memory budget and timeout must be positive");
+        }
+        this.maximumBufferedBytes = maximumBufferedBytes;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param frame Decoded frame payload
+     * @param sampleIndex Sample index of the frame
+     * @return True if the frame completes a message, retrieved with {@link #getMessage()}
+     */
+    public boolean pushFrame(byte[] frame, long sampleIndex) {
+        expire(sampleIndex);
+        if(!MessageFramer.isFrame(frame)) {
+            rejectedFrames++;
+            return false;
+        }
+        final int id = MessageFramer.getMessageId(frame);
+        final int sequence = MessageFramer.getSequence(frame);
+        final int frameCount = MessageFramer.getFrameCount(frame);
+        final byte[] data = MessageFramer.getData(frame);
+        CompletedMessage completedMessage = recentMessages.get(id);
+        if(completedMessage != null) {
+            if(completedMessage.frameCount == frameCount) {
+                // Frame of a message already delivered
+                completedMessage.lastSampleIndex = sampleIndex;
+                repeatedFrames++;
+                return false;
+            }
+            // The identifier has been reused by another message
+            recentMessages.remove(id);
+        }
+        if(frameCount == 1) {
+            onComplete(id, frameCount, data, sampleIndex, sampleIndex);
+            return true;
+        }
+        PendingMessage pendingMessage = pendingMessages.get(id);
+        if(pendingMessage != null && pendingMessage.frames.length != frameCount) {
+            // The identifier has been reused by another message
+            remove(id);
+            evictedMessages++;
+            pendingMessage = null;
+        }
+        if(pendingMessage == null) {
+            pendingMessage = new PendingMessage(frameCount, sampleIndex);
+            pendingMessages.put(id, pendingMessage);
+        }
+        pendingMessage.lastSampleIndex = sampleIndex;
+        if(pendingMessage.frames[sequence] != null) {
+            // Repeated frame
+            repeatedFrames++;
+            return false;
+        }
+        pendingMessage.frames[sequence] = data;
+        pendingMessage.receivedFrames++;
+        pendingMessage.bytes += data.length;
+        bufferedBytes += data.length;
+        if(pendingMessage.receivedFrames == frameCount) {
+            remove(id);
+            byte[] joined = new byte[(int) pendingMessage.bytes];
+            int cursor = 0;
+            for(byte[] part : pendingMessage.frames) {
+                System.arraycopy(part, 0, joined, cursor, part.length);
+                cursor += part.length;
+            }
+            onComplete(id, frameCount, joined, pendingMessage.firstSampleIndex, sampleIndex);
+            return true;
+        }
+        // Enforce the memory budget, the least recently updated messages first
+        Iterator<PendingMessage> it = pendingMessages.values().iterator();
+        while(bufferedBytes > maximumBufferedBytes && it.hasNext()) {
+            bufferedBytes -= it.next().bytes;
+            it.remove();
+            evictedMessages++;
+        }
+        return false;
+    }
+
+    /**
+     * Drop the incomplete messages that did not receive a frame for the timeout, and forget the completed messages
+     * that did not receive a frame for the timeout
+     * @param sampleIndex Current sample index
+     */
+    public void expire(long sampleIndex) {
+        Iterator<PendingMessage> it = pendingMessages.values().iterator();
+        while(it.hasNext()) {
+            PendingMessage pendingMessage = it.next();
+            if(sampleIndex - pendingMessage.lastSampleIndex > timeout) {
+                bufferedBytes -= pendingMessage.bytes;
+                it.remove();
+                expiredMessages++;
+            }
+        }
+        Iterator<CompletedMessage> itCompleted = recentMessages.values().iterator();
+        while(itCompleted.hasNext()) {
+            if(sampleIndex - itCompleted.next().lastSampleIndex > timeout) {
+                itCompleted.remove();
+            }
+        }
+    }
+
+    private void remove(int id) {
+        PendingMessage pendingMessage = pendingMessages.remove(id);
+        if(pendingMessage != null) {
+            bufferedBytes -= pendingMessage.bytes;
+        }
+    }
+
+    private void onComplete(int id, int frameCount, byte[] data, long firstSampleIndex, long lastSampleIndex) {
+        message = data;
+        messageId = id;
+        messageSampleIndex = firstSampleIndex;
+        completedMessages++;
+        recentMessages.put(id, new CompletedMessage(frameCount, lastSampleIndex));
+    }
+
+    /**
+     * @return Last completed message
+     */
+    public byte[] getMessage() {
+        return message;
+    }
+
+    /**
+     * @return Identifier of the last completed message
+     */
+    public int getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * @return Sample index of the first received frame of the last completed message
+     */
+    public long getMessageSampleIndex() {
+        return messageSampleIndex;
+    }
+
+    /**
+     * @return Number of incomplete messages
+     */
+    public int getPendingMessages() {
+        return pendingMessages.size();
+    }
+
+    /**
+     * @return Size in bytes of the buffered frames
+     */
+    public long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    public long getCompletedMessages() {
+        return completedMessages;
+    }
+
+    /**
+     * @return Number of incomplete messages dropped by the timeout
+     */
+    public long getExpiredMessages() {
+        return expiredMessages;
+    }
+
+    /**
+     * @return Number of incomplete messages dropped by the memory budget or replaced by a message with the same
+     * identifier
+     */
+    public long getEvictedMessages() {
+        return evictedMessages;
+    }
+
+    /**
+     * @return Number of payloads without a valid extended header
+     */
+    public long getRejectedFrames() {
+        return rejectedFrames;
+    }
+
+    /**
+     * @return Number of frames dropped because they have already been received, for an incomplete message or for a
+     * recently completed message
+     */
+    public long getRepeatedFrames() {
+        return repeatedFrames;
+    }
+
+    public void reset() {
+        pendingMessages.clear();
+        recentMessages.clear();
+        bufferedBytes = 0;
+    }
+
+    private static final class PendingMessage {
+        final byte[][] frames;
+        final long firstSampleIndex;
+        long lastSampleIndex;
+        int receivedFrames = 0;
+        long bytes = 0;
+
+        PendingMessage(int frameCount, long firstSampleIndex) {
+            this.frames = new byte[frameCount][];
+            this.firstSampleIndex = firstSampleIndex;
+            this.lastSampleIndex = firstSampleIndex;
+        }
+    }
+
+    private static final class CompletedMessage {
+        final int frameCount;
+        long lastSampleIndex;
+
+        CompletedMessage(int frameCount, long lastSampleIndex) {
+            this.frameCount = frameCount;
+            this.lastSampleIndex = lastSampleIndex;
+        }
+    }
+}
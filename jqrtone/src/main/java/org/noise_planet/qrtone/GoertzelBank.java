@@ -0,0 +1,259 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Generalized Goertzel algorithm applied to several frequencies at once, see {@link IterativeGeneralizedGoertzel}.
+ * The state of all frequencies is stored in primitive arrays and each sample is read only once. The inner loop over
+ * the frequencies has no branch and no dependency between frequencies, see {@link DspKernels#goertzel}.
+ * Each frequency can use its own window length and position. The window weights of all frequencies are precomputed
+ * in a single table, interleaved by sample position. Out of its window a frequency is fed with zeros, which keeps the
+ * magnitude of its spectral value unchanged.
+ */
+public class GoertzelBank {
+    private final int frequencyCount;
+    private final int[] windowSizes;
+    private final int[] windowOffsets;
+    private final double sampleRate;
+    // 2 * cos(pikTerm)
+    private final double[] coefficients;
+    // exp(-i * pikTerm)
+    private final double[] ccReal;
+    private final double[] ccImag;
+    // exp(-i * pikTerm * (length - 1 - windowOffset))
+    private final double[] phaseCorrectionReal;
+    private final double[] phaseCorrectionImag;
+    private final double[] s1;
+    private final double[] s2;
+    // Window weight of sample position p for frequency k at index (p - firstPosition) * frequencyCount + k
+    private final float[] windowTable;
+    // First sample position where at least one window is active
+    private final int firstPosition;
+    // Last sample position (excluded) where at least one window is active
+    private final int length;
+    private int processedSamples = 0;
+    private final DspKernels kernels = DspKernels.getInstance();
+
+    /**
+     * All frequencies share the same window
+     * @param sampleRate Sampling rate in Hz
+     * @param frequencies Frequencies to analyse in Hz
+     * @param windowSize Number of samples to analyse
+     * @param hannWindow Apply Hann window on samples
+     */
+    public GoertzelBank(double sampleRate, double[] frequencies, int windowSize, boolean hannWindow) {
+        this(sampleRate, frequencies, filled(frequencies.length, windowSize), filled(frequencies.length, 0), hannWindow);
+    }
+
+    /**
+     * @param sampleRate Sampling rate in Hz
+     * @param frequencies Frequencies to analyse in Hz
+     * @param windowSizes Number of samples to analyse for each frequency
+     * @param windowOffsets Position of the first sample of the window of each frequency
+     * @param hannWindow Apply Hann window on samples
+     */
+    public GoertzelBank(double sampleRate, double[] frequencies, int[] windowSizes, int[] windowOffsets, boolean hannWindow) {
+        if(frequencies.length != windowSizes.length || frequencies.length != windowOffsets.length) {
+            throw new IllegalArgumentException("Frequencies, window sizes and window offsets must have the same length");
+        }
+        frequencyCount = frequencies.length;
+        this.windowSizes = windowSizes.clone();
+        this.windowOffsets = windowOffsets.clone();
+        this.sampleRate = sampleRate;
+        int first = Integer.MAX_VALUE;
+        int last = 0;
+        for(int idfreq = 0; idfreq < frequencyCount; idfreq++) {
+            if(windowSizes[idfreq] < 2 || windowOffsets[idfreq] < 0) {
+                throw new IllegalArgumentException("Invalid window size or offset");
+            }
+            first = Math.min(first, windowOffsets[idfreq]);
+            last = Math.max(last, windowOffsets[idfreq] + windowSizes[idfreq]);
+        }
+        firstPosition = frequencyCount > 0 ? first : 0;
+        length = last;
+        coefficients = new double[frequencyCount];
+        ccReal = new double[frequencyCount];
+        ccImag = new double[frequencyCount];
+        phaseCorrectionReal = new double[frequencyCount];
+        phaseCorrectionImag = new double[frequencyCount];
+        s1 = new double[frequencyCount];
+        s2 = new double[frequencyCount];
+        windowTable = new float[(length - firstPosition) * frequencyCount];
+        setFrequencies(frequencies);
+        for(int idfreq = 0; idfreq < frequencyCount; idfreq++) {
+            final int windowSize = windowSizes[idfreq];
+            for(int i = 0; i < windowSize; i++) {
+                final float weight;
+                if(hannWindow) {
+                    weight = (float)(0.5 - 0.5 * Math.cos((IterativeGeneralizedGoertzel.M2PI * i) / (windowSize - 1)));
+                } else {
+                    weight = 1;
+                }
+                windowTable[(windowOffsets[idfreq] + i - firstPosition) * frequencyCount + idfreq] = weight;
+            }
+        }
+    }
+
+    /**
+     * Change the analyzed frequencies, the window sizes and offsets are kept. Must not be called while a window is
+     * being processed.
+     * @param frequencies New frequencies in Hz, same count as the frequencies given to the constructor
+     */
+    public void setFrequencies(double[] frequencies) {
+        if(frequencies.length != frequencyCount) {
+            throw new IllegalArgumentException("The number of frequencies can not be changed");
+        }
+        for(int idfreq = 0; idfreq < frequencyCount; idfreq++) {
+            final double pikTerm = IterativeGeneralizedGoertzel.M2PI * frequencies[idfreq] / sampleRate;
+            coefficients[idfreq] = Math.cos(pikTerm) * 2.0;
+            ccReal[idfreq] = Math.cos(pikTerm);
+            ccImag[idfreq] = -Math.sin(pikTerm);
+            phaseCorrectionReal[idfreq] = Math.cos(pikTerm * (length - 1. - windowOffsets[idfreq]));
+            phaseCorrectionImag[idfreq] = -Math.sin(pikTerm * (length - 1. - windowOffsets[idfreq]));
+        }
+    }
+
+    private static int[] filled(int length, int value) {
+        int[] array = new int[length];
+        for(int i = 0; i < length; i++) {
+            array[i] = value;
+        }
+        return array;
+    }
+
+    public int getFrequencyCount() {
+        return frequencyCount;
+    }
+
+    public int getWindowSize(int idfreq) {
+        return windowSizes[idfreq];
+    }
+
+    /**
+     * @return Number of samples to process before computing the levels
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public int getProcessedSamples() {
+        return processedSamples;
+    }
+
+    public void reset() {
+        for(int idfreq = 0; idfreq < frequencyCount; idfreq++) {
+            s1[idfreq] = 0;
+            s2[idfreq] = 0;
+        }
+        processedSamples = 0;
+    }
+
+    private int checkLength(int sampleCount) {
+        if(processedSamples + sampleCount > length) {
+            throw new IllegalArgumentException("Exceed window length");
+        }
+        // Skip the samples located before all windows
+        return Math.max(0, firstPosition - processedSamples);
+    }
+
+    /**
+     * Process the next samples
+     * @param samples Audio samples
+     * @param from Index of the first sample
+     * @param to Excluded index of the last sample
+     */
+    public void processSamples(float[] samples, int from, int to) {
+        final int skip = checkLength(to - from);
+        if(from + skip < to) {
+            kernels.goertzel(samples, from + skip, to, windowTable, (processedSamples + skip - firstPosition) * frequencyCount,
+                    coefficients, s1, s2);
+        }
+        processedSamples += to - from;
+    }
+
+    /**
+     * Process the next samples using absolute get on the buffer, the buffer position is not modified
+     * @param samples Audio samples
+     * @param from Index of the first sample
+     * @param to Excluded index of the last sample
+     */
+    public void processSamples(FloatBuffer samples, int from, int to) {
+        final int skip = checkLength(to - from);
+        final int k = frequencyCount;
+        int tableIndex = (processedSamples + skip - firstPosition) * k;
+        for(int i = from + skip; i < to; i++) {
+            final double sample = samples.get(i);
+            for(int idfreq = 0; idfreq < k; idfreq++) {
+                final double s0 = sample * windowTable[tableIndex + idfreq] + coefficients[idfreq] * s1[idfreq] - s2[idfreq];
+                s2[idfreq] = s1[idfreq];
+                s1[idfreq] = s0;
+            }
+            tableIndex += k;
+        }
+        processedSamples += to - from;
+    }
+
+    /**
+     * Compute the rms value of each frequency then reset the state
+     * @param rms Where to write the rms value of each frequency
+     */
+    public void computeRMS(double[] rms) {
+        computeRMS(rms, null);
+    }
+
+    /**
+     * Compute the rms value and the phase of each frequency then reset the state
+     * @param rms Where to write the rms value of each frequency
+     * @param phase Where to write the phase of each frequency relative to the start of its window, may be null
+     */
+    public void computeRMS(double[] rms, double[] phase) {
+        if(processedSamples != length) {
+            throw new IllegalStateException("Not enough processed samples");
+        }
+        for(int idfreq = 0; idfreq < frequencyCount; idfreq++) {
+            // y = s1 - s2 * exp(-i * pikTerm)
+            final double yReal = s1[idfreq] - s2[idfreq] * ccReal[idfreq];
+            final double yImag = -s2[idfreq] * ccImag[idfreq];
+            rms[idfreq] = Math.sqrt((yReal * yReal + yImag * yImag) * 2) / windowSizes[idfreq];
+            if(phase != null) {
+                final double cReal = phaseCorrectionReal[idfreq];
+                final double cImag = phaseCorrectionImag[idfreq];
+                phase[idfreq] = Math.atan2(yReal * cImag + yImag * cReal, yReal * cReal - yImag * cImag);
+            }
+        }
+        reset();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+/**
+ * Generalized Goertzel filter of each frequency, each frequency using its own window length.
+ * Cost is proportional to the number of frequencies multiplied by the window length.
+ */
+public class GoertzelSpectralAnalyzer implements SpectralAnalyzer {
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public SpectralAnalyzer create(double sampleRate, double[] frequencies, int[] windowLengths, int wordLength) {
+            return new GoertzelSpectralAnalyzer(sampleRate, frequencies, windowLengths, wordLength);
+        }
+    };
+    private final GoertzelBank goertzelBank;
+    // Phase rotation of each frequency between the first sample of the word and the first sample of its window
+    private final double[] windowPhases;
+    private final int[] windowOffsets;
+    private final double sampleRate;
+    private int processedSamples = 0;
+
+    public GoertzelSpectralAnalyzer(double sampleRate, double[] frequencies, int[] windowLengths, int wordLength) {
+        int[] windowSizes = new int[frequencies.length];
+        windowOffsets = new int[frequencies.length];
+        windowPhases = new double[frequencies.length];
+        this.sampleRate = sampleRate;
+        for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+            windowSizes[idfreq] = Math.min(wordLength, windowLengths[idfreq]);
+            windowOffsets[idfreq] = wordLength / 2 - windowSizes[idfreq] / 2;
+            windowPhases[idfreq] = IterativeGeneralizedGoertzel.M2PI * frequencies[idfreq] / sampleRate *
+                    windowOffsets[idfreq];
+        }
+        goertzelBank = new GoertzelBank(sampleRate, frequencies, windowSizes, windowOffsets, true);
+    }
+
+    @Override
+    public void processSamples(float[] samples, int from, int to) {
+        // Samples after the end of the longest window are not analyzed
+        final int end = Math.min(to, from + goertzelBank.getLength() - goertzelBank.getProcessedSamples());
+        if(end > from) {
+            goertzelBank.processSamples(samples, from, end);
+        }
+        processedSamples += to - from;
+    }
+
+    @Override
+    public int getProcessedSamples() {
+        return processedSamples;
+    }
+
+    @Override
+    public void computeRMS(double[] rms) {
+        goertzelBank.computeRMS(rms);
+        processedSamples = 0;
+    }
+
+    @Override
+    public void computeRMS(double[] rms, double[] phase) {
+        goertzelBank.computeRMS(rms, phase);
+        for(int idfreq = 0; idfreq < windowPhases.length; idfreq++) {
+            phase[idfreq] -= windowPhases[idfreq];
+        }
+        processedSamples = 0;
+    }
+
+    @Override
+    public void setFrequencies(double[] frequencies) {
+        goertzelBank.setFrequencies(frequencies);
+        for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+            windowPhases[idfreq] = IterativeGeneralizedGoertzel.M2PI * frequencies[idfreq] / sampleRate *
+                    windowOffsets[idfreq];
+        }
+    }
+
+    @Override
+    public void reset() {
+        goertzelBank.reset();
+        processedSamples = 0;
+    }
+}
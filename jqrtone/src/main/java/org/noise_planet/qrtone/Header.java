@@ -3,6 +3,8 @@ package org.noise_planet.qrtone;
 public class Header {
     public final int length;
     public final boolean crc;
+    // Another header immediately follows the payload, without gate tones
+    public final boolean chained;
     Configuration.ECC_LEVEL eccLevel = null;
     public final int payloadSymbolsSize;
     public final int payloadByteSize;
@@ -10,10 +12,17 @@ public class Header {
     public final int numberOfSymbols;
 
     public Header(int length, Configuration.ECC_LEVEL eccLevel, boolean crc) {
-        this(length, Configuration.getTotalSymbolsForEcc(eccLevel), Configuration.getEccSymbolsForEcc(eccLevel), crc);
+        this(length, eccLevel, crc, false);
+    }
+    public Header(int length, Configuration.ECC_LEVEL eccLevel, boolean crc, boolean chained) {
+        this(length, Configuration.getTotalSymbolsForEcc(eccLevel), Configuration.getEccSymbolsForEcc(eccLevel), crc,
+                chained);
         this.eccLevel = eccLevel;
     }
     public Header(int length, final int blockSymbolsSize, final int blockECCSymbols, boolean crc) {
+        this(length, blockSymbolsSize, blockECCSymbols, crc, false);
+    }
+    public Header(int length, final int blockSymbolsSize, final int blockECCSymbols, boolean crc, boolean chained) {
         this.length = length;
         int crcLength = 0;
         if(crc) {
@@ -24,6 +33,7 @@ public class Header {
         numberOfBlocks = (int)Math.ceil(((length + crcLength) * 2) / (double)payloadSymbolsSize);
         numberOfSymbols = numberOfBlocks * blockECCSymbols + ( length + crcLength) * 2;
         this.crc = crc;
+        this.chained = chained;
     }
 
     public byte[] encodeHeader() {
@@ -40,6 +50,10 @@ public class Header {
         if(crc) {
             header[1] = (byte) (header[1] | 0x01 << 3);
         }
+        // chained frame
+        if(chained) {
+            header[1] = (byte) (header[1] | 0x01 << 4);
+        }
         header[2] = QRTone.crc8(header, 0, QRTone.HEADER_SIZE - 1);
         return header;
     }
@@ -51,7 +65,8 @@ public class Header {
             // CRC error
             return null;
         }
-        return new Header(data[0] & 0xFF, Configuration.ECC_LEVEL.values()[data[1] & 0x03], ((data[1] >> 3) & 0x01) == 1);
+        return new Header(data[0] & 0xFF, Configuration.ECC_LEVEL.values()[data[1] & 0x03], ((data[1] >> 3) & 0x01) == 1,
+                ((data[1] >> 4) & 0x01) == 1);
     }
 
     public Configuration.ECC_LEVEL getEccLevel() {
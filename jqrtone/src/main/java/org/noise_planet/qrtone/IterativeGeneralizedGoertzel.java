@@ -52,6 +52,12 @@ public class IterativeGeneralizedGoertzel {
     private double s2 = 0.;
     private double cosPikTerm2;
     private double pikTerm;
+    // exp(-i * pikTerm)
+    private double ccReal;
+    private double ccImag;
+    // exp(-i * pikTerm * (windowSize - 1))
+    private double phaseCorrectionReal;
+    private double phaseCorrectionImag;
     private float lastSample = 0;
     private double sampleRate;
     private int windowSize;
@@ -71,6 +77,10 @@ public class IterativeGeneralizedGoertzel {
         double samplingRateFactor = windowSize / sampleRate;
         pikTerm = M2PI * (frequency * samplingRateFactor) / windowSize;
         cosPikTerm2 = Math.cos(pikTerm) * 2.0;
+        ccReal = Math.cos(pikTerm);
+        ccImag = -Math.sin(pikTerm);
+        phaseCorrectionReal = Math.cos(pikTerm * (windowSize - 1.));
+        phaseCorrectionImag = -Math.sin(pikTerm * (windowSize - 1.));
         if(hannWindow) {
             hannWindowCache = new float[windowSize / 2 + 1];
             for(int i=0; i < hannWindowCache.length; i++) {
@@ -132,23 +142,24 @@ public class IterativeGeneralizedGoertzel {
         if(processedSamples != windowSize) {
             throw new IllegalStateException("Not enough processed samples");
         }
-        final Complex cc = new Complex(pikTerm, 0).exp();
-
         // final computations
         s0 = lastSample + cosPikTerm2 * s1 - s2;
 
         // complex multiplication substituting the last iteration
         // and correcting the phase for (potentially) non - integer valued
         // frequencies at the same time
-        Complex parta = new Complex(s0, 0).sub(new Complex(s1, 0).mul(cc));
-        Complex partb = new Complex(pikTerm * (windowSize - 1.), 0).exp();
-        Complex y = parta.mul(partb);
+        // parta = s0 - s1 * cc
+        final double partaReal = s0 - s1 * ccReal;
+        final double partaImag = -s1 * ccImag;
 
-        double rms = Math.sqrt((y.r * y.r  + y.i * y.i) * 2) / windowSize;
+        // |parta * partb| == |parta| as partb is an unit complex number
+        double rms = Math.sqrt((partaReal * partaReal  + partaImag * partaImag) * 2) / windowSize;
 
         double phase = 0;
         if(computePhase) {
-            phase = Math.atan2(y.i, y.r);
+            final double yReal = partaReal * phaseCorrectionReal - partaImag * phaseCorrectionImag;
+            final double yImag = partaReal * phaseCorrectionImag + partaImag * phaseCorrectionReal;
+            phase = Math.atan2(yImag, yReal);
         }
         reset();
         return new GoertzelResult(rms, phase);
@@ -7,21 +7,37 @@ package org.noise_planet.qrtone;
 public class IterativeTone {
     final double k1;
     final double originalK2;
+    final double omega;
+    // Phase of the first sample
+    final double phase;
+    final double originalK3;
     double k2;
     double k3;
     long index = 0;
 
     public IterativeTone(double frequency, double sampleRate) {
+        this(frequency, sampleRate, 0);
+    }
+
+    /**
+     * @param frequency Tone frequency in Hz
+     * @param sampleRate Sampling rate in Hz
+     * @param phase Phase of the first sample in radians, the tone is sin(omega * index + phase)
+     */
+    public IterativeTone(double frequency, double sampleRate, double phase) {
         double ffs = frequency / sampleRate;
+        omega = QRTone.M2PI * ffs;
+        this.phase = phase;
         k1 = 2 * Math.cos(QRTone.M2PI * ffs);
-        originalK2 = Math.sin(QRTone.M2PI * ffs);
+        originalK2 = Math.sin(QRTone.M2PI * ffs + phase);
+        originalK3 = Math.sin(phase);
         reset();
     }
 
     public void reset() {
         index = 0;
         k2 = originalK2;
-        k3 = 0;
+        k3 = originalK3;
     }
 
     /**
@@ -40,7 +56,27 @@ public class IterativeTone {
             return k2;
         } else {
             index++;
-            return 0;
+            return k3;
+        }
+    }
+
+    /**
+     * Add the next samples of the tone to the provided array, see {@link DspKernels#addSine}
+     * @param samples Where to add the tone
+     * @param from Index of the first sample
+     * @param to Excluded index of the last sample
+     * @param amplitude Peak amplitude
+     */
+    public void addTo(float[] samples, int from, int to, double amplitude) {
+        DspKernels.getInstance().addSine(samples, from, to, omega, index, phase, amplitude);
+        index += to - from;
+        // Restore the recurrence state for next()
+        if(index >= 2) {
+            k2 = Math.sin(omega * (index - 1) + phase);
+            k3 = Math.sin(omega * (index - 2) + phase);
+        } else {
+            k2 = originalK2;
+            k3 = originalK3;
         }
     }
 }
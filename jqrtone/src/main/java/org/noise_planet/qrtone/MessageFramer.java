@@ -0,0 +1,142 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Split messages longer than a QRTone payload into frames. Each frame payload starts with an extended header:
+ * <ul>
+ *     <li>message identifier, 2 bytes big endian</li>
+ *     <li>sequence number of the frame, from 0</li>
+ *     <li>sequence number of the last frame of the message</li>
+ * </ul>
+ * Frames are joined back by {@link FrameReassembler}. Each frame can be sent as a separate message with
+ * {@link QRTone#setPayload(byte[], Configuration.ECC_LEVEL, boolean)}, decoded by all QRTone implementations.
+ * Sending them back-to-back after a single pair of gate tones with
+ * {@link QRTone#setChainedPayloads(List, Configuration.ECC_LEVEL, boolean)} is shorter, but is only understood by
+ * this Java decoder: the C, Arduino and JavaScript decoders receive the first frame of each chain only.
+ */
+public final class MessageFramer {
+    public static final int FRAME_HEADER_LENGTH = 4;
+    public static final int MAX_FRAMES = 256;
+    public static final int MAX_FRAME_LENGTH = QRTone.MAX_PAYLOAD_LENGTH;
+    public static final int MAX_MESSAGE_LENGTH = MAX_FRAMES * (MAX_FRAME_LENGTH - FRAME_HEADER_LENGTH);
+    public static final int MAX_MESSAGE_ID = 0xFFFF;
+
+    private MessageFramer() {
+    }
+
+    /**
+     * Split a message into frames of the maximum length
+     * @param message Message content
+     * @param messageId Message identifier, from 0 to {@link #MAX_MESSAGE_ID}
+     * @return Frames payloads
+     */
+    public static List<byte[]> split(byte[] message, int messageId) {
+        return split(message, messageId, MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * Split a message into frames. Shorter frames make a transmission error lose less data, at the cost of more
+     * headers.
+     * @param message Message content
+     * @param messageId Message identifier, from 0 to {@link #MAX_MESSAGE_ID}
+     * @param frameLength Maximum length in bytes of a frame payload, including the extended header
+     * @return Frames payloads
+     */
+    public static List<byte[]> split(byte[] message, int messageId, int frameLength) {
+        if(messageId < 0 || messageId > MAX_MESSAGE_ID) {
+            throw new IllegalArgumentException(String.format("Message identifier must be between 0 and %d",
+                    MAX_MESSAGE_ID));
+        }
+        if(frameLength <= FRAME_HEADER_LENGTH || frameLength > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException(String.format("Frame length must be between %d and %d",
+                    FRAME_HEADER_LENGTH + 1, MAX_FRAME_LENGTH));
+        }
+        final int dataLength = frameLength - FRAME_HEADER_LENGTH;
+        final int frameCount = Math.max(1, (message.length + dataLength - 1) / dataLength);
+        if(frameCount > MAX_FRAMES) {
+            throw new IllegalArgumentException(String.format("Message cannot be longer than %d bytes with frames of %d" +
+                    " bytes", MAX_FRAMES * dataLength, frameLength));
+        }
+        List<byte[]> frames = new ArrayList<>(frameCount);
+        for(int sequence = 0; sequence < frameCount; sequence++) {
+            int from = sequence * dataLength;
+            int length = Math.min(dataLength, message.length - from);
+            byte[] frame = new byte[FRAME_HEADER_LENGTH + length];
+            frame[0] = (byte) (messageId >>> 8);
+            frame[1] = (byte) (messageId & 0xFF);
+            frame[2] = (byte) sequence;
+            frame[3] = (byte) (frameCount - 1);
+            System.arraycopy(message, from, frame, FRAME_HEADER_LENGTH, length);
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    /**
+     * @param frame Frame payload
+     * @return True if the payload is long enough to hold the extended header and its sequence is consistent
+     */
+    public static boolean isFrame(byte[] frame) {
+        return frame.length >= FRAME_HEADER_LENGTH && getSequence(frame) < getFrameCount(frame);
+    }
+
+    public static int getMessageId(byte[] frame) {
+        return ((frame[0] & 0xFF) << 8) | (frame[1] & 0xFF);
+    }
+
+    public static int getSequence(byte[] frame) {
+        return frame[2] & 0xFF;
+    }
+
+    /**
+     * @param frame Frame payload
+     * @return Number of frames of the message
+     */
+    public static int getFrameCount(byte[] frame) {
+        return (frame[3] & 0xFF) + 1;
+    }
+
+    /**
+     * @param frame Frame payload
+     * @return Part of the message carried by this frame
+     */
+    public static byte[] getData(byte[] frame) {
+        return Arrays.copyOfRange(frame, FRAME_HEADER_LENGTH, frame.length);
+    }
+}
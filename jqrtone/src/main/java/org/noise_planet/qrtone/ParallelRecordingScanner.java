@@ -0,0 +1,267 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Find all messages of a long raw audio recording using all the cores of a {@link ForkJoinPool}.
+ * The recording is split into chunks decoded independently. Each chunk is decoded a bit before its start, in order
+ * to evaluate the background noise level, and up to one maximum message length after its end, so that a message
+ * beginning in the chunk is always complete. Payloads chained after a single pair of gate tones can only be decoded
+ * by the chunk where the gate tones are, so the overlap covers the longest expected chain: the payloads of a longer
+ * chain that end beyond the overlap are lost. Messages found in the overlaps are de-duplicated by their sample index.
+ */
+public class ParallelRecordingScanner {
+    private final RecordingScanner recordingScanner;
+    private final int maximumChainLength;
+    private final int maximumMessageLength;
+    private final int warmUpLength;
+    private final int duplicateTolerance;
+    private long chunkLength;
+
+    /**
+     * @param configuration QRTone configuration, the sample rate must be the one of the recording
+     * @param sampleFormat Encoding of the samples
+     * @param byteOrder Byte order of the samples
+     */
+    public ParallelRecordingScanner(Configuration configuration, SampleFormat sampleFormat, ByteOrder byteOrder) {
+        this(configuration, sampleFormat, byteOrder, 1);
+    }
+
+    /**
+     * @param configuration QRTone configuration, the sample rate must be the one of the recording
+     * @param sampleFormat Encoding of the samples
+     * @param byteOrder Byte order of the samples
+     * @param maximumChainLength Maximum number of payloads sent after a single pair of gate tones, as with
+     *                           {@link QRTone#setChainedPayloads(List, Configuration.ECC_LEVEL, boolean)}
+     */
+    public ParallelRecordingScanner(Configuration configuration, SampleFormat sampleFormat, ByteOrder byteOrder,
+                                    int maximumChainLength) {
+        this(new RecordingScanner(configuration, sampleFormat, byteOrder), configuration, maximumChainLength);
+    }
+
+    /**
+     * @param recordingScanner Scanner of the chunks
+     * @param configuration QRTone configuration of the recording scanner
+     * @param maximumChainLength Maximum number of payloads sent after a single pair of gate tones
+     */
+    ParallelRecordingScanner(RecordingScanner recordingScanner, Configuration configuration, int maximumChainLength) {
+        this.recordingScanner = recordingScanner;
+        QRTone qrTone = new QRTone(configuration);
+        this.maximumChainLength = maximumChainLength;
+        maximumMessageLength = qrTone.getMaximumMessageLength(maximumChainLength);
+        // Trigger analysis need some time to evaluate the background noise level
+        warmUpLength = 4 * qrTone.gateLength;
+        duplicateTolerance = qrTone.wordLength;
+        chunkLength = 4L * maximumMessageLength;
+    }
+
+    public RecordingScanner getRecordingScanner() {
+        return recordingScanner;
+    }
+
+    public int getMaximumChainLength() {
+        return maximumChainLength;
+    }
+
+    /**
+     * @return Number of samples of the longest chain of payloads, chunks are overlapping by this length
+     */
+    public int getMaximumMessageLength() {
+        return maximumMessageLength;
+    }
+
+    public long getChunkLength() {
+        return chunkLength;
+    }
+
+    /**
+     * @param chunkLength Number of samples owned by a single task. As each chunk is decoded with an overlap of
+     *                    {@link #getMaximumMessageLength()}, it should be several times greater than this length.
+     */
+    public void setChunkLength(long chunkLength) {
+        if(chunkLength <= 0) {
+            throw new IllegalArgumentException("Chunk length must be positive");
+        }
+        this.chunkLength = chunkLength;
+    }
+
+    /**
+     * Decode all messages of the recording
+     * @param file Raw audio file
+     * @param pool Pool running the chunk decoding tasks
+     * @return Decoded messages sorted by sample index
+     * @throws IOException Error while reading the file
+     */
+    public List<Message> scan(File file, ForkJoinPool pool) throws IOException {
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            long sampleCount = recordingScanner.getSampleCount(channel);
+            List<Message> messages;
+            try {
+                messages = pool.invoke(new ScanTask(channel, sampleCount, 0, sampleCount));
+            } catch (RuntimeException ex) {
+                // A failure of a forked task is rethrown wrapped again by the fork-join framework
+                for(Throwable cause = ex; cause != null; cause = cause.getCause()) {
+                    if(cause instanceof ScanException) {
+                        throw ((ScanException) cause).getCause();
+                    }
+                }
+                throw ex;
+            }
+            Collections.sort(messages, new MessageSortByIndex());
+            return removeDuplicates(messages);
+        }
+    }
+
+    /**
+     * A message found near the boundary of two chunks may be located on both sides with a slightly different index
+     * @param messages Messages sorted by index
+     * @return Messages without duplicates
+     */
+    private List<Message> removeDuplicates(List<Message> messages) {
+        List<Message> filtered = new ArrayList<>(messages.size());
+        for(Message message : messages) {
+            boolean duplicate = false;
+            for(int i = filtered.size() - 1; i >= 0; i--) {
+                Message previous = filtered.get(i);
+                if(message.sampleIndex - previous.sampleIndex > duplicateTolerance) {
+                    break;
+                }
+                if(Arrays.equals(previous.payload, message.payload)) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if(!duplicate) {
+                filtered.add(message);
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Carry an I/O error of a task through the fork-join framework
+     */
+    private static final class ScanException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ScanException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    private final class ScanTask extends RecursiveTask<List<Message>> {
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final long sampleCount;
+        private final long from;
+        private final long to;
+
+        ScanTask(FileChannel channel, long sampleCount, long from, long to) {
+            this.channel = channel;
+            this.sampleCount = sampleCount;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Message> compute() {
+            if(to - from > chunkLength) {
+                long middle = from + (to - from) / 2;
+                ScanTask left = new ScanTask(channel, sampleCount, from, middle);
+                ScanTask right = new ScanTask(channel, sampleCount, middle, to);
+                left.fork();
+                List<Message> messages = new ArrayList<>(right.compute());
+                messages.addAll(left.join());
+                return messages;
+            }
+            final List<Message> messages = new ArrayList<>();
+            try {
+                recordingScanner.scan(channel, Math.max(0, from - duplicateTolerance - warmUpLength),
+                        Math.min(sampleCount, to + duplicateTolerance + maximumMessageLength),
+                        new RecordingScanner.PayloadCallback() {
+                            @Override
+                            public void onPayload(long sampleIndex, byte[] payload) {
+                                // Skip the messages of the previous chunk, found again while it was warming up. The
+                                // messages found in the overlap after this chunk are kept, as the next chunk cannot
+                                // decode the chained payloads whose gate tones are in this chunk. The location of a
+                                // message near a boundary is not exactly the same on both sides, duplicates are
+                                // removed afterwards
+                                if (sampleIndex >= from - duplicateTolerance) {
+                                    messages.add(new Message(sampleIndex, payload));
+                                }
+                            }
+                        });
+            } catch (IOException ex) {
+                throw new ScanException(ex);
+            }
+            return messages;
+        }
+    }
+
+    public static class Message {
+        public final long sampleIndex;
+        public final byte[] payload;
+
+        public Message(long sampleIndex, byte[] payload) {
+            this.sampleIndex = sampleIndex;
+            this.payload = payload;
+        }
+    }
+
+    public static class MessageSortByIndex implements Comparator<Message> {
+        @Override
+        public int compare(Message message, Message t1) {
+            return Long.valueOf(message.sampleIndex).compareTo(t1.sampleIndex);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+/**
+ * Convert floating point samples in the range [-1;1] to signed 16 bits integers. The full scale is
+ * {@link Short#MAX_VALUE}, as expected by {@link QRTone#pushSamples(short[])}.
+ * Optional TPDF (triangular probability density function) dither of one LSB peak decorrelates the quantization error
+ * from the signal. Out of range values are saturated and counted, unless clipping is disabled by a caller that
+ * guarantees the signal range. An instance holds the dither generator state, it must be used by one thread at a time.
+ */
+public final class PcmConverter {
+    private static final float UNIFORM_SCALE = 1.0f / (1 << 24);
+    private boolean dither;
+    private boolean clipping = true;
+    private int randomState;
+    private long clippedSamples = 0;
+
+    /**
+     * Converter without dither
+     */
+    public PcmConverter() {
+        this(false, 1);
+    }
+
+    /**
+     * @param dither Add TPDF dither before quantization
+     * @param seed Seed of the dither generator
+     */
+    public PcmConverter(boolean dither, long seed) {
+        this.dither = dither;
+        // xorshift state must not be zero
+        randomState = (int) (seed ^ (seed >>> 32));
+        if(randomState == 0) {
+            randomState = 0x9E3779B9;
+        }
+    }
+
+    public boolean isDither() {
+        return dither;
+    }
+
+    public void setDither(boolean dither) {
+        this.dither = dither;
+    }
+
+    public boolean isClipping() {
+        return clipping;
+    }
+
+    /**
+     * @param clipping If true out of range values are saturated to the full scale and counted. If false the values
+     *                 are converted without range check and out of range values wrap around.
+     */
+    public void setClipping(boolean clipping) {
+        this.clipping = clipping;
+    }
+
+    /**
+     * @return Number of saturated samples since the creation or the last call to {@link #resetClippedSamples()}
+     */
+    public long getClippedSamples() {
+        return clippedSamples;
+    }
+
+    public void resetClippedSamples() {
+        clippedSamples = 0;
+    }
+
+    /**
+     * @return Uniform random value in [0;1)
+     */
+    private float nextUniform() {
+        int x = randomState;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        randomState = x;
+        return (x >>> 8) * UNIFORM_SCALE;
+    }
+
+    /**
+     * @param sample Floating point sample
+     * @return Sample saturated to [-1;1] if clipping is enabled
+     */
+    public float clip(float sample) {
+        if(clipping) {
+            if(sample > 1) {
+                clippedSamples++;
+                return 1;
+            } else if(sample < -1) {
+                clippedSamples++;
+                return -1;
+            }
+        }
+        return sample;
+    }
+
+    /**
+     * @param sample Floating point sample
+     * @return Quantized sample
+     */
+    public short convert(float sample) {
+        float value = sample * Short.MAX_VALUE;
+        if(dither) {
+            // Difference of two uniform values has a triangular distribution in (-1;1)
+            value += nextUniform() - nextUniform();
+        }
+        int quantized = Math.round(value);
+        if(clipping) {
+            if(quantized > Short.MAX_VALUE) {
+                clippedSamples++;
+                return Short.MAX_VALUE;
+            } else if(quantized < Short.MIN_VALUE) {
+                clippedSamples++;
+                return Short.MIN_VALUE;
+            }
+        }
+        return (short) quantized;
+    }
+
+    /**
+     * @param source Floating point samples
+     * @param sourceFrom First sample to convert
+     * @param destination Quantized samples
+     * @param destinationFrom Index of destination of the first quantized sample
+     * @param length Number of samples to convert
+     */
+    public void convert(float[] source, int sourceFrom, short[] destination, int destinationFrom, int length) {
+        for(int i = 0; i < length; i++) {
+            destination[destinationFrom + i] = convert(source[sourceFrom + i]);
+        }
+    }
+}
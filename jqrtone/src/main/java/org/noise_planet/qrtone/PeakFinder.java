@@ -100,6 +100,16 @@ public class PeakFinder {
     }
 
     public boolean add(Long index, double value) {
+        return add(index.longValue(), value);
+    }
+
+    /**
+     * Push a value without boxing the index
+     * @param index Index of the value
+     * @param value Value
+     * @return True if a peak has been found
+     */
+    public boolean add(long index, double value) {
         boolean ret = false;
         double diff = value - oldVal;
         // Detect switch from increase to decrease/stall
@@ -0,0 +1,223 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+/**
+ * Differential phase modulation of the payload words. Each tone of a payload word, except in the first word, carries
+ * {@link Configuration#phaseBits} bits in the shift of its phase relatively to the tone of the previous word in the
+ * same frequency group. The phase of a tone is defined at the first sample of the tone part of the word, and is
+ * always a multiple of a quarter turn so that the waveforms are rendered from the sine and cosine tables.
+ * The payload symbols are first sent on the frequencies of the words, the remaining symbols are sent in the phase
+ * bits, four bits per symbol, most significant bit first.
+ * The receiver does not know the exact location of the words: an offset of tau samples rotates the measured phase of
+ * a tone by omega * tau, that differs between two words using two frequencies. The offset is estimated from the
+ * measured phases before computing the phase differences.
+ */
+public final class PhaseModulation {
+    // Phase shift in quarter turns of a 2 bits value, adjacent phases differ by one bit. The table is its own inverse.
+    private static final byte[] GRAY = new byte[] {0, 1, 3, 2};
+    private static final double GOLDEN_RATIO = (Math.sqrt(5) - 1) / 2;
+
+    private PhaseModulation() {
+    }
+
+    /**
+     * @param wordCount Number of payload words
+     * @param tonesPerWord Number of tones of a word
+     * @param phaseBits Number of bits carried by the phase of a tone
+     * @return Number of symbols carried by the phase of the payload words
+     */
+    public static int getCapacity(int wordCount, int tonesPerWord, int phaseBits) {
+        return wordCount < 2 ? 0 : (wordCount - 1) * tonesPerWord * phaseBits / 4;
+    }
+
+    /**
+     * @param symbols Payload symbols, symbols from index wordCount * tonesPerWord are sent in phase
+     * @param wordCount Number of payload words
+     * @param tonesPerWord Number of tones of a word
+     * @param phaseBits Number of bits carried by the phase of a tone
+     * @return Phase of each tone in quarter turns [0-3], at index word * tonesPerWord + tone
+     */
+    public static byte[] encode(byte[] symbols, int wordCount, int tonesPerWord, int phaseBits) {
+        final int firstSymbol = wordCount * tonesPerWord;
+        byte[] phases = new byte[wordCount * tonesPerWord];
+        int bitIndex = 0;
+        for(int slot = tonesPerWord; slot < phases.length; slot++) {
+            int value = 0;
+            for(int bit = 0; bit < phaseBits; bit++) {
+                int symbolIndex = firstSymbol + bitIndex / 4;
+                int symbolBit = symbolIndex < symbols.length ? (symbols[symbolIndex] >> (3 - bitIndex % 4)) & 1 : 0;
+                value = (value << 1) | symbolBit;
+                bitIndex++;
+            }
+            int shift = phaseBits == 2 ? GRAY[value] : value * 2;
+            phases[slot] = (byte) ((phases[slot - tonesPerWord] + shift) & 3);
+        }
+        return phases;
+    }
+
+    /**
+     * Recover the phase symbols from the measured phases
+     * @param phases Measured phase of the detected tone of each slot, at the first sample of the word
+     * @param omegas Angular frequency (radians per sample) of the detected tone of each slot
+     * @param wordCount Number of payload words
+     * @param tonesPerWord Number of tones of a word
+     * @param phaseBits Number of bits carried by the phase of a tone
+     * @param maximumOffset Maximum timing error of the words in samples
+     * @param symbols Payload symbols, the phase symbols are written from index wordCount * tonesPerWord
+     * @param confidence Confidence of the payload symbols, the confidence of a phase symbol is the smallest margin of
+     *                   its bits to the decision boundary, 1 for the phase of the boundary center, multiplied by
+     *                   confidenceScale
+     * @param confidenceScale Confidence of a phase located exactly on an expected phase
+     * @return Estimated timing error in samples
+     */
+    public static double decode(double[] phases, double[] omegas, int wordCount, int tonesPerWord, int phaseBits,
+                                double maximumOffset, byte[] symbols, float[] confidence, float confidenceScale) {
+        final int slotCount = wordCount * tonesPerWord;
+        final int modulation = 1 << phaseBits;
+        final double offset = estimateTimingOffset(phases, omegas, slotCount, modulation, maximumOffset);
+        final double sector = QRTone.M2PI / modulation;
+        final int firstSymbol = slotCount;
+        for(int i = firstSymbol; i < symbols.length; i++) {
+            symbols[i] = 0;
+            confidence[i] = confidenceScale;
+        }
+        int bitIndex = 0;
+        for(int slot = tonesPerWord; slot < slotCount; slot++) {
+            double difference = (phases[slot] - omegas[slot] * offset) -
+                    (phases[slot - tonesPerWord] - omegas[slot - tonesPerWord] * offset);
+            difference -= QRTone.M2PI * Math.floor(difference / QRTone.M2PI);
+            int shift = (int) Math.round(difference / sector);
+            double margin = 1 - Math.abs(difference - shift * sector) / (sector / 2);
+            shift = shift % modulation;
+            int value = phaseBits == 2 ? GRAY[shift] : shift;
+            for(int bit = phaseBits - 1; bit >= 0; bit--) {
+                int symbolIndex = firstSymbol + bitIndex / 4;
+                if(symbolIndex < symbols.length) {
+                    symbols[symbolIndex] |= ((value >> bit) & 1) << (3 - bitIndex % 4);
+                    confidence[symbolIndex] = Math.min(confidence[symbolIndex], (float) (margin * confidenceScale));
+                }
+                bitIndex++;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Find the timing offset that best aligns the phases of the tones, ignoring the modulation. Raising the phases to
+     * the modulation order removes the phase shifts, the offset maximizes the magnitude of the sum of
+     * exp(i * modulation * (phase - omega * offset)).
+     * @param phases Measured phases
+     * @param omegas Angular frequencies in radians per sample
+     * @param count Number of phases
+     * @param modulation Number of phase states
+     * @param maximumOffset Search range in samples
+     * @return Timing offset in samples
+     */
+    public static double estimateTimingOffset(double[] phases, double[] omegas, int count, int modulation,
+                                              double maximumOffset) {
+        double minimumOmega = Double.MAX_VALUE;
+        double maximumOmega = 0;
+        for(int i = 0; i < count; i++) {
+            minimumOmega = Math.min(minimumOmega, omegas[i]);
+            maximumOmega = Math.max(maximumOmega, omegas[i]);
+        }
+        if(count == 0 || maximumOmega - minimumOmega <= 0 || maximumOffset <= 0) {
+            return 0;
+        }
+        // Coarse search, the phase spread changes by at most a sixteenth of turn between two steps
+        final double step = Math.PI / (8 * modulation * (maximumOmega - minimumOmega));
+        final int steps = (int) Math.ceil(maximumOffset / step);
+        double[] sumReal = new double[2 * steps + 1];
+        double[] sumImag = new double[2 * steps + 1];
+        for(int i = 0; i < count; i++) {
+            // Rotate exp(i * modulation * (phase - omega * offset)) from offset = -steps * step
+            double angle = modulation * (phases[i] + omegas[i] * steps * step);
+            double real = Math.cos(angle);
+            double imag = Math.sin(angle);
+            final double stepReal = Math.cos(modulation * omegas[i] * step);
+            final double stepImag = -Math.sin(modulation * omegas[i] * step);
+            for(int s = 0; s < sumReal.length; s++) {
+                sumReal[s] += real;
+                sumImag[s] += imag;
+                final double nextReal = real * stepReal - imag * stepImag;
+                imag = real * stepImag + imag * stepReal;
+                real = nextReal;
+            }
+        }
+        int best = steps;
+        double bestMagnitude = -1;
+        for(int s = 0; s < sumReal.length; s++) {
+            double magnitude = sumReal[s] * sumReal[s] + sumImag[s] * sumImag[s];
+            if(magnitude > bestMagnitude) {
+                bestMagnitude = magnitude;
+                best = s;
+            }
+        }
+        // Golden section refinement around the best step
+        double low = (best - steps - 1) * step;
+        double high = (best - steps + 1) * step;
+        double a = high - GOLDEN_RATIO * (high - low);
+        double b = low + GOLDEN_RATIO * (high - low);
+        double magnitudeA = alignment(phases, omegas, count, modulation, a);
+        double magnitudeB = alignment(phases, omegas, count, modulation, b);
+        for(int iteration = 0; iteration < 24; iteration++) {
+            if(magnitudeA > magnitudeB) {
+                high = b;
+                b = a;
+                magnitudeB = magnitudeA;
+                a = high - GOLDEN_RATIO * (high - low);
+                magnitudeA = alignment(phases, omegas, count, modulation, a);
+            } else {
+                low = a;
+                a = b;
+                magnitudeA = magnitudeB;
+                b = low + GOLDEN_RATIO * (high - low);
+                magnitudeB = alignment(phases, omegas, count, modulation, b);
+            }
+        }
+        return (low + high) / 2;
+    }
+
+    private static double alignment(double[] phases, double[] omegas, int count, int modulation, double offset) {
+        double real = 0;
+        double imag = 0;
+        for(int i = 0; i < count; i++) {
+            double angle = modulation * (phases[i] - omegas[i] * offset);
+            real += Math.cos(angle);
+            imag += Math.sin(angle);
+        }
+        return real * real + imag * imag;
+    }
+}
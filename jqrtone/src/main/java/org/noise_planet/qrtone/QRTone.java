@@ -33,29 +33,61 @@
 
 package org.noise_planet.qrtone;
 
-import com.google.zxing.common.reedsolomon.GenericGF;
-import com.google.zxing.common.reedsolomon.ReedSolomonDecoder;
-import com.google.zxing.common.reedsolomon.ReedSolomonEncoder;
 import com.google.zxing.common.reedsolomon.ReedSolomonException;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Encode payloads into audio samples and decode payloads from audio samples.
+ * This class is not thread-safe: an instance keeps the decoding state of a single audio stream and must be used by one
+ * thread at a time. {@link ConcurrentQRTone} can be shared between threads.
+ */
 public class QRTone {
     public static final double M2PI = Math.PI * 2;
     public static final long PERMUTATION_SEED = 3141592653589793238L;
     // Frequency analysis window width is dependent of analyzed frequencies
     // Tone frequency may be not the expected one, so neighbors tone frequency values are accumulated
     public static final double WINDOW_WIDTH = 0.65;
-    private enum STATE {WAITING_TRIGGER, PARSING_SYMBOLS};
-    private static final double TUKEY_ALPHA  = 0.5;
+    static final double TUKEY_ALPHA  = 0.5;
     public static final int CRC_BYTE_LENGTH = 2;
-    private STATE qrToneState = STATE.WAITING_TRIGGER;
-    // TODO RFFT should be more efficient
-    private IterativeGeneralizedGoertzel[] frequencyAnalyzers;
-    private long firstToneSampleIndex = -1;
+    public static final int DEFAULT_MAXIMUM_DECODE_CONTEXTS = 4;
+    /**
+     * Symbols with a level gap (dB) between the best and second best frequency below this value are erasure candidates
+     */
+    public static final double DEFAULT_ERASURE_THRESHOLD = 6;
+    /**
+     * Number of frequencies kept for each symbol, ordered by level, used by list decoding
+     */
+    public static final int DEFAULT_LIST_DECODING_CANDIDATES = 3;
+    /**
+     * Maximum number of decoding attempts of list decoding of the payload. The header is not list decoded, its 8 bits
+     * CRC would accept one wrong candidate out of 256.
+     */
+    public static final int DEFAULT_LIST_DECODING_BUDGET = 256;
+    /**
+     * Number of least reliable symbols where candidates are substituted by list decoding
+     */
+    public static final int LIST_DECODING_POSITIONS = 6;
+    /**
+     * Gains of the symbol timing recovery loop, applied to the timing error measured on each word. The proportional
+     * gain corrects the location of the next word, the integral gain tracks the sample rate mismatch.
+     */
+    public static final double TIMING_LOOP_PROPORTIONAL_GAIN = 0.25;
+    public static final double TIMING_LOOP_INTEGRAL_GAIN = 0.02;
     protected static final int MAX_PAYLOAD_LENGTH = 0xFF;
+    // Maximum number of samples rendered at once by the integer and byte outputs
+    private static final int PCM_BLOCK_LENGTH = 4096;
     // Header size in bytes
     final static int HEADER_SIZE = 3;
     final static int HEADER_ECC_SYMBOLS = 2;
@@ -66,56 +98,295 @@ public class QRTone {
     final double gate1Frequency;
     final double gate2Frequency;
     private Configuration configuration;
-    // DTMF 16*16 frequencies
+    // DTMF 16*16 frequencies of the default configuration, see Configuration#getFrequencyCount
     public final static int NUM_FREQUENCIES = 32;
     // Column and rows of DTMF that make a char
     public final static int FREQUENCY_ROOT = 16;
+    // Number of symbols sent simultaneously in a word
+    final int tonesPerWord;
     private final double[] frequencies;
     private final double[] frequencyLimits;
     final TriggerAnalyzer triggerAnalyzer;
     byte[] symbolsToDeliver;
+    // Phase in quarter turns of each tone of symbolsToDeliver, null without phase modulation
+    byte[] phasesToDeliver;
+    // Symbols and header decoded by cachedSymbolsToHeader and cachedSymbolsToPayload
     byte[] symbolsCache;
     Header headerCache;
     private long pushedSamples = 0;
-    private int symbolIndex = 0;
     private byte[] payload;
-    private AtomicInteger fixedErrors = new AtomicInteger(0);
+    private long payloadSampleIndex = -1;
+    private float[] symbolsConfidence;
+    private double erasureThreshold = DEFAULT_ERASURE_THRESHOLD;
+    private int listDecodingCandidates = DEFAULT_LIST_DECODING_CANDIDATES;
+    private int listDecodingBudget = DEFAULT_LIST_DECODING_BUDGET;
+    private int listDecodingRetries = 0;
+    private boolean timingRecovery = false;
+    private boolean frequencyCorrection = false;
+    // Relative frequency offset applied to the symbol frequencies of the last decoded message
+    private double frequencyOffset = 0;
+    // Estimated sample rate mismatch of the last decoded message
+    private double driftPpm = 0;
+    // Length of the early and late regions of a word, the tapers of its Tukey window
+    private final int timingRegionLength;
+    // Normalized early minus late energy of a word analyzed at offsets -timingRegionLength to timingRegionLength
+    private final double[] timingDiscriminator;
+    // Levels of the best frequencies of a symbol, used while sorting candidates
+    private final double[] candidatesLevelCache = new double[FREQUENCY_ROOT];
+    // Errors corrected by Reed-Solomon on the last message, single element array used as accumulator
+    private final int[] fixedErrors = new int[1];
+    // Messages being parsed, a new context is started on each trigger
+    private final List<DecodeContext> decodeContexts = new ArrayList<>();
+    // Released contexts, kept in order to not allocate spectral analyzers on each trigger
+    private final ArrayDeque<DecodeContext> freeDecodeContexts = new ArrayDeque<>();
+    // Messages decoded by the last call of pushSamples, several contexts may complete in the same window
+    private final ArrayDeque<DecodedMessage> decodedMessages = new ArrayDeque<>();
+    private int maximumDecodeContexts = DEFAULT_MAXIMUM_DECODE_CONTEXTS;
+    private final SpectralAnalyzer.Factory spectralAnalyzerFactory;
+    private final int[] windowLengths;
     // Number of samples generated with getSamples function
     int outputSamples = 0;
-    // Hann/Tukey window for samples generation
-    IterativeHann hannWindow;
-    IterativeTukey tukeyWindow;
-    // Sin for samples generation
-    IterativeTone[] iterativeTones = new IterativeTone[NUM_FREQUENCIES];
+    // Pre-rendered gate and word tones for samples generation
+    private final WaveTable waveTable;
+    private final DspKernels kernels = DspKernels.getInstance();
+    // Reusable buffers, in order to not allocate memory while decoding
+    private final double[] splCache;
+    private final double[] phaseCache;
+    // Maximum timing error of the words compensated by the phase demodulation, in samples
+    private final double phaseSearchRange;
+    private float[] samplesCache = new float[0];
+    private final float[] silenceCache = new float[PCM_BLOCK_LENGTH];
 
     public QRTone(Configuration configuration) {
+        this(configuration, GoertzelSpectralAnalyzer.FACTORY);
+    }
+
+    /**
+     * @param configuration Signal configuration
+     * @param spectralAnalyzerFactory Backend used to evaluate the level of the symbol frequencies
+     */
+    public QRTone(Configuration configuration, SpectralAnalyzer.Factory spectralAnalyzerFactory) {
         this.configuration = configuration;
         this.wordLength = (int)(configuration.sampleRate * configuration.wordTime);
         this.gateLength = (int)(configuration.sampleRate * configuration.gateTime);
         this.wordSilenceLength = (int)(configuration.sampleRate * configuration.wordSilenceTime);
-        this.frequencies = configuration.computeFrequencies(NUM_FREQUENCIES);
-        this.frequencyLimits = configuration.computeFrequencies(NUM_FREQUENCIES, WINDOW_WIDTH);
+        configuration.checkFrequencies();
+        this.tonesPerWord = configuration.tonesPerWord;
+        this.frequencies = configuration.computeFrequencies(configuration.getFrequencyCount());
+        this.frequencyLimits = configuration.computeFrequencies(configuration.getFrequencyCount(), WINDOW_WIDTH);
         gate1Frequency = frequencies[FREQUENCY_ROOT ];
         gate2Frequency = frequencies[FREQUENCY_ROOT + 2];
         triggerAnalyzer = new TriggerAnalyzer(configuration.sampleRate, gateLength,
                 new double[]{gate1Frequency, gate2Frequency}, Configuration.computeMinimumWindowSize(configuration.sampleRate, gate1Frequency, frequencyLimits[FREQUENCY_ROOT]),
-                configuration.triggerSnr);
-        for(int idFreq = 0; idFreq < NUM_FREQUENCIES; idFreq++) {
-            iterativeTones[idFreq] = new IterativeTone(frequencies[idFreq], configuration.sampleRate);
+                configuration.triggerSnr, configuration.triggerOverlap);
+        waveTable = WaveTable.getInstance(configuration);
+        windowLengths = new int[frequencies.length];
+        for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+            windowLengths[idfreq] = Math.min(wordLength, Configuration.computeMinimumWindowSize(configuration.sampleRate, frequencies[idfreq], frequencyLimits[idfreq]));
+        }
+        this.spectralAnalyzerFactory = spectralAnalyzerFactory;
+        // Create the first context in order to check the analyzer parameters
+        freeDecodeContexts.add(new DecodeContext());
+        splCache = new double[frequencies.length];
+        phaseCache = new double[frequencies.length];
+        // Beyond half of the period of the phase alignment of two adjacent frequencies the offset is ambiguous
+        double minimumSpacing = Double.MAX_VALUE;
+        for(int idfreq = 1; idfreq < frequencies.length; idfreq++) {
+            minimumSpacing = Math.min(minimumSpacing, Math.abs(frequencies[idfreq] - frequencies[idfreq - 1]));
+        }
+        phaseSearchRange = configuration.sampleRate / (2 * (1 << configuration.phaseBits) * minimumSpacing);
+        timingRegionLength = new IterativeTukey(wordLength, TUKEY_ALPHA).indexBeginFlat;
+        timingDiscriminator = computeTimingDiscriminator(wordLength, timingRegionLength);
+    }
+
+    /**
+     * @param wordLength Number of samples of the tone part of a word
+     * @param regionLength Number of samples of the early and of the late region
+     * @return (early - late) / (early + late) energy of the word envelope, for an analysis started from -regionLength
+     * to regionLength samples after the first sample of the word
+     */
+    static double[] computeTimingDiscriminator(int wordLength, int regionLength) {
+        // Cumulated energy of the Tukey envelope
+        double[] energy = new double[wordLength + 1];
+        IterativeTukey tukey = new IterativeTukey(wordLength, TUKEY_ALPHA);
+        for(int i = 0; i < wordLength; i++) {
+            double value = tukey.next();
+            energy[i + 1] = energy[i] + value * value;
+        }
+        double[] discriminator = new double[regionLength * 2 + 1];
+        for(int offset = -regionLength; offset <= regionLength; offset++) {
+            double early = energy[clamp(offset + regionLength, wordLength)] - energy[clamp(offset, wordLength)];
+            double late = energy[clamp(offset + wordLength, wordLength)] -
+                    energy[clamp(offset + wordLength - regionLength, wordLength)];
+            discriminator[offset + regionLength] = (early - late) / Math.max(Double.MIN_NORMAL, early + late);
+        }
+        return discriminator;
+    }
+
+    private static int clamp(int index, int length) {
+        return Math.max(0, Math.min(length, index));
+    }
+
+    /**
+     * @param early Energy of the first samples of the analyzed word
+     * @param late Energy of the last samples of the analyzed word
+     * @return Delay of the analysis window relatively to the word, in samples
+     */
+    double estimateTimingError(double early, double late) {
+        if(early + late <= 0) {
+            return 0;
         }
-        hannWindow = new IterativeHann(gateLength);
-        tukeyWindow = new IterativeTukey(wordLength, TUKEY_ALPHA);
+        double value = (early - late) / (early + late);
+        // The discriminator is increasing with the delay
+        int index = Arrays.binarySearch(timingDiscriminator, value);
+        if(index >= 0) {
+            return index - timingRegionLength;
+        }
+        int upper = -index - 1;
+        if(upper == 0) {
+            return -timingRegionLength;
+        } else if(upper == timingDiscriminator.length) {
+            return timingRegionLength;
+        }
+        double low = timingDiscriminator[upper - 1];
+        double high = timingDiscriminator[upper];
+        return upper - 1 + (value - low) / (high - low) - timingRegionLength;
     }
 
     /**
      * @return The maximum window length to push in order to not loosing a second queued message
      */
     public int getMaximumWindowLength() {
-        if(qrToneState == STATE.WAITING_TRIGGER) {
-            return triggerAnalyzer.getMaximumWindowLength();
-        } else {
-            return wordLength + (int) (pushedSamples - getToneLocation());
+        int maximumWindowLength = triggerAnalyzer.getMaximumWindowLength();
+        for(DecodeContext decodeContext : decodeContexts) {
+            // Do not go further than the end of the current word
+            maximumWindowLength = (int)Math.min(maximumWindowLength,
+                    Math.max(1, decodeContext.getToneLocation() + wordLength - pushedSamples));
         }
+        return maximumWindowLength;
+    }
+
+    /**
+     * @param maximumDecodeContexts Maximum number of messages parsed at the same time. A trigger detected while this
+     *                              number of messages are being parsed is ignored.
+     */
+    public void setMaximumDecodeContexts(int maximumDecodeContexts) {
+        if(maximumDecodeContexts < 1) {
+            throw new IllegalArgumentException("At least one decode context is required");
+        }
+        this.maximumDecodeContexts = maximumDecodeContexts;
+    }
+
+    public int getMaximumDecodeContexts() {
+        return maximumDecodeContexts;
+    }
+
+    /**
+     * @param erasureThreshold When a message can not be decoded, symbols with a level gap (dB) between the best and
+     *                         second best frequency below this value are given to Reed-Solomon as erasures.
+     */
+    public void setErasureThreshold(double erasureThreshold) {
+        this.erasureThreshold = erasureThreshold;
+    }
+
+    public double getErasureThreshold() {
+        return erasureThreshold;
+    }
+
+    /**
+     * @param listDecodingCandidates Number of frequencies kept for each symbol. Candidates other than the best one are
+     *                               substituted to the least reliable symbols when a message can not be decoded.
+     */
+    public void setListDecodingCandidates(int listDecodingCandidates) {
+        if(listDecodingCandidates < 1 || listDecodingCandidates > FREQUENCY_ROOT) {
+            throw new IllegalArgumentException("Number of candidates must be between 1 and " + FREQUENCY_ROOT);
+        }
+        this.listDecodingCandidates = listDecodingCandidates;
+    }
+
+    public int getListDecodingCandidates() {
+        return listDecodingCandidates;
+    }
+
+    /**
+     * @param listDecodingBudget Maximum number of decoding attempts of list decoding of the payload. 0 disable list
+     *                           decoding
+     */
+    public void setListDecodingBudget(int listDecodingBudget) {
+        if(listDecodingBudget < 0) {
+            throw new IllegalArgumentException("List decoding budget must be positive");
+        }
+        this.listDecodingBudget = listDecodingBudget;
+    }
+
+    public int getListDecodingBudget() {
+        return listDecodingBudget;
+    }
+
+    /**
+     * @param timingRecovery Track the location of the words with the energy of their beginning and end, instead of
+     *                       expecting them at the nominal word period from the trigger. This compensates a sample rate
+     *                       mismatch between the transmitter and the receiver on long messages.
+     */
+    public void setTimingRecovery(boolean timingRecovery) {
+        this.timingRecovery = timingRecovery;
+    }
+
+    public boolean isTimingRecovery() {
+        return timingRecovery;
+    }
+
+    /**
+     * @return Sample rate mismatch in parts per million estimated by the timing recovery on the last decoded message.
+     * Positive when the received words are longer than the nominal word period, the receiver sample rate being higher
+     * than the transmitter one.
+     */
+    public double getDriftPpm() {
+        return driftPpm;
+    }
+
+    /**
+     * @param frequencyCorrection Estimate the frequency offset of the received tones from the gate tones of each
+     *                            message, and analyze the words at the shifted frequencies. The offset is relative to
+     *                            the frequency, as produced by a sample rate mismatch or a Doppler shift.
+     */
+    public void setFrequencyCorrection(boolean frequencyCorrection) {
+        this.frequencyCorrection = frequencyCorrection;
+    }
+
+    public boolean isFrequencyCorrection() {
+        return frequencyCorrection;
+    }
+
+    /**
+     * @return Relative frequency offset of the last decoded message, the symbols were analyzed at (1 + offset)
+     * multiplied by their nominal frequency. Always 0 without frequency correction.
+     */
+    public double getFrequencyOffset() {
+        return frequencyOffset;
+    }
+
+    /**
+     * @return Number of list decoding attempts done for the last decoded message, 0 if the received symbols have been
+     * decoded without list decoding
+     */
+    public int getListDecodingRetries() {
+        return listDecodingRetries;
+    }
+
+    /**
+     * @return Level gap (dB) between the best and second best frequency of each payload symbol of the last decoded
+     * message, in transmission order
+     */
+    public float[] getSymbolsConfidence() {
+        return symbolsConfidence;
+    }
+
+    /**
+     * @return Number of messages being parsed
+     */
+    public int getDecodeContextCount() {
+        return decodeContexts.size();
     }
 
     public long getPushedSamples() {
@@ -143,12 +414,8 @@ public class QRTone {
     static byte[] payloadToSymbols(byte[] payload, final int blockSymbolsSize,final int blockECCSymbols, boolean addCRC) {
         Header header = new Header(payload.length, blockSymbolsSize, blockECCSymbols, addCRC);
         if(addCRC) {
-            CRC16 crc16 = new CRC16();
-            for(byte b : payload) {
-                crc16.add(b);
-            }
+            final int res = crc16(payload, 0, payload.length);
             payload = Arrays.copyOf(payload, payload.length + CRC_BYTE_LENGTH);
-            final int res = crc16.crc();
             payload[payload.length - 2] = (byte)(res >>> 8);
             payload[payload.length - 1] = (byte)(res & 0xFF);
         }
@@ -157,8 +424,10 @@ public class QRTone {
         final int numberOfBlocks = header.numberOfBlocks;
         final int numberOfSymbols = header.numberOfSymbols;
         byte[] symbols = new byte[numberOfSymbols];
+        ReedSolomonGF16 encoder = new ReedSolomonGF16();
+        int[] blockSymbols = new int[blockSymbolsSize];
         for(int blockId = 0; blockId < numberOfBlocks; blockId++) {
-            int[] blockSymbols = new int[blockSymbolsSize];
+            Arrays.fill(blockSymbols, 0);
             int payloadSize = Math.min(payloadByteSize, payload.length - blockId * payloadByteSize);
             for (int i = 0; i < payloadSize; i++) {
                 // offset most significant bits to the right without keeping sign
@@ -167,8 +436,6 @@ public class QRTone {
                 blockSymbols[i * 2 + 1] = payload[i + blockId * payloadByteSize] & 0x0F;
             }
             // Add ECC parity symbols
-            GenericGF gallois = GenericGF.AZTEC_PARAM;
-            ReedSolomonEncoder encoder = new ReedSolomonEncoder(gallois);
             encoder.encode(blockSymbols, blockECCSymbols);
             // Copy data to main symbols
             arraycopy(blockSymbols, 0, symbols, blockId * blockSymbolsSize, payloadSize * 2);
@@ -198,6 +465,18 @@ public class QRTone {
         return symbolsToPayload(symbols, blockSymbolsSize, blockECCSymbols, hasCRC, fixedErrors);
     }
 
+    static byte[] decodeSymbols(byte[] symbols, Configuration.ECC_LEVEL eccLevel, boolean hasCRC, int[] fixedErrors) throws ReedSolomonException {
+        return decodeSymbols(symbols, null, eccLevel, hasCRC, 0, fixedErrors);
+    }
+
+    static byte[] decodeSymbols(byte[] symbols, float[] confidence, Configuration.ECC_LEVEL eccLevel, boolean hasCRC,
+                                double erasureThreshold, int[] fixedErrors) throws ReedSolomonException {
+        final int blockSymbolsSize = Configuration.getTotalSymbolsForEcc(eccLevel);
+        final int blockECCSymbols = Configuration.getEccSymbolsForEcc(eccLevel);
+        return decodeSymbols(symbols, confidence, blockSymbolsSize, blockECCSymbols, hasCRC, erasureThreshold,
+                fixedErrors);
+    }
+
     /**
      * @return Parsed payload
      */
@@ -206,13 +485,213 @@ public class QRTone {
     }
 
     static byte[] symbolsToPayload(byte[] symbols, int blockSymbolsSize, int blockECCSymbols, boolean hasCRC, AtomicInteger fixedErrors) throws ReedSolomonException {
+        int[] errors = new int[1];
+        try {
+            return decodeSymbols(symbols, blockSymbolsSize, blockECCSymbols, hasCRC, errors);
+        } finally {
+            if(fixedErrors != null) {
+                fixedErrors.addAndGet(errors[0]);
+            }
+        }
+    }
+
+    /**
+     * @param fixedErrors Single element array, the number of errors corrected by Reed-Solomon is added to the first
+     *                    element. May be null
+     */
+    static byte[] decodeSymbols(byte[] symbols, int blockSymbolsSize, int blockECCSymbols, boolean hasCRC, int[] fixedErrors) throws ReedSolomonException {
+        return decodeSymbols(symbols, null, blockSymbolsSize, blockECCSymbols, hasCRC, 0, fixedErrors);
+    }
+
+    /**
+     * Decode symbols. If Reed-Solomon or CRC check fails, the decoding is done again using the least reliable symbols
+     * as erasures. Reed-Solomon can correct twice as many erasures as errors.
+     * @param symbols Received symbols, in transmission order. Deinterleaved in place.
+     * @param confidence Level gap (dB) between the best and second best frequency of each symbol, in transmission
+     *                   order. May be null
+     * @param erasureThreshold Symbols with a confidence below this value (dB) are erasure candidates
+     * @param fixedErrors Single element array, the number of errors corrected by Reed-Solomon is added to the first
+     *                    element. May be null
+     */
+    static byte[] decodeSymbols(byte[] symbols, float[] confidence, int blockSymbolsSize, int blockECCSymbols,
+                                boolean hasCRC, double erasureThreshold, int[] fixedErrors) throws ReedSolomonException {
+        // Cancel permutation of symbols
+        deinterleaveSymbols(symbols, blockSymbolsSize);
+        int[] errors = new int[1];
+        byte[] payload;
+        try {
+            payload = decodeBlocks(symbols, null, blockSymbolsSize, blockECCSymbols, hasCRC, 0, errors);
+        } catch (ReedSolomonException ex) {
+            if(confidence == null) {
+                throw ex;
+            }
+            float[] blockConfidence = Arrays.copyOf(confidence, confidence.length);
+            deinterleaveSymbols(blockConfidence, blockSymbolsSize);
+            errors[0] = 0;
+            payload = decodeBlocks(symbols, blockConfidence, blockSymbolsSize, blockECCSymbols, hasCRC,
+                    erasureThreshold, errors);
+        }
+        if(fixedErrors != null) {
+            fixedErrors[0] += errors[0];
+        }
+        return payload;
+    }
+
+    /**
+     * Chase list decoding. The best candidates of the least reliable symbols are substituted to the received symbols,
+     * patterns with fewer substitutions are tried first. Each pattern is decoded by Reed-Solomon then checked by CRC.
+     * @param symbols Received symbols, in transmission order. Not modified.
+     * @param confidence Level gap (dB) between the best and second best frequency of each symbol
+     * @param candidates Symbols ordered by decreasing level, candidateCount values for each received symbol
+     * @param candidateCount Number of candidates of each symbol
+     * @param hasCRC True if the payload ends with a CRC, list decoding is not done without CRC
+     * @param budget Maximum number of attempts
+     * @param retries Single element array, the number of attempts is added to the first element
+     * @param fixedErrors Single element array, the number of errors corrected is added to the first element. May be
+     *                    null
+     * @return Decoded bytes or null if no pattern has been successfully decoded
+     */
+    static byte[] listDecodeSymbols(byte[] symbols, float[] confidence, byte[] candidates, int candidateCount,
+                                    int blockSymbolsSize, int blockECCSymbols, boolean hasCRC, int budget,
+                                    int[] retries, int[] fixedErrors) {
+        if(candidateCount < 2 || !hasCRC) {
+            // Nothing to substitute or no way to validate the result
+            return null;
+        }
+        // Least reliable symbols
+        int positionCount = Math.min(LIST_DECODING_POSITIONS, symbols.length);
+        int[] positions = new int[positionCount];
+        int count = 0;
+        for(int i = 0; i < symbols.length; i++) {
+            int insertion = count;
+            while(insertion > 0 && confidence[positions[insertion - 1]] > confidence[i]) {
+                if(insertion < positionCount) {
+                    positions[insertion] = positions[insertion - 1];
+                }
+                insertion--;
+            }
+            if(insertion < positionCount) {
+                positions[insertion] = i;
+                count = Math.min(positionCount, count + 1);
+            }
+        }
+        byte[] work = new byte[symbols.length];
+        int[] chosen = new int[positionCount];
+        int[] alternatives = new int[positionCount];
+        int[] errors = new int[1];
+        int attempts = 0;
+        try {
+            for (int weight = 1; weight <= positionCount; weight++) {
+                for (int i = 0; i < weight; i++) {
+                    chosen[i] = i;
+                }
+                do {
+                    Arrays.fill(alternatives, 0, weight, 1);
+                    do {
+                        if (attempts >= budget) {
+                            return null;
+                        }
+                        attempts++;
+                        System.arraycopy(symbols, 0, work, 0, symbols.length);
+                        for (int i = 0; i < weight; i++) {
+                            int position = positions[chosen[i]];
+                            work[position] = candidates[position * candidateCount + alternatives[i]];
+                        }
+                        try {
+                            errors[0] = 0;
+                            byte[] decoded = decodeSymbols(work, blockSymbolsSize, blockECCSymbols, hasCRC, errors);
+                            if (fixedErrors != null) {
+                                fixedErrors[0] += errors[0] + weight;
+                            }
+                            return decoded;
+                        } catch (ReedSolomonException ex) {
+                            // Try next pattern
+                        }
+                    } while (nextAlternatives(alternatives, weight, candidateCount));
+                } while (nextCombination(chosen, weight, positionCount));
+            }
+            return null;
+        } finally {
+            retries[0] += attempts;
+        }
+    }
+
+    /**
+     * Next combination of k indexes in [0, n[
+     * @return False if all combinations have been iterated
+     */
+    private static boolean nextCombination(int[] combination, int k, int n) {
+        int i = k - 1;
+        while(i >= 0 && combination[i] == n - k + i) {
+            i--;
+        }
+        if(i < 0) {
+            return false;
+        }
+        combination[i]++;
+        for(int j = i + 1; j < k; j++) {
+            combination[j] = combination[j - 1] + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Next set of alternative candidates (from 1 to candidateCount - 1) of the substituted symbols
+     * @return False if all sets have been iterated
+     */
+    private static boolean nextAlternatives(int[] alternatives, int k, int candidateCount) {
+        for(int i = 0; i < k; i++) {
+            if(alternatives[i] < candidateCount - 1) {
+                alternatives[i]++;
+                return true;
+            }
+            alternatives[i] = 1;
+        }
+        return false;
+    }
+
+    /**
+     * Find the index of the block symbols with a confidence below erasureThreshold, the least reliable first. At most
+     * blockECCSymbols symbols are kept.
+     * @param erasures Erasures index, blockECCSymbols length
+     * @param erasuresConfidence Erasures confidence, blockECCSymbols length
+     * @return Number of erasures
+     */
+    private static int findErasures(float[] confidence, int from, int payloadSymbolsLength, int payloadSymbolsSize,
+                                    int blockECCSymbols, double erasureThreshold, int[] erasures,
+                                    float[] erasuresConfidence) {
+        int erasureCount = 0;
+        for(int i = 0; i < payloadSymbolsLength + blockECCSymbols; i++) {
+            float symbolConfidence = confidence[from + i];
+            if(symbolConfidence < erasureThreshold) {
+                // Index in Reed-Solomon block, parity symbols are stored after padding
+                int blockIndex = i < payloadSymbolsLength ? i : payloadSymbolsSize + i - payloadSymbolsLength;
+                // insertion sort, drop the most reliable symbol if full
+                int insertion = erasureCount;
+                while(insertion > 0 && erasuresConfidence[insertion - 1] > symbolConfidence) {
+                    if(insertion < blockECCSymbols) {
+                        erasures[insertion] = erasures[insertion - 1];
+                        erasuresConfidence[insertion] = erasuresConfidence[insertion - 1];
+                    }
+                    insertion--;
+                }
+                if(insertion < blockECCSymbols) {
+                    erasures[insertion] = blockIndex;
+                    erasuresConfidence[insertion] = symbolConfidence;
+                    erasureCount = Math.min(blockECCSymbols, erasureCount + 1);
+                }
+            }
+        }
+        return erasureCount;
+    }
+
+    private static byte[] decodeBlocks(byte[] symbols, float[] confidence, int blockSymbolsSize, int blockECCSymbols,
+                                       boolean hasCRC, double erasureThreshold, int[] fixedErrors) throws ReedSolomonException {
         final int payloadSymbolsSize = blockSymbolsSize - blockECCSymbols;
         final int payloadByteSize = payloadSymbolsSize / 2;
         final int payloadLength = ((symbols.length / blockSymbolsSize) * payloadSymbolsSize + Math.max(0, symbols.length % blockSymbolsSize - blockECCSymbols)) / 2;
         final int numberOfBlocks = (int)Math.ceil(symbols.length / (double)blockSymbolsSize);
 
-        // Cancel permutation of symbols
-        deinterleaveSymbols(symbols, blockSymbolsSize);
         int offset = 0;
         if(hasCRC) {
             offset = -2;
@@ -220,8 +699,12 @@ public class QRTone {
         byte[] payload = new byte[payloadLength + offset];
         int[] crcValue = new int[CRC_BYTE_LENGTH];
         int crcIndex = 0;
+        ReedSolomonGF16 decoder = new ReedSolomonGF16();
+        int[] blockSymbols = new int[blockSymbolsSize];
+        int[] erasures = new int[blockECCSymbols];
+        float[] erasuresConfidence = new float[blockECCSymbols];
         for(int blockId = 0; blockId < numberOfBlocks; blockId++) {
-            int[] blockSymbols = new int[blockSymbolsSize];
+            Arrays.fill(blockSymbols, 0);
             int payloadSymbolsLength = Math.min(payloadSymbolsSize, symbols.length - blockECCSymbols - blockId * blockSymbolsSize);
             // Copy payload symbols
             arraycopy(symbols, blockId * blockSymbolsSize, blockSymbols, 0, payloadSymbolsLength);
@@ -229,12 +712,12 @@ public class QRTone {
             arraycopy(symbols, blockId * blockSymbolsSize + payloadSymbolsLength, blockSymbols, payloadSymbolsSize, blockECCSymbols);
             // Use Reed-Solomon in order to fix correctable errors
             // Fix symbols thanks to ECC parity symbols
-            GenericGF gallois = GenericGF.AZTEC_PARAM;
-            ReedSolomonDecoder decoder = new ReedSolomonDecoder(gallois);
-            int errors = decoder.decode(blockSymbols, blockECCSymbols);
-            if(fixedErrors != null) {
-                fixedErrors.addAndGet(errors);
+            int erasureCount = 0;
+            if(confidence != null) {
+                erasureCount = findErasures(confidence, blockId * blockSymbolsSize, payloadSymbolsLength,
+                        payloadSymbolsSize, blockECCSymbols, erasureThreshold, erasures, erasuresConfidence);
             }
+            fixedErrors[0] += decoder.decode(blockSymbols, blockECCSymbols, erasures, erasureCount);
             int payloadBlockByteSize = Math.min(payloadByteSize, payloadLength + offset - blockId * payloadByteSize);
             for (int i = 0; i < payloadBlockByteSize; i++) {
                 payload[i + blockId * payloadByteSize] = (byte) ((blockSymbols[i * 2] << 4) | (blockSymbols[i * 2 + 1] & 0x0F));
@@ -271,16 +754,107 @@ public class QRTone {
      * @return Number of samples of the signal for {@link #getSamples(float[], double)}}
      */
     public int setPayload(byte[] payload, Configuration.ECC_LEVEL eccLevel, boolean addPayloadCRC) {
-        Header header = new Header(payload.length, eccLevel, addPayloadCRC);
-        byte[] headerb = header.encodeHeader();
-        // Convert bytes to hexadecimal array
-        byte[] headerSymbols = payloadToSymbols(headerb, HEADER_SYMBOLS, HEADER_ECC_SYMBOLS, false);
-        byte[] payloadSymbols = payloadToSymbols(payload, eccLevel, addPayloadCRC);
-        symbolsToDeliver = new byte[headerSymbols.length+payloadSymbols.length];
-        System.arraycopy(headerSymbols, 0, symbolsToDeliver, 0, headerSymbols.length);
-        System.arraycopy(payloadSymbols, 0, symbolsToDeliver, headerSymbols.length, payloadSymbols.length);
+        return setFrames(Collections.singletonList(payload), eccLevel, addPayloadCRC);
+    }
+
+    /**
+     * Set payloads to send back-to-back after a single pair of gate tones. The header of each payload except the last
+     * one announces that another header immediately follows the payload. If a payload of the chain can not be
+     * decoded, the receiver loses the following payloads of the chain.
+     * <p>
+     * Chaining is not part of the signal understood by the C, Arduino and JavaScript decoders: they ignore the chained
+     * flag of the header and only decode the first payload of a chain. Use it only when all receivers use this
+     * decoder, else send each payload as a separate message with {@link #setPayload(byte[], Configuration.ECC_LEVEL,
+     * boolean)}.
+     * @param payloads Payloads content
+     * @param eccLevel Error correction level
+     * @param addPayloadCRC Add a CRC to each payload
+     * @return Number of samples of the signal for {@link #getSamples(float[], double)}}
+     */
+    public int setChainedPayloads(List<byte[]> payloads, Configuration.ECC_LEVEL eccLevel, boolean addPayloadCRC) {
+        if(payloads.isEmpty()) {
+            throw new IllegalArgumentException("At least one payload is required");
+        }
+        return setFrames(payloads, eccLevel, addPayloadCRC);
+    }
+
+    private int setFrames(List<byte[]> payloads, Configuration.ECC_LEVEL eccLevel, boolean addPayloadCRC) {
+        List<byte[]> frameSymbols = new ArrayList<>(payloads.size() * 2);
+        int symbolsLength = 0;
+        for(int i = 0; i < payloads.size(); i++) {
+            byte[] payload = payloads.get(i);
+            Header header = new Header(payload.length, eccLevel, addPayloadCRC, i < payloads.size() - 1);
+            byte[] headerb = header.encodeHeader();
+            // Convert bytes to hexadecimal array
+            byte[] headerSymbols = payloadToSymbols(headerb, HEADER_SYMBOLS, HEADER_ECC_SYMBOLS, false);
+            byte[] payloadSymbols = payloadToSymbols(payload, eccLevel, addPayloadCRC);
+            frameSymbols.add(headerSymbols);
+            frameSymbols.add(payloadSymbols);
+            symbolsLength += (configuration.getWordCount(headerSymbols.length) +
+                    configuration.getPayloadWordCount(payloadSymbols.length)) * tonesPerWord;
+        }
+        // The header and the payload begin on a new word, unused symbols of the last word are sent as zero
+        symbolsToDeliver = new byte[symbolsLength];
+        phasesToDeliver = configuration.phaseBits > 0 ? new byte[symbolsLength] : null;
+        int cursor = 0;
+        for(int i = 0; i < frameSymbols.size(); i++) {
+            byte[] symbols = frameSymbols.get(i);
+            if(i % 2 == 0 || phasesToDeliver == null) {
+                System.arraycopy(symbols, 0, symbolsToDeliver, cursor, symbols.length);
+                cursor += configuration.getWordCount(symbols.length) * tonesPerWord;
+            } else {
+                // Payload words, the symbols that do not fit on the frequencies are sent in the phase of the tones
+                int wordCount = configuration.getPayloadWordCount(symbols.length);
+                System.arraycopy(symbols, 0, symbolsToDeliver, cursor, Math.min(symbols.length,
+                        wordCount * tonesPerWord));
+                byte[] phases = PhaseModulation.encode(symbols, wordCount, tonesPerWord, configuration.phaseBits);
+                System.arraycopy(phases, 0, phasesToDeliver, cursor, phases.length);
+                cursor += wordCount * tonesPerWord;
+            }
+        }
         outputSamples = 0;
-        return 2 * gateLength + (symbolsToDeliver.length / 2) * (wordSilenceLength + wordLength);
+        return 2 * gateLength + (symbolsToDeliver.length / tonesPerWord) * (wordSilenceLength + wordLength);
+    }
+
+    /**
+     * @param payloadLength Payload length in bytes
+     * @param eccLevel Error correction level
+     * @param addPayloadCRC True if a CRC is appended to the payload
+     * @return Number of samples of the signal of such message, as returned by
+     * {@link #setPayload(byte[], Configuration.ECC_LEVEL, boolean)}
+     */
+    public int getMessageLength(int payloadLength, Configuration.ECC_LEVEL eccLevel, boolean addPayloadCRC) {
+        Header header = new Header(payloadLength, eccLevel, addPayloadCRC);
+        return 2 * gateLength + (configuration.getWordCount(HEADER_SYMBOLS) +
+                configuration.getPayloadWordCount(header.numberOfSymbols)) * (wordSilenceLength + wordLength);
+    }
+
+    /**
+     * @return Number of samples of the longest message of a single payload that can be sent
+     */
+    public int getMaximumMessageLength() {
+        return getMaximumMessageLength(1);
+    }
+
+    /**
+     * @param payloadCount Number of payloads chained by {@link #setChainedPayloads(List, Configuration.ECC_LEVEL, boolean)}
+     * @return Number of samples of the longest message of payloadCount chained payloads that can be sent
+     */
+    public int getMaximumMessageLength(int payloadCount) {
+        if(payloadCount < 1) {
+            throw new IllegalArgumentException("At least one payload is required");
+        }
+        // Chained payloads share the gate tones
+        int maximumFrameLength = 0;
+        for(Configuration.ECC_LEVEL eccLevel : Configuration.ECC_LEVEL.values()) {
+            maximumFrameLength = Math.max(maximumFrameLength,
+                    getMessageLength(MAX_PAYLOAD_LENGTH, eccLevel, true) - 2 * gateLength);
+        }
+        long maximumLength = 2L * gateLength + (long) payloadCount * maximumFrameLength;
+        if(maximumLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many chained payloads");
+        }
+        return (int) maximumLength;
     }
 
     /**
@@ -290,58 +864,133 @@ public class QRTone {
      * @param power Signal power
      */
     public void getSamples(float[] samples, double power) {
-        int writeOffset = 0;
-        while(writeOffset < samples.length) {
+        getSamples(samples, 0, samples.length, power);
+    }
+
+    /**
+     * Compute the next audio samples for sending the message. The signal is added to the content of the array.
+     *
+     * @param samples Write samples here
+     * @param offset Index of the first sample to write
+     * @param length Number of samples to write
+     * @param power Signal power
+     */
+    public void getSamples(float[] samples, int offset, int length, double power) {
+        int writeOffset = offset;
+        final int end = offset + length;
+        while(writeOffset < end) {
             if(outputSamples < gateLength * 2) {
                 // On header
                 int done = outputSamples % gateLength;
-                int frequencyIndex = outputSamples < gateLength ? FREQUENCY_ROOT : FREQUENCY_ROOT + 2;
-                if(done == 0) {
-                    iterativeTones[frequencyIndex].reset();
-                    hannWindow.reset();
-                }
-                int stepEnd = Math.min(gateLength - done, samples.length - writeOffset);
-                for (int i = 0; i < stepEnd; i++) {
-                    samples[writeOffset + i] += (float) (iterativeTones[frequencyIndex].next() * hannWindow.next() * power);
-                }
+                float[] gate = waveTable.getGate(outputSamples < gateLength ? 0 : 1);
+                int stepEnd = Math.min(gateLength - done, end - writeOffset);
+                kernels.addScaled(gate, done, (float) power, samples, writeOffset, stepEnd);
                 writeOffset += stepEnd;
                 outputSamples += stepEnd;
             } else {
                 // On word
-                int wordIndex = ((outputSamples - gateLength * 2) / (wordLength + wordSilenceLength)) * 2;
+                int wordIndex = ((outputSamples - gateLength * 2) / (wordLength + wordSilenceLength)) * tonesPerWord;
                 int wordDone = (outputSamples - gateLength * 2) % (wordLength + wordSilenceLength);
                 if(wordDone < wordSilenceLength) {
                     // silence stage
-                    int stepEnd = Math.min(wordSilenceLength - wordDone, samples.length - writeOffset);
+                    int stepEnd = Math.min(wordSilenceLength - wordDone, end - writeOffset);
                     writeOffset += stepEnd;
                     outputSamples += stepEnd;
                 } else if(wordIndex < symbolsToDeliver.length) {
                     // tone stage
                     wordDone -= wordSilenceLength;
-                    int firstFreqIndex = symbolsToDeliver[wordIndex];
-                    int secondFreqIndex = symbolsToDeliver[wordIndex + 1] + FREQUENCY_ROOT;
-                    if(wordDone == 0) {
-                        iterativeTones[firstFreqIndex].reset();
-                        iterativeTones[secondFreqIndex].reset();
-                        tukeyWindow.reset();
-                    }
-                    int stepEnd = Math.min(wordLength - wordDone, samples.length - writeOffset);
-                    double tonePower = power / 2;
-                    for (int i = 0; i < stepEnd; i++) {
-                        final double firstTone = iterativeTones[firstFreqIndex].next() * tonePower;
-                        final double secondTone = iterativeTones[secondFreqIndex].next() * tonePower;
-                        samples[writeOffset + i] += (float) ((firstTone + secondTone) * tukeyWindow.next());
+                    int stepEnd = Math.min(wordLength - wordDone, end - writeOffset);
+                    float tonePower = (float) (power / tonesPerWord);
+                    for(int tone = 0; tone < tonesPerWord; tone++) {
+                        int freqIndex = symbolsToDeliver[wordIndex + tone] + tone * FREQUENCY_ROOT;
+                        if(phasesToDeliver == null) {
+                            kernels.addScaled(waveTable.getWord(freqIndex), wordDone, tonePower, samples,
+                                    writeOffset, stepEnd);
+                        } else {
+                            int quarterTurns = phasesToDeliver[wordIndex + tone];
+                            kernels.addScaled(waveTable.getWord(freqIndex, quarterTurns), wordDone,
+                                    tonePower * WaveTable.getWordSign(quarterTurns), samples, writeOffset, stepEnd);
+                        }
                     }
                     writeOffset += stepEnd;
                     outputSamples += stepEnd;
                 } else {
                     // no more data to write
-                    writeOffset += samples.length - writeOffset;
-                    outputSamples += samples.length - writeOffset;
+                    writeOffset = end;
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute the next audio samples for sending the message as 16 bits integers. The samples are rendered by blocks
+     * in a buffer owned by this instance, so no memory is allocated once the buffer has been created.
+     *
+     * @param samples Write samples here, the previous content is overwritten
+     * @param offset Index of the first sample to write
+     * @param length Number of samples to write
+     * @param power Signal power
+     * @param pcmConverter Conversion to integer, with optional dither
+     */
+    public void getSamples(short[] samples, int offset, int length, double power, PcmConverter pcmConverter) {
+        float[] fSamples = getSamplesCache(Math.min(length, PCM_BLOCK_LENGTH));
+        int cursor = 0;
+        while(cursor < length) {
+            int blockLength = Math.min(fSamples.length, length - cursor);
+            Arrays.fill(fSamples, 0, blockLength, 0);
+            getSamples(fSamples, 0, blockLength, power);
+            pcmConverter.convert(fSamples, 0, samples, offset + cursor, blockLength);
+            cursor += blockLength;
+        }
+    }
+
+    /**
+     * Compute the next audio samples for sending the message into the remaining bytes of the buffer. The samples are
+     * written with absolute puts, so the buffer byte order is not modified. The buffer position is moved after the
+     * last complete sample.
+     *
+     * @param samples Destination, heap or direct buffer
+     * @param sampleFormat Encoding of the samples
+     * @param byteOrder Byte order of the samples
+     * @param power Signal power
+     * @param pcmConverter Conversion to integer, with optional dither. Floating point samples are clipped to [-1;1]
+     *                     only if the converter clips.
+     */
+    public void getSamples(ByteBuffer samples, SampleFormat sampleFormat, ByteOrder byteOrder, double power,
+                           PcmConverter pcmConverter) {
+        final int length = samples.remaining() / sampleFormat.bytesPerSample;
+        final int position = samples.position();
+        final boolean swap = samples.order() != byteOrder;
+        float[] fSamples = getSamplesCache(Math.min(length, PCM_BLOCK_LENGTH));
+        int cursor = 0;
+        while(cursor < length) {
+            int blockLength = Math.min(fSamples.length, length - cursor);
+            Arrays.fill(fSamples, 0, blockLength, 0);
+            getSamples(fSamples, 0, blockLength, power);
+            if(sampleFormat == SampleFormat.PCM16) {
+                for (int i = 0; i < blockLength; i++) {
+                    short value = pcmConverter.convert(fSamples[i]);
+                    if(swap) {
+                        value = Short.reverseBytes(value);
+                    }
+                    samples.putShort(position + (cursor + i) * 2, value);
+                }
+            } else {
+                for (int i = 0; i < blockLength; i++) {
+                    float value = pcmConverter.clip(fSamples[i]);
+                    if(swap) {
+                        samples.putInt(position + (cursor + i) * 4,
+                                Integer.reverseBytes(Float.floatToRawIntBits(value)));
+                    } else {
+                        samples.putFloat(position + (cursor + i) * 4, value);
+                    }
                 }
             }
+            cursor += blockLength;
         }
+        ((Buffer) samples).position(position + length * sampleFormat.bytesPerSample);
     }
+
     /**
      * Checksum of bytes (could be used only up to 64 bytes)
      * @param payload payload to crc
@@ -363,9 +1012,7 @@ public class QRTone {
      */
     public static int crc16(byte[] payload, int from, int to) {
         CRC16 crc = new CRC16();
-        for(int i = from; i < to; i++) {
-            crc.add(payload[i]);
-        }
+        crc.update(payload, from, to - from);
         return crc.crc();
     }
 
@@ -382,6 +1029,19 @@ public class QRTone {
         System.arraycopy(interleavedData, 0, inputData, 0, interleavedData.length);
     }
 
+    static void deinterleaveSymbols(float[] inputData, int blockSize) {
+        float[] interleavedData = new float[inputData.length];
+        int insertionCursor = 0;
+        for(int j = 0; j < blockSize; j++) {
+            int cursor = j;
+            while (cursor < inputData.length) {
+                interleavedData[cursor] = inputData[insertionCursor++];
+                cursor += blockSize;
+            }
+        }
+        System.arraycopy(interleavedData, 0, inputData, 0, interleavedData.length);
+    }
+
     public static void deinterleaveSymbols(byte[] inputData, int blockSize) {
         byte[] interleavedData = new byte[inputData.length];
         int insertionCursor = 0;
@@ -469,164 +1129,588 @@ public class QRTone {
         return Math.sqrt(sum / signal.length);
     }
 
-    private void feedTriggerAnalyzer(float[] samples, long totalProcessed) {
-        triggerAnalyzer.processSamples(samples, totalProcessed);
+    private void feedTriggerAnalyzer(float[] samples, int offset, int length, long totalProcessed) {
+        triggerAnalyzer.processSamples(samples, offset, length, totalProcessed);
         if(triggerAnalyzer.getFirstToneLocation() != -1) {
-            qrToneState = STATE.PARSING_SYMBOLS;
-            firstToneSampleIndex = triggerAnalyzer.getFirstToneLocation();
-            frequencyAnalyzers = new IterativeGeneralizedGoertzel[frequencies.length];
-            for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
-                int window_length = Math.min(wordLength, Configuration.computeMinimumWindowSize(configuration.sampleRate, frequencies[idfreq], frequencyLimits[idfreq]));
-                frequencyAnalyzers[idfreq] = new IterativeGeneralizedGoertzel(configuration.sampleRate, frequencies[idfreq], window_length, true);
+            if(decodeContexts.size() < maximumDecodeContexts) {
+                DecodeContext decodeContext = freeDecodeContexts.isEmpty() ? new DecodeContext() : freeDecodeContexts.poll();
+                decodeContext.start(triggerAnalyzer.getFirstToneLocation(),
+                        frequencyCorrection ? triggerAnalyzer.getFrequencyOffset() : 0);
+                decodeContexts.add(decodeContext);
             }
-            symbolsCache = new byte[HEADER_SYMBOLS];
+            // Keep looking for other messages
             triggerAnalyzer.reset();
-            fixedErrors.set(0);
         }
     }
 
     void cachedSymbolsToHeader() throws ReedSolomonException {
-        byte[] payloads = symbolsToPayload(symbolsCache, HEADER_SYMBOLS, HEADER_ECC_SYMBOLS, false, fixedErrors);
+        byte[] payloads = decodeSymbols(symbolsCache, HEADER_SYMBOLS, HEADER_ECC_SYMBOLS, false, fixedErrors);
         headerCache = Header.decodeHeader(payloads);
     }
 
     void cachedSymbolsToPayload() throws ReedSolomonException {
-        payload = symbolsToPayload(symbolsCache, headerCache.eccLevel, headerCache.crc, fixedErrors);
+        payload = decodeSymbols(symbolsCache, headerCache.eccLevel, headerCache.crc, fixedErrors);
+    }
+
+    private void releaseDecodeContext(DecodeContext decodeContext) {
+        decodeContexts.remove(decodeContext);
+        freeDecodeContexts.add(decodeContext);
     }
 
-    private boolean analyzeTones(float[] samples) {
+    /**
+     * @return True if the message has been decoded
+     */
+    private boolean analyzeTones(DecodeContext decodeContext, float[] samples, int offset, int length) {
         // Processed samples in current tone
-        int processedSamples = (int) (pushedSamples - samples.length - getToneLocation());
+        int processedSamples = (int) (pushedSamples - length - decodeContext.getToneLocation());
         // cursor keep track of tone analysis in provided samples array, cursor start with tone location
-        int cursor = Math.max(0, getToneIndex(samples.length));
-        while (cursor < samples.length) {
+        int cursor = Math.max(0, decodeContext.getToneIndex(length));
+        // True if a payload followed by a chained header has been decoded
+        boolean chainedPayload = false;
+        while (cursor < length) {
             // Processed samples in current tone taking account of cursor position
             int toneWindowCursor = processedSamples + cursor;
             // do not process more than wordLength
-            int cursorIncrement = Math.min(samples.length - cursor, wordLength - toneWindowCursor);
-            for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
-                int startWindow = wordLength / 2 - frequencyAnalyzers[idfreq].getWindowSize() / 2;
-                int startAnalyze = Math.max(0, startWindow - toneWindowCursor) + cursor;
-                int analyzeLength = Math.min(samples.length - startAnalyze,
-                        frequencyAnalyzers[idfreq].getWindowSize() - frequencyAnalyzers[idfreq].getProcessedSamples());
-                if(analyzeLength > 0 && startAnalyze < samples.length) {
-                    frequencyAnalyzers[idfreq].processSamples(samples, startAnalyze, startAnalyze + analyzeLength);
-                } else {
-                    break;
-                }
+            int cursorIncrement = Math.min(length - cursor, wordLength - toneWindowCursor);
+            decodeContext.skipMissedSamples(toneWindowCursor);
+            decodeContext.spectralAnalyzer.processSamples(samples, offset + cursor, offset + cursor + cursorIncrement);
+            if(timingRecovery) {
+                decodeContext.accumulateEnergy(samples, offset + cursor, toneWindowCursor, cursorIncrement);
             }
             if(toneWindowCursor + cursorIncrement == wordLength) {
-                double[] spl = new double[frequencies.length];
+                double[] spl = splCache;
+                if(decodeContext.slotPhases != null) {
+                    decodeContext.spectralAnalyzer.computeRMS(spl, phaseCache);
+                } else {
+                    decodeContext.spectralAnalyzer.computeRMS(spl);
+                }
                 for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
-                    double rmsValue = frequencyAnalyzers[idfreq].computeRMS(false).rms;
-                    spl[idfreq] = 20 * Math.log10(rmsValue);
+                    spl[idfreq] = 20 * Math.log10(spl[idfreq]);
                 }
-                for(int symbolOffset = 0; symbolOffset < 2; symbolOffset++) {
+                final int candidateCount = decodeContext.candidateCount;
+                final double[] candidatesLevel = candidatesLevelCache;
+                for(int symbolOffset = 0; symbolOffset < tonesPerWord; symbolOffset++) {
+                    final int symbolIndex = decodeContext.symbolIndex * tonesPerWord + symbolOffset;
+                    // Padding of the last word, its phase carries phase symbols
+                    final boolean padding = symbolIndex >= decodeContext.frequencySymbols;
+                    if(padding && decodeContext.slotPhases == null) {
+                        break;
+                    }
+                    final int candidatesOffset = symbolIndex * candidateCount;
                     int maxSymbolId = -1;
                     double maxSymbolGain = Double.NEGATIVE_INFINITY;
+                    double secondSymbolGain = Double.NEGATIVE_INFINITY;
+                    Arrays.fill(candidatesLevel, 0, candidateCount, Double.NEGATIVE_INFINITY);
                     for(int idFreq = symbolOffset * FREQUENCY_ROOT; idFreq < (symbolOffset + 1) * FREQUENCY_ROOT; idFreq++) {
                         double gain = spl[idFreq];
                         if(gain > maxSymbolGain) {
+                            secondSymbolGain = maxSymbolGain;
                             maxSymbolGain = gain;
                             maxSymbolId = idFreq;
+                        } else if(gain > secondSymbolGain) {
+                            secondSymbolGain = gain;
+                        }
+                        if(padding) {
+                            continue;
                         }
+                        // Keep the best candidates sorted by level
+                        int insertion = candidateCount;
+                        while(insertion > 0 && candidatesLevel[insertion - 1] < gain) {
+                            if(insertion < candidateCount) {
+                                candidatesLevel[insertion] = candidatesLevel[insertion - 1];
+                                decodeContext.candidates[candidatesOffset + insertion] =
+                                        decodeContext.candidates[candidatesOffset + insertion - 1];
+                            }
+                            insertion--;
+                        }
+                        if(insertion < candidateCount) {
+                            candidatesLevel[insertion] = gain;
+                            decodeContext.candidates[candidatesOffset + insertion] =
+                                    (byte)(idFreq - symbolOffset * FREQUENCY_ROOT);
+                        }
+                    }
+                    if(decodeContext.slotPhases != null) {
+                        final double omega = M2PI * frequencies[maxSymbolId] * decodeContext.frequencyScale /
+                                configuration.sampleRate;
+                        // Phase referenced to the tracked location of the word, not to the rounded one
+                        decodeContext.slotPhases[symbolIndex] = phaseCache[maxSymbolId] - omega *
+                                (Math.round(decodeContext.timingOffset) - decodeContext.timingOffset);
+                        decodeContext.slotOmegas[symbolIndex] = omega;
+                    }
+                    if(!padding) {
+                        decodeContext.symbolsCache[symbolIndex] = (byte) (maxSymbolId - symbolOffset * FREQUENCY_ROOT);
+                        decodeContext.symbolsConfidence[symbolIndex] = (float) (maxSymbolGain - secondSymbolGain);
                     }
-                    symbolsCache[this.symbolIndex * 2 + symbolOffset] = (byte)(maxSymbolId - symbolOffset * FREQUENCY_ROOT);
                 }
-                symbolIndex += 1;
-                processedSamples = (int) (pushedSamples - samples.length - getToneLocation());
-                cursor = Math.max(cursor, getToneIndex(samples.length));
-                if(symbolIndex * 2 == symbolsCache.length) {
-                    if(headerCache == null) {
-                        try {
-                            cachedSymbolsToHeader();
-                            // CRC error
-                            if(headerCache == null) {
-                                reset();
-                                break;
-                            }
-                            symbolsCache = new byte[headerCache.numberOfSymbols];
-                            symbolIndex = 0;
-                            firstToneSampleIndex += (HEADER_SYMBOLS / 2) * (wordLength+wordSilenceLength);
-                        } catch (ReedSolomonException ex) {
-                            // Can't decode payload
-                            reset();
+                if(timingRecovery) {
+                    decodeContext.updateTiming();
+                }
+                decodeContext.symbolIndex += 1;
+                processedSamples = (int) (pushedSamples - length - decodeContext.getToneLocation());
+                cursor = Math.max(cursor, decodeContext.getToneIndex(length));
+                if(decodeContext.symbolIndex == decodeContext.wordCount) {
+                    if(decodeContext.header == null) {
+                        decodeContext.header = decodeHeader(decodeContext);
+                        if(decodeContext.header == null) {
+                            // Can't decode header
+                            releaseDecodeContext(decodeContext);
                             break;
                         }
+                        decodeContext.setSymbolsLength(decodeContext.header.numberOfSymbols);
+                        decodeContext.symbolIndex = 0;
+                        decodeContext.firstToneSampleIndex += configuration.getWordCount(HEADER_SYMBOLS) *
+                                (wordLength+wordSilenceLength);
                     } else {
                         // Decoding complete
-                        try {
-                            cachedSymbolsToPayload();
-                            reset();
-                            return true;
-                        } catch (ReedSolomonException ex) {
+                        if(decodeContext.slotPhases != null) {
+                            demodulatePhases(decodeContext);
+                        }
+                        byte[] decoded = decodePayload(decodeContext);
+                        if(decoded == null) {
                             // Can't decode payload
-                            reset();
+                            releaseDecodeContext(decodeContext);
                             break;
                         }
+                        payload = decoded;
+                        symbolsConfidence = decodeContext.symbolsConfidence;
+                        payloadSampleIndex = decodeContext.messageSampleIndex;
+                        fixedErrors[0] = decodeContext.fixedErrors[0];
+                        listDecodingRetries = decodeContext.retries[0];
+                        driftPpm = decodeContext.timingDrift / (wordLength + wordSilenceLength) * 1e6;
+                        frequencyOffset = decodeContext.frequencyScale - 1;
+                        decodedMessages.add(new DecodedMessage(decodeContext.messageSampleIndex, decoded,
+                                decodeContext.fixedErrors[0]));
+                        onMessageDecoded(decodeContext);
+                        if(!decodeContext.header.chained) {
+                            return true;
+                        }
+                        // The header of the next payload follows without gate tones
+                        decodeContext.chain();
+                        chainedPayload = true;
                     }
                 }
             } else {
                 cursor += cursorIncrement;
             }
         }
-        return false;
+        return chainedPayload;
+    }
+
+    /**
+     * Read the payload symbols sent in the phase of the tones. A phase symbol is given to Reed-Solomon as an erasure
+     * when its phase is further than half way to the decision boundary.
+     */
+    private void demodulatePhases(DecodeContext decodeContext) {
+        PhaseModulation.decode(decodeContext.slotPhases, decodeContext.slotOmegas, decodeContext.wordCount,
+                tonesPerWord, configuration.phaseBits, phaseSearchRange, decodeContext.symbolsCache,
+                decodeContext.symbolsConfidence, (float) (2 * erasureThreshold));
+        final int candidateCount = decodeContext.candidateCount;
+        for(int symbolIndex = decodeContext.frequencySymbols; symbolIndex < decodeContext.symbolsCache.length;
+            symbolIndex++) {
+            Arrays.fill(decodeContext.candidates, symbolIndex * candidateCount, (symbolIndex + 1) * candidateCount,
+                    decodeContext.symbolsCache[symbolIndex]);
+        }
+    }
+
+    /**
+     * @return Decoded header or null if the header symbols can not be decoded
+     */
+    private Header decodeHeader(DecodeContext decodeContext) {
+        return decodeHeaderSymbols(decodeContext.symbolsCache, decodeContext.symbolsConfidence, erasureThreshold,
+                decodeContext.fixedErrors);
+    }
+
+    /**
+     * Decode the header with Reed-Solomon and erasures only. Noise detected as gate tones produces random header
+     * symbols, the header CRC alone can not reject the many candidates of list decoding.
+     * @param symbols Header symbols, not modified
+     * @param confidence Level gap (dB) between the best and second best frequency of each symbol
+     * @param erasureThreshold Symbols with a confidence below this value are erasure candidates
+     * @param fixedErrors Single element array, the number of errors corrected is added to the first element. May be
+     *                    null
+     * @return Decoded header or null if the header symbols can not be decoded
+     */
+    static Header decodeHeaderSymbols(byte[] symbols, float[] confidence, double erasureThreshold, int[] fixedErrors) {
+        try {
+            return Header.decodeHeader(decodeSymbols(Arrays.copyOf(symbols, HEADER_SYMBOLS), confidence,
+                    HEADER_SYMBOLS, HEADER_ECC_SYMBOLS, false, erasureThreshold, fixedErrors));
+        } catch (ReedSolomonException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Decoded payload or null if the payload symbols can not be decoded
+     */
+    private byte[] decodePayload(DecodeContext decodeContext) {
+        final Header header = decodeContext.header;
+        try {
+            return decodeSymbols(Arrays.copyOf(decodeContext.symbolsCache, decodeContext.symbolsCache.length),
+                    decodeContext.symbolsConfidence, header.eccLevel, header.crc, erasureThreshold,
+                    decodeContext.fixedErrors);
+        } catch (ReedSolomonException ex) {
+            // Try list decoding
+        }
+        return listDecodeSymbols(decodeContext.symbolsCache, decodeContext.symbolsConfidence,
+                decodeContext.candidates, decodeContext.candidateCount, Configuration.getTotalSymbolsForEcc(header.eccLevel),
+                Configuration.getEccSymbolsForEcc(header.eccLevel), header.crc, listDecodingBudget,
+                decodeContext.retries, decodeContext.fixedErrors);
+    }
+
+    /**
+     * Release the decoded context and the contexts started inside the decoded message, they have been triggered by
+     * the tones of the message. The decoded context is kept if a chained header follows the payload.
+     */
+    private void onMessageDecoded(DecodeContext decoded) {
+        final long messageEnd = decoded.getToneLocation();
+        for(int i = decodeContexts.size() - 1; i >= 0; i--) {
+            DecodeContext decodeContext = decodeContexts.get(i);
+            if((decodeContext == decoded && !decoded.header.chained) ||
+                    (decodeContext.messageSampleIndex > decoded.messageSampleIndex &&
+                    decodeContext.messageSampleIndex < messageEnd)) {
+                releaseDecodeContext(decodeContext);
+            }
+        }
     }
 
     /**
      * Analyze samples
      * @param samples Samples. Should not be greater than {@link #getMaximumWindowLength()} in order to not miss multiple messages
-     * @return True if a payload has been decoded and can be retrieved with {@link #getPayload()}
+     * @return True if at least one payload has been decoded, see {@link #pollDecodedMessage()}
      */
     public boolean pushSamples(short[] samples) {
-        float[] fSamples = new float[samples.length];
-        for(int i = 0; i < samples.length; i++) {
-            fSamples[i] = samples[i] / (float) Short.MAX_VALUE;
+        return pushSamples(samples, 0, samples.length);
+    }
+
+    /**
+     * Analyze samples. The conversion to floating point use a buffer owned by this instance, so no memory is
+     * allocated once the buffer has reached the length of the pushed windows.
+     * @param samples Samples
+     * @param offset Index of the first sample to analyze
+     * @param length Number of samples to analyze. Should not be greater than {@link #getMaximumWindowLength()} in
+     *               order to not miss multiple messages
+     * @return True if at least one payload has been decoded, see {@link #pollDecodedMessage()}
+     */
+    public boolean pushSamples(short[] samples, int offset, int length) {
+        float[] fSamples = getSamplesCache(length);
+        for(int i = 0; i < length; i++) {
+            fSamples[i] = samples[offset + i] / (float) Short.MAX_VALUE;
         }
-        return pushSamples(fSamples);
+        return pushSamples(fSamples, 0, length);
     }
 
     /**
      * Analyze samples
      * @param samples Samples. Should not be greater than {@link #getMaximumWindowLength()} in order to not miss multiple messages
-     * @return True if a payload has been decoded and can be retrieved with {@link #getPayload()}
+     * @return True if at least one payload has been decoded, see {@link #pollDecodedMessage()}
      */
     public boolean pushSamples(float[] samples) {
-        pushedSamples += samples.length;
-        if(qrToneState == STATE.WAITING_TRIGGER) {
-            feedTriggerAnalyzer(samples, pushedSamples - samples.length);
+        return pushSamples(samples, 0, samples.length);
+    }
+
+    /**
+     * Analyze samples. The provided samples are not modified nor copied.
+     * @param samples Samples
+     * @param offset Index of the first sample to analyze
+     * @param length Number of samples to analyze. Should not be greater than {@link #getMaximumWindowLength()} in
+     *               order to not miss multiple messages
+     * @return True if at least one payload has been decoded, see {@link #pollDecodedMessage()}
+     */
+    public boolean pushSamples(float[] samples, int offset, int length) {
+        decodedMessages.clear();
+        pushedSamples += length;
+        feedTriggerAnalyzer(samples, offset, length, pushedSamples - length);
+        boolean decoded = false;
+        // Iterate on a copy of the index as contexts may be released during analysis
+        for(int i = decodeContexts.size() - 1; i >= 0; i--) {
+            if(i < decodeContexts.size()) {
+                decoded |= analyzeTones(decodeContexts.get(i), samples, offset, length);
+            }
         }
-        if(qrToneState == STATE.PARSING_SYMBOLS) {
-            return analyzeTones(samples);
+        return decoded;
+    }
+
+    private float[] getSamplesCache(int length) {
+        if(samplesCache.length < length) {
+            samplesCache = new float[length];
         }
-        return false;
+        return samplesCache;
+    }
+
+    /**
+     * Analyze the remaining samples of the buffer. The buffer position is moved to its limit.
+     * @param samples Samples. Remaining samples should not be greater than {@link #getMaximumWindowLength()} in order
+     *                to not miss multiple messages
+     * @return True if at least one payload has been decoded, see {@link #pollDecodedMessage()}
+     */
+    public boolean pushSamples(ShortBuffer samples) {
+        final int length = samples.remaining();
+        final int position = samples.position();
+        float[] fSamples = getSamplesCache(length);
+        for(int i = 0; i < length; i++) {
+            fSamples[i] = samples.get(position + i) / (float) Short.MAX_VALUE;
+        }
+        ((Buffer) samples).position(samples.limit());
+        return pushSamples(fSamples, 0, length);
+    }
+
+    /**
+     * Analyze the remaining samples of the buffer. Heap buffers are analyzed in place.
+     * The buffer position is moved to its limit.
+     * @param samples Samples. Remaining samples should not be greater than {@link #getMaximumWindowLength()} in order
+     *                to not miss multiple messages
+     * @return True if at least one payload has been decoded, see {@link #pollDecodedMessage()}
+     */
+    public boolean pushSamples(FloatBuffer samples) {
+        final int length = samples.remaining();
+        if(samples.hasArray()) {
+            final int offset = samples.arrayOffset() + samples.position();
+            ((Buffer) samples).position(samples.limit());
+            return pushSamples(samples.array(), offset, length);
+        } else {
+            float[] fSamples = getSamplesCache(length);
+            samples.get(fSamples, 0, length);
+            return pushSamples(fSamples, 0, length);
+        }
+    }
+
+    /**
+     * Analyze the remaining bytes of the buffer. The samples are decoded with absolute reads, so the buffer byte order
+     * is not modified. The buffer position is moved after the last complete sample.
+     * @param samples Raw samples, heap or direct buffer. Remaining samples should not be greater than
+     * {@link #getMaximumWindowLength()} in order to not miss multiple messages
+     * @param sampleFormat Encoding of the samples
+     * @param byteOrder Byte order of the samples
+     * @return True if at least one payload has been decoded, see {@link #pollDecodedMessage()}
+     */
+    public boolean pushSamples(ByteBuffer samples, SampleFormat sampleFormat, ByteOrder byteOrder) {
+        final int length = samples.remaining() / sampleFormat.bytesPerSample;
+        final int position = samples.position();
+        final boolean swap = samples.order() != byteOrder;
+        float[] fSamples = getSamplesCache(length);
+        if(sampleFormat == SampleFormat.PCM16) {
+            for (int i = 0; i < length; i++) {
+                short value = samples.getShort(position + i * 2);
+                if(swap) {
+                    value = Short.reverseBytes(value);
+                }
+                fSamples[i] = value / (float) Short.MAX_VALUE;
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                if(swap) {
+                    fSamples[i] = Float.intBitsToFloat(Integer.reverseBytes(samples.getInt(position + i * 4)));
+                } else {
+                    fSamples[i] = samples.getFloat(position + i * 4);
+                }
+            }
+        }
+        ((Buffer) samples).position(position + length * sampleFormat.bytesPerSample);
+        return pushSamples(fSamples, 0, length);
     }
 
     public void reset() {
         symbolsCache = null;
-        symbolIndex = 0;
         headerCache = null;
-        qrToneState = STATE.WAITING_TRIGGER;
+        while(!decodeContexts.isEmpty()) {
+            releaseDecodeContext(decodeContexts.get(decodeContexts.size() - 1));
+        }
         symbolsToDeliver = null;
-        frequencyAnalyzers = null;
+        phasesToDeliver = null;
         triggerAnalyzer.reset();
+        decodedMessages.clear();
+    }
+
+    /**
+     * Retrieve the messages decoded by the last call of pushSamples, in decoding order. Several messages may be
+     * decoded in the same window while {@link #getPayload()} only gives the last one. The messages that have not been
+     * polled are discarded by the next call of pushSamples.
+     * @return Next decoded message or null if there is none
+     */
+    public DecodedMessage pollDecodedMessage() {
+        return decodedMessages.poll();
     }
 
     /**
-     * @return Errors corrected by Reed-Solomon algorithm
+     * @return Errors corrected by Reed-Solomon algorithm on the last decoded payload
      */
     public int getFixedErrors() {
-        return fixedErrors.get();
+        return fixedErrors[0];
     }
 
-    private long getToneLocation() {
-        return firstToneSampleIndex + symbolIndex * (wordLength + wordSilenceLength) + wordSilenceLength;
+    /**
+     * @return Sample index where the frame of the last decoded payload begins: its first gate tone, or the first tone
+     * of its header if the payload has been chained after another one by {@link #setChainedPayloads(List,
+     * Configuration.ECC_LEVEL, boolean)}, as chained frames have no gate tones
+     */
+    public long gePayloadSampleIndex() {
+        return payloadSampleIndex;
     }
-    private int getToneIndex(int bufferLength) {
-        return (int)(bufferLength - (pushedSamples - getToneLocation()));
+
+    /**
+     * Payload decoded by {@link #pushSamples(float[], int, int)}
+     */
+    public static class DecodedMessage {
+        // Sample index where the frame of the payload begins, see gePayloadSampleIndex
+        public final long sampleIndex;
+        public final byte[] payload;
+        // Errors corrected by Reed-Solomon algorithm
+        public final int fixedErrors;
+
+        public DecodedMessage(long sampleIndex, byte[] payload, int fixedErrors) {
+            this.sampleIndex = sampleIndex;
+            this.payload = payload;
+            this.fixedErrors = fixedErrors;
+        }
     }
 
-    public long gePayloadSampleIndex() {
-        return firstToneSampleIndex - (HEADER_SYMBOLS / 2) * (wordLength+wordSilenceLength) - gateLength * 2;
+    /**
+     * Parsing state of a message
+     */
+    private class DecodeContext {
+        final SpectralAnalyzer spectralAnalyzer;
+        // First tone of the header, then first tone of the payload
+        long firstToneSampleIndex;
+        // Sample index of the beginning of the frame, first gate tone or first header tone of a chained frame
+        long messageSampleIndex;
+        int symbolIndex;
+        // Number of words of the header or of the payload
+        int wordCount;
+        // Number of symbols sent on the frequencies of the words, the others are sent in phase
+        int frequencySymbols;
+        byte[] symbolsCache;
+        float[] symbolsConfidence;
+        // Best symbols of each received symbol, sorted by level
+        byte[] candidates;
+        int candidateCount;
+        Header header;
+        // Phase and angular frequency of the detected tone of each payload slot, null without phase modulation
+        double[] slotPhases;
+        double[] slotOmegas;
+        // Location of the words relatively to the nominal location, and its variation on each word, in samples
+        double timingOffset;
+        double timingDrift;
+        // Energy of the early and late regions of the word being analyzed
+        double earlyEnergy;
+        double lateEnergy;
+        // Ratio between the analyzed frequencies and the nominal frequencies
+        double frequencyScale = 1;
+        private final double[] tunedFrequencies = new double[frequencies.length];
+        final int[] fixedErrors = new int[1];
+        final int[] retries = new int[1];
+
+        DecodeContext() {
+            spectralAnalyzer = spectralAnalyzerFactory.create(configuration.sampleRate, frequencies, windowLengths,
+                    wordLength);
+        }
+
+        /**
+         * @param firstToneLocation Sample index of the first tone of the header
+         * @param frequencyOffset Relative frequency offset of the received tones
+         */
+        void start(long firstToneLocation, double frequencyOffset) {
+            if(frequencyScale != 1 + frequencyOffset) {
+                frequencyScale = 1 + frequencyOffset;
+                for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+                    tunedFrequencies[idfreq] = frequencies[idfreq] * frequencyScale;
+                }
+                spectralAnalyzer.setFrequencies(tunedFrequencies);
+            }
+            firstToneSampleIndex = firstToneLocation;
+            messageSampleIndex = firstToneLocation - gateLength * 2;
+            symbolIndex = 0;
+            candidateCount = listDecodingCandidates;
+            header = null;
+            setSymbolsLength(HEADER_SYMBOLS);
+            fixedErrors[0] = 0;
+            retries[0] = 0;
+            timingOffset = 0;
+            timingDrift = 0;
+            earlyEnergy = 0;
+            lateEnergy = 0;
+            spectralAnalyzer.reset();
+        }
+
+        /**
+         * @param samples Audio samples
+         * @param from Index of the first sample
+         * @param wordPosition Position of the first sample in the word
+         * @param count Number of samples
+         */
+        void accumulateEnergy(float[] samples, int from, int wordPosition, int count) {
+            final int earlyEnd = Math.min(count, timingRegionLength - wordPosition);
+            for(int i = Math.max(0, -wordPosition); i < earlyEnd; i++) {
+                earlyEnergy += samples[from + i] * samples[from + i];
+            }
+            for(int i = Math.max(0, wordLength - timingRegionLength - wordPosition); i < count; i++) {
+                lateEnergy += samples[from + i] * samples[from + i];
+            }
+        }
+
+        /**
+         * A context may be triggered after the beginning of its first word, the samples of the word pushed before the
+         * trigger are no longer available. The missed samples of the word are analyzed as silence.
+         * @param wordPosition Position in the word of the next analyzed sample
+         */
+        void skipMissedSamples(int wordPosition) {
+            for(int missing = wordPosition - spectralAnalyzer.getProcessedSamples(); missing > 0;
+                missing = wordPosition - spectralAnalyzer.getProcessedSamples()) {
+                spectralAnalyzer.processSamples(silenceCache, 0, Math.min(missing, silenceCache.length));
+            }
+        }
+
+        /**
+         * Second order loop, correct the location of the next word with the timing error of the analyzed word
+         */
+        void updateTiming() {
+            double timingError = estimateTimingError(earlyEnergy, lateEnergy);
+            timingDrift -= TIMING_LOOP_INTEGRAL_GAIN * timingError;
+            timingOffset += timingDrift - TIMING_LOOP_PROPORTIONAL_GAIN * timingError;
+            earlyEnergy = 0;
+            lateEnergy = 0;
+        }
+
+        /**
+         * Parse the header that follows the decoded payload
+         */
+        void chain() {
+            firstToneSampleIndex += wordCount * (wordLength + wordSilenceLength);
+            messageSampleIndex = firstToneSampleIndex;
+            symbolIndex = 0;
+            header = null;
+            setSymbolsLength(HEADER_SYMBOLS);
+            fixedErrors[0] = 0;
+            retries[0] = 0;
+            spectralAnalyzer.reset();
+        }
+
+        /**
+         * @param symbolsLength Number of symbols of the header if header is null, else of the payload
+         */
+        void setSymbolsLength(int symbolsLength) {
+            if(header != null && configuration.phaseBits > 0) {
+                wordCount = configuration.getPayloadWordCount(symbolsLength);
+                frequencySymbols = Math.min(symbolsLength, wordCount * tonesPerWord);
+                slotPhases = new double[wordCount * tonesPerWord];
+                slotOmegas = new double[wordCount * tonesPerWord];
+            } else {
+                wordCount = configuration.getWordCount(symbolsLength);
+                frequencySymbols = symbolsLength;
+                slotPhases = null;
+                slotOmegas = null;
+            }
+            symbolsCache = new byte[symbolsLength];
+            symbolsConfidence = new float[symbolsLength];
+            candidates = new byte[symbolsLength * candidateCount];
+        }
+
+        long getToneLocation() {
+            return firstToneSampleIndex + symbolIndex * (wordLength + wordSilenceLength) + wordSilenceLength +
+                    Math.round(timingOffset);
+        }
+
+        int getToneIndex(int bufferLength) {
+            return (int)(bufferLength - (pushedSamples - getToneLocation()));
+        }
     }
 }
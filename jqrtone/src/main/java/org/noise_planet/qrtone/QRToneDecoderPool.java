@@ -0,0 +1,445 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Decode many audio streams concurrently using a fixed number of worker threads.
+ * Each stream owns its {@link QRTone} instance and is pinned to a single worker, so the samples of a stream are
+ * always processed in the order they have been pushed. A worker serves its streams in round-robin, one frame at a
+ * time, and each stream cannot queue more than a fixed number of frames: a burst on one stream is rejected instead of
+ * delaying the other streams.
+ */
+public class QRToneDecoderPool {
+    public static final int DEFAULT_MAX_PENDING_FRAMES = 64;
+    private final Configuration configuration;
+    private final PayloadCallback payloadCallback;
+    private final int maxPendingFrames;
+    private final Worker[] workers;
+    private final ConcurrentHashMap<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private final AtomicInteger nextWorker = new AtomicInteger(0);
+    private final AtomicLong rejectedFrames = new AtomicLong(0);
+    private final AtomicLong processingErrors = new AtomicLong(0);
+    private volatile ErrorCallback errorCallback = null;
+    private volatile boolean running = true;
+    // Producers hold the read lock while queuing, shutdown holds the write lock while poisoning the workers
+    private final ReadWriteLock shutdownLock = new ReentrantReadWriteLock();
+
+    /**
+     * @param configuration QRTone configuration shared by all streams
+     * @param workerCount Number of worker threads, usually the number of available processors
+     * @param payloadCallback Called from the worker threads when a payload has been decoded
+     */
+    public QRToneDecoderPool(Configuration configuration, int workerCount, PayloadCallback payloadCallback) {
+        this(configuration, workerCount, DEFAULT_MAX_PENDING_FRAMES, payloadCallback);
+    }
+
+    /**
+     * @param configuration QRTone configuration shared by all streams
+     * @param workerCount Number of worker threads, usually the number of available processors
+     * @param maxPendingFrames Maximum number of frames waiting to be processed for one stream
+     * @param payloadCallback Called from the worker threads when a payload has been decoded
+     */
+    public QRToneDecoderPool(Configuration configuration, int workerCount, int maxPendingFrames,
+                             PayloadCallback payloadCallback) {
+        if(workerCount < 1) {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+        if(maxPendingFrames < 1) {
+            throw new IllegalArgumentException("At least one pending frame per stream is required");
+        }
+        this.configuration = configuration;
+        this.maxPendingFrames = maxPendingFrames;
+        this.payloadCallback = payloadCallback;
+        workers = new Worker[workerCount];
+        for(int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker("qrtone-decoder-" + i);
+            workers[i].start();
+        }
+    }
+
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    /**
+     * @return Number of frames refused by the admission control since the creation of the pool
+     */
+    public long getRejectedFrames() {
+        return rejectedFrames.get();
+    }
+
+    /**
+     * @return Number of exceptions thrown by the payload callback or by the decoder since the creation of the pool
+     */
+    public long getProcessingErrors() {
+        return processingErrors.get();
+    }
+
+    /**
+     * @param errorCallback Called from the worker threads when the payload callback or the decoder throws an
+     *                      exception, the worker then continues with the next frames. May be null.
+     */
+    public void setErrorCallback(ErrorCallback errorCallback) {
+        this.errorCallback = errorCallback;
+    }
+
+    /**
+     * @param streamId Stream identifier
+     * @return Number of frames of this stream waiting to be processed
+     */
+    public int getPendingFrames(int streamId) {
+        Stream stream = streams.get(streamId);
+        if(stream == null) {
+            return 0;
+        }
+        synchronized (stream) {
+            return stream.frames.size();
+        }
+    }
+
+    private Stream getStream(int streamId) {
+        while(true) {
+            Stream stream = streams.get(streamId);
+            if(stream == null) {
+                Worker worker = workers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+                Stream newStream = new Stream(streamId, new QRTone(configuration), worker);
+                stream = streams.putIfAbsent(streamId, newStream);
+                if(stream == null) {
+                    return newStream;
+                }
+            }
+            synchronized (stream) {
+                if(!stream.closed) {
+                    return stream;
+                }
+                // The closed stream still has frames to process, keep its worker so that the frames of this stream
+                // identifier are never processed concurrently
+                Stream newStream = new Stream(streamId, new QRTone(configuration), stream.worker);
+                if(streams.replace(streamId, stream, newStream)) {
+                    return newStream;
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue samples of a stream without blocking. The stream is created on the first call.
+     * @param streamId Stream identifier
+     * @param samples Audio samples, the array must not be modified by the caller afterwards
+     * @return False if the stream has already the maximum number of pending frames, the samples are then dropped
+     */
+    public boolean pushSamples(int streamId, float[] samples) {
+        shutdownLock.readLock().lock();
+        try {
+            if(!running) {
+                throw new IllegalStateException("Decoder pool has been shut down");
+            }
+            while(true) {
+                Stream stream = getStream(streamId);
+                synchronized (stream) {
+                    if(stream.closed) {
+                        // Closed since it has been looked up
+                        continue;
+                    }
+                    if(stream.frames.size() >= maxPendingFrames) {
+                        rejectedFrames.incrementAndGet();
+                        return false;
+                    }
+                    stream.enqueue(samples);
+                    return true;
+                }
+            }
+        } finally {
+            shutdownLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Queue samples of a stream, waiting for the stream queue to have room for it.
+     * @param streamId Stream identifier
+     * @param samples Audio samples, the array must not be modified by the caller afterwards
+     * @param timeout How long to wait before giving up
+     * @param unit Unit of timeout
+     * @return False if the samples has not been queued before the timeout expired
+     * @throws InterruptedException If interrupted while waiting
+     * @throws IllegalStateException If the pool has been shut down, even while waiting
+     */
+    public boolean pushSamples(int streamId, float[] samples, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        shutdownLock.readLock().lock();
+        try {
+            while(true) {
+                Stream stream = getStream(streamId);
+                synchronized (stream) {
+                    while(!stream.closed && stream.frames.size() >= maxPendingFrames) {
+                        if(!running) {
+                            throw new IllegalStateException("Decoder pool has been shut down");
+                        }
+                        long remaining = deadline - System.nanoTime();
+                        if(remaining <= 0) {
+                            rejectedFrames.incrementAndGet();
+                            return false;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(stream, remaining);
+                    }
+                    if(stream.closed) {
+                        continue;
+                    }
+                    if(!running) {
+                        throw new IllegalStateException("Decoder pool has been shut down");
+                    }
+                    stream.enqueue(samples);
+                    return true;
+                }
+            }
+        } finally {
+            shutdownLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forget a stream. Frames already queued for this stream are still processed, by the same worker as the samples
+     * pushed afterwards with this stream identifier, which are decoded from a new state.
+     * @param streamId Stream identifier
+     */
+    public void closeStream(int streamId) {
+        Stream stream = streams.get(streamId);
+        if(stream == null) {
+            return;
+        }
+        synchronized (stream) {
+            stream.closed = true;
+            if(!stream.scheduled) {
+                streams.remove(streamId, stream);
+            }
+            // Producers waiting for room push to the next stream instead
+            stream.notifyAll();
+        }
+    }
+
+    /**
+     * Stop accepting samples. Workers exit once the queued frames have been processed.
+     */
+    public void shutdown() {
+        running = false;
+        // Wake up the producers waiting for room, they give up
+        for(Stream stream : streams.values()) {
+            synchronized (stream) {
+                stream.notifyAll();
+            }
+        }
+        // Wait for the producers that are queuing samples, no frame can be queued once the workers are poisoned
+        shutdownLock.writeLock().lock();
+        try {
+            for(Worker worker : workers) {
+                worker.readyStreams.add(Stream.POISON);
+            }
+        } finally {
+            shutdownLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Wait for the workers to finish the queued frames after {@link #shutdown()}
+     * @param timeout How long to wait
+     * @param unit Unit of timeout
+     * @return True if all workers have terminated
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for(Worker worker : workers) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if(remaining <= 0) {
+                return !worker.isAlive();
+            }
+            worker.join(remaining);
+            if(worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void process(Stream stream, float[] samples) {
+        QRTone qrTone = stream.qrTone;
+        int cursor = 0;
+        while (cursor < samples.length) {
+            int windowSize = Math.min(qrTone.getMaximumWindowLength(), samples.length - cursor);
+            if(qrTone.pushSamples(samples, cursor, windowSize) && payloadCallback != null) {
+                QRTone.DecodedMessage message;
+                while((message = qrTone.pollDecodedMessage()) != null) {
+                    try {
+                        payloadCallback.onPayload(stream.streamId, message.sampleIndex, message.payload);
+                    } catch (RuntimeException ex) {
+                        // The decoder must still receive the remaining samples of the frame, and the other messages
+                        // of this window must still be delivered
+                        reportError(stream, ex);
+                    }
+                }
+            }
+            cursor += windowSize;
+        }
+    }
+
+    private void reportError(Stream stream, RuntimeException ex) {
+        processingErrors.incrementAndGet();
+        ErrorCallback callback = errorCallback;
+        if(callback != null) {
+            try {
+                callback.onError(stream.streamId, ex);
+            } catch (RuntimeException ignored) {
+                // Nothing left to report to, keep the worker alive
+            }
+        }
+    }
+
+    /**
+     * Decoding state of a stream. The frame queue and the flags are guarded by the stream monitor.
+     */
+    private static final class Stream {
+        static final Stream POISON = new Stream(-1, null, null);
+        final int streamId;
+        final QRTone qrTone;
+        final Worker worker;
+        final ArrayDeque<float[]> frames = new ArrayDeque<>();
+        // True while the stream is in the ready queue of its worker or being processed
+        boolean scheduled = false;
+        // True once the stream has been closed, it is removed from the streams when its frames have been processed
+        boolean closed = false;
+
+        Stream(int streamId, QRTone qrTone, Worker worker) {
+            this.streamId = streamId;
+            this.qrTone = qrTone;
+            this.worker = worker;
+        }
+
+        void enqueue(float[] samples) {
+            frames.add(samples);
+            if(!scheduled) {
+                scheduled = true;
+                worker.readyStreams.add(this);
+            }
+        }
+    }
+
+    private final class Worker extends Thread {
+        final BlockingQueue<Stream> readyStreams = new LinkedBlockingQueue<>();
+
+        Worker(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Stream stream = readyStreams.take();
+                    if (stream == Stream.POISON) {
+                        if(readyStreams.isEmpty()) {
+                            return;
+                        }
+                        // Let the queued streams drain first
+                        readyStreams.add(Stream.POISON);
+                        continue;
+                    }
+                    float[] samples;
+                    synchronized (stream) {
+                        samples = stream.frames.poll();
+                        // Wake up producers waiting for room
+                        stream.notifyAll();
+                    }
+                    try {
+                        if (samples != null) {
+                            process(stream, samples);
+                        }
+                    } catch (RuntimeException ex) {
+                        // Drop this frame only, the stream and the other streams of this worker go on
+                        reportError(stream, ex);
+                    } finally {
+                        synchronized (stream) {
+                            if (stream.frames.isEmpty()) {
+                                stream.scheduled = false;
+                                if (stream.closed) {
+                                    streams.remove(stream.streamId, stream);
+                                }
+                            } else {
+                                // Round-robin, give a chance to the other streams of this worker
+                                readyStreams.add(stream);
+                            }
+                            stream.notifyAll();
+                        }
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public interface PayloadCallback {
+        /**
+         * Called by a worker thread each time a message has been decoded on a stream
+         * @param streamId Stream identifier
+         * @param payloadSampleIndex Index of the first sample of the payload frame in the stream, see
+         *                           {@link QRTone#gePayloadSampleIndex()}
+         * @param payload Decoded payload
+         */
+        void onPayload(int streamId, long payloadSampleIndex, byte[] payload);
+    }
+
+    public interface ErrorCallback {
+        /**
+         * Called by a worker thread when the payload callback or the decoder has thrown an exception
+         * @param streamId Stream identifier
+         * @param exception Thrown exception
+         */
+        void onError(int streamId, RuntimeException exception);
+    }
+}
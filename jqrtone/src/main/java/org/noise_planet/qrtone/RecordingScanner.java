@@ -0,0 +1,159 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Find all messages of a raw audio recording (without header, mono).
+ * The file is memory-mapped region by region and the samples are read directly from the mapped buffers, so the
+ * recording is never loaded on the heap.
+ */
+public class RecordingScanner {
+    /** Default size in bytes of the mapped regions */
+    public static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+    private final Configuration configuration;
+    private final SampleFormat sampleFormat;
+    private final ByteOrder byteOrder;
+    private int regionSize = DEFAULT_REGION_SIZE;
+
+    /**
+     * @param configuration QRTone configuration, the sample rate must be the one of the recording
+     * @param sampleFormat Encoding of the samples
+     * @param byteOrder Byte order of the samples
+     */
+    public RecordingScanner(Configuration configuration, SampleFormat sampleFormat, ByteOrder byteOrder) {
+        this.configuration = configuration;
+        this.sampleFormat = sampleFormat;
+        this.byteOrder = byteOrder;
+    }
+
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    public SampleFormat getSampleFormat() {
+        return sampleFormat;
+    }
+
+    public ByteOrder getByteOrder() {
+        return byteOrder;
+    }
+
+    public int getRegionSize() {
+        return regionSize;
+    }
+
+    /**
+     * @param regionSize Size in bytes of the mapped regions of the file
+     */
+    public void setRegionSize(int regionSize) {
+        if(regionSize < sampleFormat.bytesPerSample) {
+            throw new IllegalArgumentException("Region size must contain at least one sample");
+        }
+        this.regionSize = regionSize;
+    }
+
+    /**
+     * @param channel Recording
+     * @return Number of complete samples in the recording
+     * @throws IOException Error while reading the file size
+     */
+    public long getSampleCount(FileChannel channel) throws IOException {
+        return channel.size() / sampleFormat.bytesPerSample;
+    }
+
+    /**
+     * Decode all messages of the recording
+     * @param file Raw audio file
+     * @param callback Called for each decoded message
+     * @throws IOException Error while reading the file
+     */
+    public void scan(File file, PayloadCallback callback) throws IOException {
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            scan(channel, 0, getSampleCount(channel), callback);
+        }
+    }
+
+    /**
+     * Decode messages found in a range of samples of the recording
+     * @param channel Recording
+     * @param fromSample Index of the first sample to analyze
+     * @param toSample Excluded index of the last sample to analyze
+     * @param callback Called for each decoded message, with a sample index relative to the beginning of the recording
+     * @throws IOException Error while reading the file
+     */
+    public void scan(FileChannel channel, long fromSample, long toSample, PayloadCallback callback) throws IOException {
+        final int bytesPerSample = sampleFormat.bytesPerSample;
+        // Keep regions aligned on samples
+        final long regionSamples = Math.max(1, regionSize / bytesPerSample);
+        QRTone qrTone = new QRTone(configuration);
+        long regionStart = fromSample;
+        while (regionStart < toSample) {
+            long regionEnd = Math.min(toSample, regionStart + regionSamples);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart * bytesPerSample,
+                    (regionEnd - regionStart) * bytesPerSample);
+            final int regionLimit = region.limit();
+            while (region.position() < regionLimit) {
+                int windowSize = Math.min(qrTone.getMaximumWindowLength(),
+                        (regionLimit - region.position()) / bytesPerSample);
+                ((Buffer) region).limit(region.position() + windowSize * bytesPerSample);
+                if(qrTone.pushSamples(region, sampleFormat, byteOrder)) {
+                    QRTone.DecodedMessage message;
+                    while((message = qrTone.pollDecodedMessage()) != null) {
+                        callback.onPayload(fromSample + message.sampleIndex, message.payload);
+                    }
+                }
+                ((Buffer) region).limit(regionLimit);
+            }
+            regionStart = regionEnd;
+        }
+    }
+
+    public interface PayloadCallback {
+        /**
+         * @param sampleIndex Index of the first sample of the payload frame in the recording, see
+         *                    {@link QRTone#gePayloadSampleIndex()}
+         * @param payload Decoded payload
+         */
+        void onPayload(long sampleIndex, byte[] payload);
+    }
+}
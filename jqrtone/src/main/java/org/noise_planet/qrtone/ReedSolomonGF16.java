@@ -0,0 +1,388 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+import com.google.zxing.common.reedsolomon.ReedSolomonException;
+
+import java.util.Arrays;
+
+/**
+ * Reed-Solomon codec over GF(16) with primitive polynomial x^4 + x + 1 and generator base 1. Produces the same code
+ * words as the ZXing codec with {@code GenericGF.AZTEC_PARAM}.
+ * Field operations use full lookup tables, the decoder uses Berlekamp-Massey with erasures, Chien search and Forney
+ * formula over preallocated arrays. Encoding and decoding a block does not allocate memory.
+ * Blocks with one or two errors and no erasures are corrected by looking up the first syndromes in precomputed tables,
+ * the other syndromes are used to check the result. As error locations are stored as exponents, the same tables are
+ * used by any block and parity length.
+ * An instance is not thread-safe, it should be reused by a single thread.
+ */
+public final class ReedSolomonGF16 {
+    public static final int FIELD_SIZE = 16;
+    /**
+     * Maximum length of a block (data and error correction symbols)
+     */
+    public static final int MAX_BLOCK_LENGTH = FIELD_SIZE - 1;
+    private static final int PRIMITIVE = 0x13;
+    private static final int GENERATOR_BASE = 1;
+    // exponent to element, duplicated in order to skip modulo on sum of two logarithms
+    private static final int[] EXP = new int[MAX_BLOCK_LENGTH * 2];
+    private static final int[] LOG = new int[FIELD_SIZE];
+    // MUL[a << 4 | b] is a * b
+    private static final int[] MUL = new int[FIELD_SIZE * FIELD_SIZE];
+    private static final int[] INV = new int[FIELD_SIZE];
+    // GENERATORS[d] contains the coefficients of (x + a^1)(x + a^2)...(x + a^d), the highest degree first
+    private static final int[][] GENERATORS = new int[FIELD_SIZE][];
+    // SINGLE_ERRORS[S0 << 4 | S1] is (log(X) << 4 | magnitude) of the single error giving these syndromes, 0 if none
+    private static final char[] SINGLE_ERRORS = new char[FIELD_SIZE * FIELD_SIZE];
+    // DOUBLE_ERRORS[S0 << 12 | S1 << 8 | S2 << 4 | S3] is (log(X1) << 12 | e1 << 8 | log(X2) << 4 | e2) of the two
+    // errors giving these syndromes, 0 if none
+    private static final char[] DOUBLE_ERRORS = new char[1 << 16];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < MAX_BLOCK_LENGTH; i++) {
+            EXP[i] = x;
+            EXP[i + MAX_BLOCK_LENGTH] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= FIELD_SIZE) {
+                x = (x ^ PRIMITIVE) & (FIELD_SIZE - 1);
+            }
+        }
+        for (int a = 1; a < FIELD_SIZE; a++) {
+            for (int b = 1; b < FIELD_SIZE; b++) {
+                MUL[a << 4 | b] = EXP[LOG[a] + LOG[b]];
+            }
+            INV[a] = EXP[MAX_BLOCK_LENGTH - LOG[a]];
+        }
+        GENERATORS[0] = new int[] {1};
+        for (int d = 1; d < FIELD_SIZE; d++) {
+            int[] previous = GENERATORS[d - 1];
+            int[] generator = new int[d + 1];
+            int root = EXP[(d - 1 + GENERATOR_BASE) % MAX_BLOCK_LENGTH];
+            for (int i = 0; i < previous.length; i++) {
+                generator[i] ^= previous[i];
+                generator[i + 1] ^= MUL[previous[i] << 4 | root];
+            }
+            GENERATORS[d] = generator;
+        }
+        // Syndromes of error patterns are S_i = sum(e_j X_j^(i + base))
+        for (int log = 0; log < MAX_BLOCK_LENGTH; log++) {
+            for (int e = 1; e < FIELD_SIZE; e++) {
+                SINGLE_ERRORS[patternSyndromes(log, e) >> 8] = (char) (log << 4 | e);
+            }
+        }
+        for (int log1 = 0; log1 < MAX_BLOCK_LENGTH; log1++) {
+            for (int log2 = log1 + 1; log2 < MAX_BLOCK_LENGTH; log2++) {
+                for (int e1 = 1; e1 < FIELD_SIZE; e1++) {
+                    int syndromes1 = patternSyndromes(log1, e1);
+                    for (int e2 = 1; e2 < FIELD_SIZE; e2++) {
+                        DOUBLE_ERRORS[syndromes1 ^ patternSyndromes(log2, e2)] =
+                                (char) (log1 << 12 | e1 << 8 | log2 << 4 | e2);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Syndromes S_0 to S_3 of a single error packed in 16 bits, S_0 in high bits
+     */
+    private static int patternSyndromes(int log, int magnitude) {
+        int packed = 0;
+        for (int i = 0; i < 4; i++) {
+            packed = packed << 4 | errorSyndrome(log, magnitude, i);
+        }
+        return packed;
+    }
+
+    private final boolean useSyndromeTables;
+
+    public ReedSolomonGF16() {
+        this(true);
+    }
+
+    /**
+     * @param useSyndromeTables Correct one or two errors using lookup tables, the general algorithm is used otherwise
+     */
+    public ReedSolomonGF16(boolean useSyndromeTables) {
+        this.useSyndromeTables = useSyndromeTables;
+    }
+
+    // Decoder state, polynomials are stored with the lowest degree first
+    private final int[] syndromes = new int[MAX_BLOCK_LENGTH];
+    private final int[] lambda = new int[MAX_BLOCK_LENGTH + 1];
+    private final int[] previousLambda = new int[MAX_BLOCK_LENGTH + 1];
+    private final int[] correction = new int[MAX_BLOCK_LENGTH + 2];
+    private final int[] omega = new int[MAX_BLOCK_LENGTH];
+    private final int[] errataPositions = new int[MAX_BLOCK_LENGTH];
+    private final int[] errataMagnitudes = new int[MAX_BLOCK_LENGTH];
+
+    /**
+     * Compute error correction symbols
+     * @param toEncode Data symbols followed by ecBytes error correction symbols to compute
+     * @param ecBytes Number of error correction symbols
+     */
+    public void encode(int[] toEncode, int ecBytes) {
+        if (ecBytes == 0) {
+            throw new IllegalArgumentException("No error correction bytes");
+        }
+        int dataBytes = toEncode.length - ecBytes;
+        if (dataBytes <= 0) {
+            throw new IllegalArgumentException("No data bytes provided");
+        }
+        if (toEncode.length > MAX_BLOCK_LENGTH) {
+            throw new IllegalArgumentException("Block length exceed " + MAX_BLOCK_LENGTH);
+        }
+        final int[] generator = GENERATORS[ecBytes];
+        // Remainder of the polynomial division is computed in place, in the error correction symbols
+        for (int i = dataBytes; i < toEncode.length; i++) {
+            toEncode[i] = 0;
+        }
+        for (int i = 0; i < dataBytes; i++) {
+            int feedback = (toEncode[i] ^ toEncode[dataBytes]) << 4;
+            for (int j = 1; j < ecBytes; j++) {
+                toEncode[dataBytes + j - 1] = toEncode[dataBytes + j] ^ MUL[feedback | generator[j]];
+            }
+            toEncode[dataBytes + ecBytes - 1] = MUL[feedback | generator[ecBytes]];
+        }
+    }
+
+    /**
+     * Fix errors in place
+     * @param received data and error correction symbols
+     * @param twoS Number of error correction symbols
+     * @return Number of corrected symbols
+     * @throws ReedSolomonException if decoding fails
+     */
+    public int decode(int[] received, int twoS) throws ReedSolomonException {
+        return decode(received, twoS, null, 0);
+    }
+
+    /**
+     * Fix errors and erasures in place. The number of errors {@code e} and erasures {@code f} that can be corrected
+     * must satisfy {@code 2e + f <= twoS}.
+     * @param received data and error correction symbols
+     * @param twoS Number of error correction symbols
+     * @param erasures Distinct indexes in {@code received} of the unreliable symbols. May be null
+     * @param erasureCount Number of erasures in erasures array
+     * @return Number of corrected symbols
+     * @throws ReedSolomonException if decoding fails
+     */
+    public int decode(int[] received, int twoS, int[] erasures, int erasureCount) throws ReedSolomonException {
+        final int n = received.length;
+        if (n > MAX_BLOCK_LENGTH) {
+            throw new IllegalArgumentException("Block length exceed " + MAX_BLOCK_LENGTH);
+        }
+        if (erasureCount > twoS) {
+            throw new ReedSolomonException("Too many erasures");
+        }
+        // Syndromes S_i = r(a^(i + base))
+        boolean noError = true;
+        for (int i = 0; i < twoS; i++) {
+            final int root = EXP[(i + GENERATOR_BASE) % MAX_BLOCK_LENGTH] << 4;
+            int eval = 0;
+            for (int j = 0; j < n; j++) {
+                eval = MUL[root | eval] ^ received[j];
+            }
+            syndromes[i] = eval;
+            noError &= eval == 0;
+        }
+        if (noError) {
+            return 0;
+        }
+        if (useSyndromeTables && erasureCount == 0 && twoS >= 2) {
+            int corrected = lookupErrors(received, twoS);
+            if (corrected > 0) {
+                return corrected;
+            }
+        }
+        return decodeErrata(received, twoS, erasures, erasureCount);
+    }
+
+    /**
+     * @return Syndrome S_i of the error e at location a^log
+     */
+    private static int errorSyndrome(int log, int magnitude, int i) {
+        return MUL[magnitude << 4 | EXP[(log * (i + GENERATOR_BASE)) % MAX_BLOCK_LENGTH]];
+    }
+
+    /**
+     * Correct one or two errors using the syndrome tables
+     * @return Number of corrected errors, 0 if the syndromes do not match one or two errors in the block
+     */
+    private int lookupErrors(int[] received, int twoS) {
+        final int n = received.length;
+        int entry = SINGLE_ERRORS[syndromes[0] << 4 | syndromes[1]];
+        if (entry != 0) {
+            int log = entry >> 4;
+            int magnitude = entry & 0x0F;
+            boolean match = log < n;
+            for (int i = 2; match && i < twoS; i++) {
+                match = syndromes[i] == errorSyndrome(log, magnitude, i);
+            }
+            if (match) {
+                received[n - 1 - log] ^= magnitude;
+                return 1;
+            }
+        }
+        if (twoS >= 4) {
+            entry = DOUBLE_ERRORS[syndromes[0] << 12 | syndromes[1] << 8 | syndromes[2] << 4 | syndromes[3]];
+            if (entry != 0) {
+                int log1 = entry >> 12;
+                int e1 = (entry >> 8) & 0x0F;
+                int log2 = (entry >> 4) & 0x0F;
+                int e2 = entry & 0x0F;
+                boolean match = log1 < n && log2 < n;
+                for (int i = 4; match && i < twoS; i++) {
+                    match = syndromes[i] == (errorSyndrome(log1, e1, i) ^ errorSyndrome(log2, e2, i));
+                }
+                if (match) {
+                    received[n - 1 - log1] ^= e1;
+                    received[n - 1 - log2] ^= e2;
+                    return 2;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Berlekamp-Massey, Chien search and Forney formula. Syndromes must be computed.
+     */
+    private int decodeErrata(int[] received, int twoS, int[] erasures, int erasureCount) throws ReedSolomonException {
+        final int n = received.length;
+        // Erasure locator, product of (1 + X_j x)
+        Arrays.fill(lambda, 0);
+        lambda[0] = 1;
+        for (int e = 0; e < erasureCount; e++) {
+            final int location = EXP[n - 1 - erasures[e]] << 4;
+            for (int j = e + 1; j > 0; j--) {
+                lambda[j] ^= MUL[location | lambda[j - 1]];
+            }
+        }
+        System.arraycopy(lambda, 0, previousLambda, 0, lambda.length);
+        // Berlekamp-Massey, initialized with the erasure locator
+        int l = erasureCount;
+        for (int r = erasureCount + 1; r <= twoS; r++) {
+            int discrepancy = 0;
+            for (int j = 0; j <= l; j++) {
+                discrepancy ^= MUL[lambda[j] << 4 | syndromes[r - 1 - j]];
+            }
+            // correction = x * B(x)
+            correction[0] = 0;
+            System.arraycopy(previousLambda, 0, correction, 1, MAX_BLOCK_LENGTH + 1);
+            if (discrepancy != 0) {
+                final int scaled = discrepancy << 4;
+                if (2 * l <= r - 1 + erasureCount) {
+                    // B(x) = lambda(x) / discrepancy
+                    final int inverse = INV[discrepancy] << 4;
+                    for (int j = 0; j <= MAX_BLOCK_LENGTH; j++) {
+                        int coefficient = lambda[j];
+                        lambda[j] ^= MUL[scaled | correction[j]];
+                        previousLambda[j] = MUL[inverse | coefficient];
+                    }
+                    l = r - l + erasureCount;
+                } else {
+                    for (int j = 0; j <= MAX_BLOCK_LENGTH; j++) {
+                        lambda[j] ^= MUL[scaled | correction[j]];
+                        previousLambda[j] = correction[j];
+                    }
+                }
+            } else {
+                System.arraycopy(correction, 0, previousLambda, 0, MAX_BLOCK_LENGTH + 1);
+            }
+        }
+        if (2 * (l - erasureCount) + erasureCount > twoS) {
+            throw new ReedSolomonException("Too many errors");
+        }
+        int degree = MAX_BLOCK_LENGTH;
+        while (degree > 0 && lambda[degree] == 0) {
+            degree--;
+        }
+        if (degree != l) {
+            throw new ReedSolomonException("Error locator degree does not match the number of errors");
+        }
+        // Chien search on the block positions
+        int errataCount = 0;
+        for (int position = 0; position < n; position++) {
+            final int xInverse = EXP[(MAX_BLOCK_LENGTH - (n - 1 - position)) % MAX_BLOCK_LENGTH] << 4;
+            int eval = 0;
+            for (int j = degree; j >= 0; j--) {
+                eval = MUL[xInverse | eval] ^ lambda[j];
+            }
+            if (eval == 0) {
+                errataPositions[errataCount++] = position;
+            }
+        }
+        if (errataCount != degree) {
+            throw new ReedSolomonException("Error locator degree does not match number of roots");
+        }
+        // Error evaluator omega(x) = S(x) lambda(x) mod x^twoS
+        for (int i = 0; i < twoS; i++) {
+            int coefficient = 0;
+            for (int j = 0; j <= Math.min(i, degree); j++) {
+                coefficient ^= MUL[lambda[j] << 4 | syndromes[i - j]];
+            }
+            omega[i] = coefficient;
+        }
+        // Forney formula
+        for (int e = 0; e < errataCount; e++) {
+            final int xInverse = EXP[(MAX_BLOCK_LENGTH - (n - 1 - errataPositions[e])) % MAX_BLOCK_LENGTH] << 4;
+            int numerator = 0;
+            for (int j = twoS - 1; j >= 0; j--) {
+                numerator = MUL[xInverse | numerator] ^ omega[j];
+            }
+            // Formal derivative keeps odd terms only
+            int denominator = 0;
+            for (int j = degree - (degree % 2 == 0 ? 1 : 0); j >= 1; j -= 2) {
+                denominator = MUL[xInverse | MUL[xInverse | denominator]] ^ lambda[j];
+            }
+            if (denominator == 0) {
+                throw new ReedSolomonException("Error locator has a repeated root");
+            }
+            // With generator base 1, X^(1 - base) = 1
+            errataMagnitudes[e] = MUL[numerator << 4 | INV[denominator]];
+        }
+        int corrected = 0;
+        for (int e = 0; e < errataCount; e++) {
+            if (errataMagnitudes[e] != 0) {
+                received[errataPositions[e]] ^= errataMagnitudes[e];
+                corrected++;
+            }
+        }
+        return corrected;
+    }
+}
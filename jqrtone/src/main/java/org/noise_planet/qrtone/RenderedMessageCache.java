@@ -0,0 +1,232 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keep the audio of recently rendered messages, so that sending again the same payload only copies the samples.
+ * The least recently used messages are evicted once the cached audio exceeds the byte budget. All methods are
+ * thread-safe, the rendering of a missing message is done outside of the lock; two threads missing the same message
+ * at the same time both render it. Each thread keeps the encoder of the last configuration it rendered.
+ */
+public class RenderedMessageCache {
+    private final long maximumBytes;
+    private final LinkedHashMap<Key, float[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    // Encoder of the last configuration rendered by each thread
+    private final ThreadLocal<QRTone> encoders = new ThreadLocal<>();
+
+    /**
+     * @param maximumBytes Maximum size of the cached audio in bytes, 4 bytes per sample
+     */
+    public RenderedMessageCache(long maximumBytes) {
+        if(maximumBytes < 0) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        this.maximumBytes = maximumBytes;
+    }
+
+    /**
+     * @param configuration QRTone configuration
+     * @param payload Payload to send
+     * @param eccLevel Error correction level
+     * @param addPayloadCRC Add a CRC to the payload
+     * @param power Signal peak power
+     * @return Copy of the audio samples of the message
+     */
+    public float[] getSamples(Configuration configuration, byte[] payload, Configuration.ECC_LEVEL eccLevel,
+                              boolean addPayloadCRC, double power) {
+        float[] samples = getCachedSamples(configuration, payload, eccLevel, addPayloadCRC, power);
+        return Arrays.copyOf(samples, samples.length);
+    }
+
+    /**
+     * Copy the audio samples of the message into the provided array
+     * @param configuration QRTone configuration
+     * @param payload Payload to send
+     * @param eccLevel Error correction level
+     * @param addPayloadCRC Add a CRC to the payload
+     * @param power Signal peak power
+     * @param destination Array that receives the samples, must have enough room for the whole message
+     * @param offset Index of destination where the message begins
+     * @return Number of samples copied
+     */
+    public int getSamples(Configuration configuration, byte[] payload, Configuration.ECC_LEVEL eccLevel,
+                          boolean addPayloadCRC, double power, float[] destination, int offset) {
+        float[] samples = getCachedSamples(configuration, payload, eccLevel, addPayloadCRC, power);
+        System.arraycopy(samples, 0, destination, offset, samples.length);
+        return samples.length;
+    }
+
+    private float[] getCachedSamples(Configuration configuration, byte[] payload, Configuration.ECC_LEVEL eccLevel,
+                                     boolean addPayloadCRC, double power) {
+        Key key = new Key(configuration, payload, eccLevel, addPayloadCRC, power);
+        synchronized (this) {
+            float[] samples = entries.get(key);
+            if(samples != null) {
+                hits++;
+                return samples;
+            }
+            misses++;
+        }
+        QRTone qrTone = encoders.get();
+        if(qrTone == null || !qrTone.getConfiguration().equals(configuration)) {
+            qrTone = new QRTone(configuration);
+            encoders.set(qrTone);
+        }
+        float[] samples = new float[qrTone.setPayload(payload, eccLevel, addPayloadCRC)];
+        qrTone.getSamples(samples, power);
+        put(key, samples);
+        return samples;
+    }
+
+    private synchronized void put(Key key, float[] samples) {
+        long size = sizeOf(samples);
+        if(size > maximumBytes) {
+            // Would evict the whole cache for a single message
+            return;
+        }
+        float[] previous = entries.put(key, samples);
+        if(previous != null) {
+            cachedBytes -= sizeOf(previous);
+        }
+        cachedBytes += size;
+        Iterator<float[]> it = entries.values().iterator();
+        while(cachedBytes > maximumBytes && it.hasNext()) {
+            cachedBytes -= sizeOf(it.next());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private static long sizeOf(float[] samples) {
+        return (long) samples.length * SampleFormat.FLOAT32.bytesPerSample;
+    }
+
+    public long getMaximumBytes() {
+        return maximumBytes;
+    }
+
+    /**
+     * @return Size in bytes of the cached audio
+     */
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * @return Number of cached messages
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Number of lookups served from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Number of lookups that had to render the message
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Number of messages removed to stay under the byte budget
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Remove all messages and reset the counters
+     */
+    public synchronized void clear() {
+        entries.clear();
+        cachedBytes = 0;
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    private static final class Key {
+        final Configuration configuration;
+        final byte[] payload;
+        final Configuration.ECC_LEVEL eccLevel;
+        final boolean addPayloadCRC;
+        final double power;
+        final int hashCode;
+
+        Key(Configuration configuration, byte[] payload, Configuration.ECC_LEVEL eccLevel, boolean addPayloadCRC,
+            double power) {
+            this.configuration = configuration;
+            this.payload = Arrays.copyOf(payload, payload.length);
+            this.eccLevel = eccLevel;
+            this.addPayloadCRC = addPayloadCRC;
+            this.power = power;
+            this.hashCode = Arrays.hashCode(new Object[]{configuration, Arrays.hashCode(payload), eccLevel,
+                    addPayloadCRC, power});
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hashCode == other.hashCode && addPayloadCRC == other.addPayloadCRC &&
+                    Double.compare(power, other.power) == 0 && eccLevel == other.eccLevel &&
+                    Arrays.equals(payload, other.payload) && configuration.equals(other.configuration);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
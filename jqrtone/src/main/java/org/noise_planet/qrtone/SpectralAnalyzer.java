@@ -0,0 +1,94 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+/**
+ * Evaluate the level of the symbol frequencies on the tone part of a word.
+ * The samples of a word are pushed in order, from the first sample of the tone to the last one. Each frequency is
+ * analyzed on a window centered in the word, the window length depends on the spacing between frequencies.
+ */
+public interface SpectralAnalyzer {
+    /**
+     * Process the next samples of the current word
+     * @param samples Audio samples, not modified
+     * @param from Index of the first sample
+     * @param to Excluded index of the last sample
+     */
+    void processSamples(float[] samples, int from, int to);
+
+    /**
+     * @return Number of samples of the current word processed so far
+     */
+    int getProcessedSamples();
+
+    /**
+     * Compute the level of each frequency, equivalent to
+     * {@link IterativeGeneralizedGoertzel#computeRMS(boolean)} on a Hann windowed signal, then prepare the analysis
+     * of the next word.
+     * @param rms Where to write the rms value of each frequency
+     */
+    void computeRMS(double[] rms);
+
+    /**
+     * Compute the level and the phase of each frequency, then prepare the analysis of the next word.
+     * The phase is referenced to the first sample of the word: a tone sin(omega * n + phi), n being the sample index
+     * from the start of the tone part of the word, has the phase phi - pi / 2.
+     * @param rms Where to write the rms value of each frequency
+     * @param phase Where to write the phase of each frequency in radians
+     */
+    void computeRMS(double[] rms, double[] phase);
+
+    /**
+     * Analyze other frequencies from the next word, in order to follow a frequency offset of the received tones.
+     * The analysis windows are not changed.
+     * @param frequencies Analyzed frequencies in Hz, same count as the frequencies given to the factory
+     */
+    void setFrequencies(double[] frequencies);
+
+    /**
+     * Forget processed samples
+     */
+    void reset();
+
+    interface Factory {
+        /**
+         * @param sampleRate Sampling rate in Hz
+         * @param frequencies Analyzed frequencies in Hz
+         * @param windowLengths Minimal analysis window length of each frequency
+         * @param wordLength Number of samples of the tone part of a word
+         * @return New analyzer
+         */
+        SpectralAnalyzer create(double sampleRate, double[] frequencies, int[] windowLengths, int wordLength);
+    }
+}
@@ -33,25 +33,36 @@
 
 package org.noise_planet.qrtone;
 
-import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
 
 /**
  * Analyse audio samples in order to detect trigger signal
  * Evaluate the exact position of the first tone
+ * Evaluate the frequency offset of the gate tones from the phase rotation between consecutive analysis windows
+ * This class is not thread-safe, all methods must be called from the same thread or with external synchronization.
  */
 public class TriggerAnalyzer {
     public static final double M2PI = Math.PI * 2;
     public static final double PERCENTILE_BACKGROUND = 0.5;
-    private AtomicInteger processedWindowAlpha = new AtomicInteger(0);
-    private AtomicInteger processedWindowBeta = new AtomicInteger(0);
+    // Number of 2 * pi phase wraps between two windows considered on each side while resolving the frequency offset
+    private static final int MAXIMUM_PHASE_WRAPS = 2;
+    // The phase wraps are resolved only if the second best choice disagrees this many times more than the best one
+    private static final double PHASE_WRAPS_AMBIGUITY_RATIO = 4;
     private final int windowOffset;
     private final int gateLength;
-    private IterativeGeneralizedGoertzel[] frequencyAnalyzersAlpha;
-    private IterativeGeneralizedGoertzel[] frequencyAnalyzersBeta;
+    // One analyzer for each window phase, shifted by windowOffset samples
+    private final GoertzelBank[] phaseAnalyzers;
     final ApproximatePercentile backgroundNoiseEvaluator;
     final CircularArray[] splHistory;
-    private float[] hannWindowCache;
+    // Phase of each window relatively to its first sample
+    final CircularArray[] phaseHistory;
+    // First sample of each window of the history, the windows are not evenly spaced if the window length is not a
+    // multiple of the window offset
+    private final long[] locationHistory;
+    private long windowCount = 0;
+    private final double[] splLevels;
+    private final double[] phaseLevels;
     final PeakFinder peakFinder;
     private final int windowAnalyze;
     private TriggerCallback triggerCallback = null;
@@ -59,10 +70,33 @@ public class TriggerAnalyzer {
     final double sampleRate;
     public final double triggerSnr;
     private long firstToneLocation = -1;
+    // Relative frequency offset of the gate tones of the last trigger
+    private double frequencyOffset = 0;
+    // Index of the first sample processed since the last reset, -1 if not known yet
+    private long processedOrigin = -1;
 
 
 
     public TriggerAnalyzer(double sampleRate, int gateLength, double[] frequencies, int windowLength, double triggerSnr) {
+        this(sampleRate, gateLength, frequencies, windowLength, triggerSnr, Configuration.DEFAULT_TRIGGER_OVERLAP);
+    }
+
+    /**
+     * @param sampleRate Sampling rate in Hz
+     * @param gateLength Length of a gate tone in samples
+     * @param frequencies Gate frequencies in Hz
+     * @param windowLength Analysis window length in samples
+     * @param triggerSnr Minimal signal to noise ratio of gate tones in dB
+     * @param overlap Overlap of consecutive analysis windows [0, 1[. The windows are split in round(1 / (1 - overlap))
+     *                phases, 0 use one window set, 0.5 two window sets and 0.75 four window sets. CPU cost is
+     *                proportional to the number of phases, time resolution is windowLength divided by the number of
+     *                phases.
+     */
+    public TriggerAnalyzer(double sampleRate, int gateLength, double[] frequencies, int windowLength, double triggerSnr,
+                           double overlap) {
+        if(overlap < 0 || overlap >= 1) {
+            throw new IllegalArgumentException("Overlap must be in [0, 1[");
+        }
         this.windowAnalyze = windowLength;
         this.frequencies = frequencies;
         this.sampleRate = sampleRate;
@@ -71,35 +105,54 @@ public class TriggerAnalyzer {
         if(windowAnalyze < Configuration.computeMinimumWindowSize(sampleRate, frequencies[0], frequencies[1])) {
             throw new IllegalArgumentException("Tone length are not compatible with sample rate and selected frequencies");
         }
-        // 50% overlap
-        windowOffset = windowAnalyze / 2;
-        frequencyAnalyzersAlpha = new IterativeGeneralizedGoertzel[frequencies.length];
-        frequencyAnalyzersBeta = new IterativeGeneralizedGoertzel[frequencies.length];
+        int phaseCount = Math.max(1, Math.min(windowAnalyze, (int)Math.round(1 / (1 - overlap))));
+        windowOffset = windowAnalyze / phaseCount;
+        phaseAnalyzers = new GoertzelBank[phaseCount];
+        for(int phase = 0; phase < phaseCount; phase++) {
+            phaseAnalyzers[phase] = new GoertzelBank(sampleRate, frequencies, windowLength, true);
+        }
         backgroundNoiseEvaluator = new ApproximatePercentile(PERCENTILE_BACKGROUND);
         splHistory = new CircularArray[frequencies.length];
         peakFinder = new PeakFinder();
-        peakFinder.setMinDecreaseCount((gateLength / 2) / windowOffset);
-        hannWindowCache = new float[windowLength / 2 + 1];
-        for(int i=0; i < hannWindowCache.length; i++) {
-            hannWindowCache[i] = (float)(0.5 - 0.5 * Math.cos((M2PI * i) / (windowLength - 1)));
-        }
+        peakFinder.setMinDecreaseCount(getMinDecreaseCount());
+        splLevels = new double[frequencies.length];
+        phaseHistory = new CircularArray[frequencies.length];
+        phaseLevels = new double[frequencies.length];
+        locationHistory = new long[(gateLength * 3) / windowOffset];
         for(int i=0; i<frequencies.length; i++) {
-            frequencyAnalyzersAlpha[i] = new IterativeGeneralizedGoertzel(sampleRate, frequencies[i], windowLength, false);
-            frequencyAnalyzersBeta[i] = new IterativeGeneralizedGoertzel(sampleRate, frequencies[i], windowLength, false);
             splHistory[i] = new CircularArray((gateLength * 3) / windowOffset);
+            phaseHistory[i] = new CircularArray((gateLength * 3) / windowOffset);
         }
     }
 
     public void reset() {
         firstToneLocation = -1;
+        processedOrigin = -1;
         peakFinder.reset();
-        processedWindowAlpha.set(0);
-        processedWindowBeta.set(0);
+        peakFinder.setMinDecreaseCount(getMinDecreaseCount());
+        for(GoertzelBank phaseAnalyzer : phaseAnalyzers) {
+            phaseAnalyzer.reset();
+        }
         for(int i=0; i<frequencies.length; i++) {
-            frequencyAnalyzersAlpha[i].reset();
-            frequencyAnalyzersBeta[i].reset();
             splHistory[i].clear();
+            phaseHistory[i].clear();
         }
+        windowCount = 0;
+    }
+
+    /**
+     * @return Number of decreasing windows after the peak of the second gate tone, at least one in order to
+     * interpolate the peak location
+     */
+    private int getMinDecreaseCount() {
+        return Math.max(1, (gateLength / 2) / windowOffset);
+    }
+
+    /**
+     * @return Number of samples between the start of two consecutive analysis windows
+     */
+    public int getWindowOffset() {
+        return windowOffset;
     }
 
     public void setTriggerCallback(TriggerCallback triggerCallback) {
@@ -110,85 +163,262 @@ public class TriggerAnalyzer {
         return firstToneLocation;
     }
 
-    private void doProcess(float[] samples, long totalProcessed, AtomicInteger windowProcessed,
-                           IterativeGeneralizedGoertzel[] frequencyAnalyzers) {
-        int processed = 0;
-        while(firstToneLocation == -1 && processed < samples.length) {
-            int toProcess = Math.min(samples.length - processed,windowAnalyze - windowProcessed.get());
-            // Apply Hann window
-            for(int i=0; i < toProcess; i++) {
-                final float hann = i + windowProcessed.get() < hannWindowCache.length ? hannWindowCache[i + windowProcessed.get()] : hannWindowCache[(windowAnalyze - 1) - (i + windowProcessed.get())];
-                samples[i+processed] *= hann;
+    /**
+     * @return Frequency offset of the gate tones of the last trigger, relatively to the expected frequencies.
+     * The received frequency of a tone is (1 + offset) multiplied by its expected frequency. Offsets up to half of the
+     * sample rate divided by the window offset, in Hz, can be measured.
+     */
+    public double getFrequencyOffset() {
+        return frequencyOffset;
+    }
+
+    private static double hann(long index, int windowLength) {
+        return 0.5 - 0.5 * Math.cos(M2PI * index / (windowLength - 1));
+    }
+
+    /**
+     * A tone with a frequency offset of dw radians per sample under the Hann envelope of a gate tone is measured by
+     * an analysis window with a phase rotated by dw multiplied by the centroid of the window weighted by the envelope.
+     * @param windowStart Location of the first sample of the window relatively to the first sample of the gate tone
+     * @return Centroid in samples relatively to the first sample of the window, NaN if the window is outside the gate
+     */
+    private double computePhaseCentroid(long windowStart) {
+        double weightSum = 0;
+        double moment = 0;
+        final int first = (int) Math.max(0, -windowStart);
+        final int last = (int) Math.min(windowAnalyze, gateLength - windowStart);
+        for(int n = first; n < last; n++) {
+            double weight = hann(n, windowAnalyze) * hann(windowStart + n, gateLength);
+            weightSum += weight;
+            moment += weight * n;
+        }
+        return weightSum > 0 ? moment / weightSum : Double.NaN;
+    }
+
+    /**
+     * @param historyIndex Index in splHistory
+     * @return Location of the first sample of the window
+     */
+    private long getWindowLocation(int historyIndex) {
+        return locationHistory[(int)((windowCount - splHistory[0].size() + historyIndex) % locationHistory.length)];
+    }
+
+    /**
+     * Estimate the frequency offset of the gate tones from the phase of the windows around each gate tone. The phase
+     * advances by (w + dw) * spacing + dw * (centroid difference) from one window to the next one, w being the
+     * expected angular frequency. The offset dw is the weighted least squares fit of the measured rotations.
+     * A rotation is only known modulo 2 * pi, so the offset of a gate tone is only known modulo a frequency step that
+     * is the same in Hz for both gate tones but not relatively to their frequency. The number of wraps of each gate
+     * tone is the one giving the closest relative offsets.
+     * @param firstPeakIndex History index of the peak of the first gate tone
+     * @param peakIndex History index of the peak of the second gate tone
+     * @return Relative frequency offset of both gate tones, 0 if the phase wraps can not be resolved
+     */
+    private double estimateFrequencyOffset(int firstPeakIndex, int peakIndex) {
+        final int[] peaks = new int[] {firstPeakIndex, peakIndex};
+        final int lastIndex = splHistory[0].size() - 1;
+        final int halfWidth = Math.max(1, (gateLength - windowAnalyze / 2) / 2 / windowOffset);
+        // Relative offset without phase wrap, relative offset of one wrap, and weight of each gate tone
+        final double[] offsets = new double[frequencies.length];
+        final double[] wrapOffsets = new double[frequencies.length];
+        final double[] informations = new double[frequencies.length];
+        for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+            final long gateStart = firstToneLocation - (long) (frequencies.length - idfreq) * gateLength;
+            final double omega = M2PI * frequencies[idfreq] / sampleRate;
+            final int first = Math.max(0, peaks[idfreq] - halfWidth);
+            final int last = Math.min(lastIndex, peaks[idfreq] + halfWidth);
+            double rotationSum = 0;
+            double spanSum = 0;
+            double information = 0;
+            double previousCentroid = computePhaseCentroid(getWindowLocation(first) - gateStart);
+            for(int i = first; i < last; i++) {
+                final long spacing = getWindowLocation(i + 1) - getWindowLocation(i);
+                double centroid = computePhaseCentroid(getWindowLocation(i + 1) - gateStart);
+                if(!Double.isNaN(previousCentroid) && !Double.isNaN(centroid)) {
+                    double weight = Math.pow(10, (splHistory[idfreq].getFloat(i) +
+                            splHistory[idfreq].getFloat(i + 1)) / 20);
+                    double rotation = phaseHistory[idfreq].getFloat(i + 1) - phaseHistory[idfreq].getFloat(i) -
+                            omega * spacing;
+                    rotation -= M2PI * Math.round(rotation / M2PI);
+                    double span = spacing + centroid - previousCentroid;
+                    rotationSum += weight * rotation * span;
+                    spanSum += weight * span;
+                    information += weight * span * span;
+                }
+                previousCentroid = centroid;
             }
-            for(int idfreq = 0; idfreq < frequencyAnalyzers.length; idfreq++) {
-                frequencyAnalyzers[idfreq].processSamples(samples, processed, processed + toProcess);
+            if(information > 0) {
+                offsets[idfreq] = rotationSum / information / omega;
+                wrapOffsets[idfreq] = M2PI * spanSum / information / omega;
+                informations[idfreq] = information;
             }
-            processed += toProcess;
-            windowProcessed.addAndGet(toProcess);
-            if(windowProcessed.get() == windowAnalyze) {
-                windowProcessed.set(0);
-                double[] splLevels = new double[frequencies.length];
-                for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
-                    double splLevel = 20 * Math.log10(frequencyAnalyzers[idfreq].
-                            computeRMS(false).rms);
-                    splLevels[idfreq] = splLevel;
-                    if(idfreq == frequencies.length - 1) {
-                        backgroundNoiseEvaluator.add(splLevel);
+        }
+        if(informations[0] <= 0 || informations[1] <= 0) {
+            return informations[0] > 0 ? offsets[0] : offsets[1];
+        }
+        // Search the phase wraps of both gate tones, the fewest wraps first
+        int bestWraps0 = 0;
+        int bestWraps1 = 0;
+        double bestSpread = Double.MAX_VALUE;
+        double secondSpread = Double.MAX_VALUE;
+        for(int wrapCount = 0; wrapCount <= 2 * MAXIMUM_PHASE_WRAPS; wrapCount++) {
+            for(int wraps0 = -MAXIMUM_PHASE_WRAPS; wraps0 <= MAXIMUM_PHASE_WRAPS; wraps0++) {
+                for(int wraps1 = -MAXIMUM_PHASE_WRAPS; wraps1 <= MAXIMUM_PHASE_WRAPS; wraps1++) {
+                    if(Math.abs(wraps0) + Math.abs(wraps1) != wrapCount) {
+                        continue;
+                    }
+                    double spread = Math.abs(offsets[0] + wraps0 * wrapOffsets[0] -
+                            offsets[1] - wraps1 * wrapOffsets[1]);
+                    if(spread < bestSpread) {
+                        secondSpread = bestSpread;
+                        bestSpread = spread;
+                        bestWraps0 = wraps0;
+                        bestWraps1 = wraps1;
+                    } else if(spread < secondSpread) {
+                        secondSpread = spread;
                     }
-                    splHistory[idfreq].add((float)splLevel);
                 }
-                final long location = totalProcessed + processed - windowAnalyze;
-                if(peakFinder.add(location, splHistory[frequencies.length - 1].last())) {
-                    // Find peak
-                    PeakFinder.Element element = peakFinder.getLastPeak();
-                    // Check if peak value is greater than specified Signal Noise ratio
-                    double backgroundNoiseSecondPeak = backgroundNoiseEvaluator.result();
-                    if(element.value > backgroundNoiseSecondPeak + triggerSnr) {
-                        // Check if the level on other triggering frequencies is below triggering level (at the same time)
-                        int peakIndex = splHistory[frequencies.length - 1].size() - 1 -
-                                (int)(location / windowOffset - element.index / windowOffset);
-                        if(peakIndex >= 0 && peakIndex < splHistory[0].size() &&
-                                splHistory[0].get(peakIndex) < element.value - triggerSnr) {
-                            int firstPeakIndex = peakIndex - (gateLength / windowOffset);
-                            // Check if for the first peak the level was inferior than trigger level
-                            if(firstPeakIndex >= 0 && firstPeakIndex < splHistory[0].size()
-                                    && splHistory[0].get(firstPeakIndex) > element.value - triggerSnr &&
-                                    splHistory[frequencies.length - 1].get(firstPeakIndex) < element.value - triggerSnr) {
-                                // All trigger conditions are met
-                                // Evaluate the exact position of the first tone
-                                long peakLocation = findPeakLocation(splHistory[frequencies.length - 1].get(peakIndex-1)
-                                        ,element.value,splHistory[frequencies.length - 1].get(peakIndex+1),element.index,windowOffset);
-                                firstToneLocation = peakLocation + gateLength / 2 + windowOffset;
-                                if(triggerCallback != null) {
-                                    triggerCallback.onTrigger(this, firstToneLocation);
-                                }
-                            }
+            }
+        }
+        if(bestSpread * PHASE_WRAPS_AMBIGUITY_RATIO > secondSpread) {
+            // Frequencies of the gate tones too close, or too noisy phases
+            return 0;
+        }
+        return (informations[0] * (offsets[0] + bestWraps0 * wrapOffsets[0]) +
+                informations[1] * (offsets[1] + bestWraps1 * wrapOffsets[1])) / (informations[0] + informations[1]);
+    }
+
+    /**
+     * Levels of a complete window
+     * @param frequencyAnalyzers Analyzer of the completed window
+     * @param location Sample index of the first sample of the window
+     */
+    private void onWindowComplete(GoertzelBank frequencyAnalyzers, long location) {
+        // Compute levels and reset the window
+        frequencyAnalyzers.computeRMS(splLevels, phaseLevels);
+        for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+            double splLevel = 20 * Math.log10(splLevels[idfreq]);
+            splLevels[idfreq] = splLevel;
+            if(idfreq == frequencies.length - 1) {
+                backgroundNoiseEvaluator.add(splLevel);
+            }
+            splHistory[idfreq].add((float)splLevel);
+            phaseHistory[idfreq].add((float)phaseLevels[idfreq]);
+        }
+        locationHistory[(int)(windowCount++ % locationHistory.length)] = location;
+        if(peakFinder.add(location, splHistory[frequencies.length - 1].getFloat(splHistory[frequencies.length - 1].size() - 1))) {
+            // Find peak
+            PeakFinder.Element element = peakFinder.getLastPeak();
+            // Check if peak value is greater than specified Signal Noise ratio
+            double backgroundNoiseSecondPeak = backgroundNoiseEvaluator.result();
+            if(element.value > backgroundNoiseSecondPeak + triggerSnr) {
+                // Check if the level on other triggering frequencies is below triggering level (at the same time)
+                int peakIndex = splHistory[frequencies.length - 1].size() - 1 -
+                        (int)(location / windowOffset - element.index / windowOffset);
+                if(peakIndex >= 0 && peakIndex < splHistory[0].size() &&
+                        splHistory[0].getFloat(peakIndex) < element.value - triggerSnr) {
+                    int firstPeakIndex = peakIndex - (gateLength / windowOffset);
+                    // Check if for the first peak the level was inferior than trigger level
+                    if(firstPeakIndex >= 0 && firstPeakIndex < splHistory[0].size()
+                            && splHistory[0].getFloat(firstPeakIndex) > element.value - triggerSnr &&
+                            splHistory[frequencies.length - 1].getFloat(firstPeakIndex) < element.value - triggerSnr) {
+                        // All trigger conditions are met
+                        // Evaluate the exact position of the first tone
+                        long peakLocation = findPeakLocation(splHistory[frequencies.length - 1].getFloat(peakIndex-1)
+                                ,element.value,splHistory[frequencies.length - 1].getFloat(peakIndex+1),element.index,windowOffset);
+                        firstToneLocation = peakLocation + gateLength / 2 + windowAnalyze / 2;
+                        frequencyOffset = estimateFrequencyOffset(firstPeakIndex, peakIndex);
+                        if(triggerCallback != null) {
+                            triggerCallback.onTrigger(this, firstToneLocation);
                         }
                     }
                 }
-                if(triggerCallback != null) {
-                    triggerCallback.onNewLevels(this, location, splLevels);
-                }
             }
         }
+        if(triggerCallback != null) {
+            triggerCallback.onNewLevels(this, location, splLevels);
+        }
     }
 
     /**
      * @return Maximum window length in order to have not more than 1 processed window
      */
     public int getMaximumWindowLength() {
-        return Math.min(windowAnalyze - processedWindowAlpha.get(), windowAnalyze - processedWindowBeta.get());
+        int maximumWindowLength = windowAnalyze;
+        for(GoertzelBank phaseAnalyzer : phaseAnalyzers) {
+            maximumWindowLength = Math.min(maximumWindowLength, windowAnalyze - phaseAnalyzer.getProcessedSamples());
+        }
+        return maximumWindowLength;
     }
 
     public void processSamples(float[] samples, long totalProcessed) {
-        doProcess(Arrays.copyOf(samples, samples.length), totalProcessed, processedWindowAlpha, frequencyAnalyzersAlpha);
-        if(totalProcessed > windowOffset) {
-            doProcess(Arrays.copyOf(samples, samples.length), totalProcessed, processedWindowBeta, frequencyAnalyzersBeta);
-        } else if(windowOffset - totalProcessed < samples.length){
-            // Start to process on the part used by the offset window
-            doProcess(Arrays.copyOfRange(samples, (int)(windowOffset - totalProcessed),
-                    samples.length), totalProcessed + (int)(windowOffset - totalProcessed), processedWindowBeta,
-                    frequencyAnalyzersBeta);
+        processSamples(samples, 0, samples.length, totalProcessed);
+    }
+
+    /**
+     * Analyze samples without modifying nor copying them
+     * @param samples Audio samples
+     * @param offset Index of the first sample to analyze
+     * @param length Number of samples to analyze
+     * @param totalProcessed Number of samples processed before this call
+     */
+    public void processSamples(float[] samples, int offset, int length, long totalProcessed) {
+        processSamples(samples, null, offset, length, totalProcessed);
+    }
+
+    /**
+     * Analyze the remaining samples of the buffer, heap and direct buffers are read without copy.
+     * The buffer position is moved to its limit.
+     * @param samples Audio samples
+     * @param totalProcessed Number of samples processed before this call
+     */
+    public void processSamples(FloatBuffer samples, long totalProcessed) {
+        final int length = samples.remaining();
+        if(samples.hasArray()) {
+            processSamples(samples.array(), null, samples.arrayOffset() + samples.position(), length, totalProcessed);
+        } else {
+            processSamples(null, samples, samples.position(), length, totalProcessed);
+        }
+        ((Buffer) samples).position(samples.limit());
+    }
+
+    /**
+     * @param samples Samples array, null if samplesBuffer is provided
+     * @param samplesBuffer Samples buffer, read with absolute get (used only if samples is null)
+     */
+    private void processSamples(float[] samples, FloatBuffer samplesBuffer, int offset, int length, long totalProcessed) {
+        if(processedOrigin == -1) {
+            processedOrigin = totalProcessed;
+        }
+        int processed = 0;
+        while(firstToneLocation == -1 && processed < length) {
+            // The phase p starts p * windowOffset samples after the origin, it must stay shifted after a reset
+            final long processedSinceOrigin = totalProcessed + processed - processedOrigin;
+            // Process up to the next window start or window end in order to keep windows in chronological order
+            int toProcess = length - processed;
+            for(int phase = 0; phase < phaseAnalyzers.length; phase++) {
+                final long phaseStart = (long)phase * windowOffset;
+                if(processedSinceOrigin < phaseStart) {
+                    toProcess = (int)Math.min(toProcess, phaseStart - processedSinceOrigin);
+                } else {
+                    toProcess = Math.min(toProcess, windowAnalyze - phaseAnalyzers[phase].getProcessedSamples());
+                }
+            }
+            for(int phase = 0; phase < phaseAnalyzers.length; phase++) {
+                if(processedSinceOrigin >= (long)phase * windowOffset) {
+                    if(samples != null) {
+                        phaseAnalyzers[phase].processSamples(samples, offset + processed, offset + processed + toProcess);
+                    } else {
+                        phaseAnalyzers[phase].processSamples(samplesBuffer, offset + processed, offset + processed + toProcess);
+                    }
+                }
+            }
+            processed += toProcess;
+            for(int phase = 0; phase < phaseAnalyzers.length && firstToneLocation == -1; phase++) {
+                if(phaseAnalyzers[phase].getProcessedSamples() == windowAnalyze) {
+                    onWindowComplete(phaseAnalyzers[phase], totalProcessed + processed - windowAnalyze);
+                }
+            }
         }
     }
 
@@ -226,6 +456,11 @@ public class TriggerAnalyzer {
     }
 
     public interface TriggerCallback {
+        /**
+         * @param triggerAnalyzer Source
+         * @param location Sample index of the analyzed window
+         * @param spl Levels in dB of the trigger frequencies. The array is reused on the next call.
+         */
         void onNewLevels(TriggerAnalyzer triggerAnalyzer, long location, double[] spl);
         void onTrigger(TriggerAnalyzer triggerAnalyzer, long messageStartLocation);
     }
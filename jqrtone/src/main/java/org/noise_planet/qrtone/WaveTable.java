@@ -0,0 +1,140 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Pre-rendered waveforms of a configuration: the two gate tones with their Hann window and the word tone of each
+ * frequency with its Tukey window, at unit amplitude. Messages are rendered by adding scaled slices of these tables.
+ * When the configuration uses {@link PhaseModulation} the word tones are also rendered in quadrature, so that a tone
+ * starting at any quarter turn is obtained by adding or subtracting one of the two tables.
+ * Instances are immutable and shared between all the {@link QRTone} using an equal {@link Configuration}.
+ */
+public final class WaveTable {
+    private static final Map<Configuration, WaveTable> CACHE = new WeakHashMap<>();
+
+    private final float[][] gates;
+    private final float[][] words;
+    private final float[][] quadratureWords;
+
+    WaveTable(Configuration configuration) {
+        final int wordLength = (int)(configuration.sampleRate * configuration.wordTime);
+        final int gateLength = (int)(configuration.sampleRate * configuration.gateTime);
+        final double[] frequencies = configuration.computeFrequencies(configuration.getFrequencyCount());
+        gates = new float[][] {
+                renderGate(frequencies[QRTone.FREQUENCY_ROOT], configuration.sampleRate, gateLength),
+                renderGate(frequencies[QRTone.FREQUENCY_ROOT + 2], configuration.sampleRate, gateLength)};
+        words = new float[frequencies.length][];
+        quadratureWords = configuration.phaseBits > 0 ? new float[frequencies.length][] : null;
+        for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            words[idFreq] = renderWord(frequencies[idFreq], configuration.sampleRate, wordLength, 0);
+            if(quadratureWords != null) {
+                quadratureWords[idFreq] = renderWord(frequencies[idFreq], configuration.sampleRate, wordLength,
+                        Math.PI / 2);
+            }
+        }
+    }
+
+    private static float[] renderWord(double frequency, double sampleRate, int wordLength, double phase) {
+        IterativeTone tone = new IterativeTone(frequency, sampleRate, phase);
+        IterativeTukey tukey = new IterativeTukey(wordLength, QRTone.TUKEY_ALPHA);
+        float[] word = new float[wordLength];
+        for(int i = 0; i < wordLength; i++) {
+            word[i] = (float) (tone.next() * tukey.next());
+        }
+        return word;
+    }
+
+    private static float[] renderGate(double frequency, double sampleRate, int gateLength) {
+        IterativeTone tone = new IterativeTone(frequency, sampleRate);
+        IterativeHann hann = new IterativeHann(gateLength);
+        float[] gate = new float[gateLength];
+        for(int i = 0; i < gateLength; i++) {
+            gate[i] = (float) (tone.next() * hann.next());
+        }
+        return gate;
+    }
+
+    /**
+     * @param configuration Signal configuration
+     * @return Waveforms of this configuration, rendered on the first call only
+     */
+    public static WaveTable getInstance(Configuration configuration) {
+        synchronized (CACHE) {
+            WaveTable waveTable = CACHE.get(configuration);
+            if(waveTable == null) {
+                waveTable = new WaveTable(configuration);
+                CACHE.put(configuration, waveTable);
+            }
+            return waveTable;
+        }
+    }
+
+    /**
+     * @param gateIndex 0 for the first gate tone, 1 for the second one
+     * @return Windowed gate tone, must not be modified
+     */
+    public float[] getGate(int gateIndex) {
+        return gates[gateIndex];
+    }
+
+    /**
+     * @param frequencyIndex Frequency index [0, {@link Configuration#getFrequencyCount()}[
+     * @return Windowed word tone, must not be modified
+     */
+    public float[] getWord(int frequencyIndex) {
+        return words[frequencyIndex];
+    }
+
+    /**
+     * @param frequencyIndex Frequency index [0, {@link Configuration#getFrequencyCount()}[
+     * @param quarterTurns Initial phase of the tone in quarter turns [0-3]
+     * @return Windowed word tone, to be added with the sign returned by {@link #getWordSign(int)}. Must not be
+     * modified
+     */
+    public float[] getWord(int frequencyIndex, int quarterTurns) {
+        return (quarterTurns & 1) == 0 ? words[frequencyIndex] : quadratureWords[frequencyIndex];
+    }
+
+    /**
+     * @param quarterTurns Initial phase of the tone in quarter turns [0-3]
+     * @return 1 or -1, sign of the table returned by {@link #getWord(int, int)}
+     */
+    public static float getWordSign(int quarterTurns) {
+        return (quarterTurns & 2) == 0 ? 1 : -1;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of {@link DspKernels} using the jdk.incubator.vector API, loaded by {@link DspKernels#getInstance()}
+ * when running on Java 17 or later with the module jdk.incubator.vector.
+ */
+public class VectorDspKernels extends DspKernels {
+    private static final VectorSpecies<Double> DOUBLE_SPECIES = DoubleVector.SPECIES_PREFERRED;
+    // Float species with the same number of lanes than the double species
+    private static final VectorSpecies<Float> HALF_FLOAT_SPECIES = VectorSpecies.of(float.class,
+            VectorShape.forBitSize(DOUBLE_SPECIES.vectorBitSize() / 2));
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final int LANES = DOUBLE_SPECIES.length();
+
+    public VectorDspKernels() {
+        if(LANES < 2) {
+            throw new UnsupportedOperationException("No vector unit");
+        }
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    public void goertzel(float[] samples, int from, int to, float[] windowTable, int tableIndex, double[] coefficients,
+                         double[] s1, double[] s2) {
+        final int k = coefficients.length;
+        final int vectorEnd = DOUBLE_SPECIES.loopBound(k);
+        // Keep the state of LANES frequencies in registers while iterating over the samples
+        for(int idfreq = 0; idfreq < vectorEnd; idfreq += LANES) {
+            final DoubleVector coefficient = DoubleVector.fromArray(DOUBLE_SPECIES, coefficients, idfreq);
+            DoubleVector vs1 = DoubleVector.fromArray(DOUBLE_SPECIES, s1, idfreq);
+            DoubleVector vs2 = DoubleVector.fromArray(DOUBLE_SPECIES, s2, idfreq);
+            int windowIndex = tableIndex + idfreq;
+            for(int i = from; i < to; i++) {
+                final DoubleVector weight = (DoubleVector) FloatVector.fromArray(HALF_FLOAT_SPECIES, windowTable,
+                        windowIndex).convertShape(VectorOperators.F2D, DOUBLE_SPECIES, 0);
+                final DoubleVector s0 = weight.mul(samples[i]).add(coefficient.mul(vs1)).sub(vs2);
+                vs2 = vs1;
+                vs1 = s0;
+                windowIndex += k;
+            }
+            vs1.intoArray(s1, idfreq);
+            vs2.intoArray(s2, idfreq);
+        }
+        // Remaining frequencies
+        for(int idfreq = vectorEnd; idfreq < k; idfreq++) {
+            final double coefficient = coefficients[idfreq];
+            double vs1 = s1[idfreq];
+            double vs2 = s2[idfreq];
+            int windowIndex = tableIndex + idfreq;
+            for(int i = from; i < to; i++) {
+                final double s0 = samples[i] * windowTable[windowIndex] + coefficient * vs1 - vs2;
+                vs2 = vs1;
+                vs1 = s0;
+                windowIndex += k;
+            }
+            s1[idfreq] = vs1;
+            s2[idfreq] = vs2;
+        }
+    }
+
+    @Override
+    public void multiply(float[] source, int sourceFrom, float[] window, int windowFrom, float[] dest, int destFrom,
+                         int length) {
+        final int vectorEnd = FLOAT_SPECIES.loopBound(length);
+        int i = 0;
+        for(; i < vectorEnd; i += FLOAT_SPECIES.length()) {
+            FloatVector.fromArray(FLOAT_SPECIES, source, sourceFrom + i)
+                    .mul(FloatVector.fromArray(FLOAT_SPECIES, window, windowFrom + i))
+                    .intoArray(dest, destFrom + i);
+        }
+        for(; i < length; i++) {
+            dest[destFrom + i] = source[sourceFrom + i] * window[windowFrom + i];
+        }
+    }
+
+    @Override
+    public void addScaled(float[] source, int sourceFrom, float scale, float[] dest, int destFrom, int length) {
+        final int vectorEnd = FLOAT_SPECIES.loopBound(length);
+        int i = 0;
+        for(; i < vectorEnd; i += FLOAT_SPECIES.length()) {
+            FloatVector.fromArray(FLOAT_SPECIES, source, sourceFrom + i)
+                    .mul(scale).add(FloatVector.fromArray(FLOAT_SPECIES, dest, destFrom + i))
+                    .intoArray(dest, destFrom + i);
+        }
+        for(; i < length; i++) {
+            dest[destFrom + i] += scale * source[sourceFrom + i];
+        }
+    }
+
+    @Override
+    public void addSine(float[] samples, int from, int to, double omega, long index, double phase, double amplitude) {
+        final int vectorEnd = from + DOUBLE_SPECIES.loopBound(to - from);
+        if(vectorEnd > from) {
+            // (sin, cos) of LANES consecutive samples, rotated by LANES samples at each step
+            final DoubleVector laneAngle = DoubleVector.zero(DOUBLE_SPECIES).addIndex(1).mul(omega);
+            final DoubleVector laneSin = laneAngle.lanewise(VectorOperators.SIN);
+            final DoubleVector laneCos = laneAngle.lanewise(VectorOperators.COS);
+            final double startSin = Math.sin(omega * index + phase);
+            final double startCos = Math.cos(omega * index + phase);
+            DoubleVector sin = laneSin.mul(startCos).add(laneCos.mul(startSin));
+            DoubleVector cos = laneCos.mul(startCos).sub(laneSin.mul(startSin));
+            final double stepCos = Math.cos(omega * LANES);
+            final double stepSin = Math.sin(omega * LANES);
+            for(int i = from; i < vectorEnd; i += LANES) {
+                final FloatVector tone = (FloatVector) sin.mul(amplitude).convertShape(VectorOperators.D2F,
+                        HALF_FLOAT_SPECIES, 0);
+                FloatVector.fromArray(HALF_FLOAT_SPECIES, samples, i).add(tone).intoArray(samples, i);
+                final DoubleVector nextSin = sin.mul(stepCos).add(cos.mul(stepSin));
+                cos = cos.mul(stepCos).sub(sin.mul(stepSin));
+                sin = nextSin;
+            }
+        }
+        super.addSine(samples, vectorEnd, to, omega, index + (vectorEnd - from), phase, amplitude);
+    }
+}
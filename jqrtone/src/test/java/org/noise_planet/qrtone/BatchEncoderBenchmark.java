@@ -0,0 +1,109 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compare the CPU-bound throughput (samples discarded) with the disk-bound throughput (WAV files) of the batch encoder.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.noise_planet.qrtone.BatchEncoderBenchmark
+ */
+public class BatchEncoderBenchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Configuration configuration = Configuration.getAudible(44100);
+        List<byte[]> payloads = BatchEncoderTest.generatePayloads(64, 32);
+        int threads = Runtime.getRuntime().availableProcessors();
+        final BatchEncoder.ChannelFactory discard = new BatchEncoder.ChannelFactory() {
+            @Override
+            public WritableByteChannel open(int index, long byteLength) {
+                return new WritableByteChannel() {
+                    @Override
+                    public int write(ByteBuffer src) {
+                        int length = src.remaining();
+                        ((Buffer) src).position(src.limit());
+                        return length;
+                    }
+
+                    @Override
+                    public boolean isOpen() {
+                        return true;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+        };
+        File folder = Files.createTempDirectory("qrtone_bench").toFile();
+        List<File> files = new ArrayList<>();
+        for(int i = 0; i < payloads.size(); i++) {
+            files.add(new File(folder, "bench_" + i + ".wav"));
+        }
+        try {
+            for (int threadCount : new int[]{1, threads}) {
+                BatchEncoder batchEncoder = new BatchEncoder(configuration, threadCount);
+                // warm up
+                batchEncoder.encode(payloads, Configuration.ECC_LEVEL.ECC_L, true, 0.5, SampleFormat.PCM16,
+                        false, discard);
+                long start = System.nanoTime();
+                long bytes = batchEncoder.encode(payloads, Configuration.ECC_LEVEL.ECC_L, true, 0.5,
+                        SampleFormat.PCM16, false, discard);
+                long cpuBound = System.nanoTime() - start;
+                start = System.nanoTime();
+                long fileBytes = batchEncoder.encodeWavFiles(payloads, Configuration.ECC_LEVEL.ECC_L, true, 0.5,
+                        SampleFormat.PCM16, files);
+                long diskBound = System.nanoTime() - start;
+                batchEncoder.shutdown();
+                System.out.println(String.format(Locale.ROOT,
+                        "Batch encoder %d thread(s): cpu-bound %.1f MB/s disk-bound %.1f MB/s", threadCount,
+                        bytes / (cpuBound / 1e3), fileBytes / (diskBound / 1e3)));
+            }
+        } finally {
+            for (File file : files) {
+                file.delete();
+            }
+            folder.delete();
+        }
+    }
+}
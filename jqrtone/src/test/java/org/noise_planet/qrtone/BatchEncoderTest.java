@@ -0,0 +1,243 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BatchEncoderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static List<byte[]> generatePayloads(int count, int length) {
+        Random random = new Random(1337);
+        List<byte[]> payloads = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            byte[] payload = new byte[length];
+            random.nextBytes(payload);
+            payloads.add(payload);
+        }
+        return payloads;
+    }
+
+    @Test
+    public void testSameSamplesAsQRTone() throws IOException, InterruptedException {
+        Configuration configuration = Configuration.getAudible(44100);
+        List<byte[]> payloads = generatePayloads(6, 12);
+        final ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[payloads.size()];
+        // Small chunks so that messages span many chunks
+        BatchEncoder batchEncoder = new BatchEncoder(configuration, 3, 1000);
+        long written = batchEncoder.encode(payloads, Configuration.ECC_LEVEL.ECC_M, true, 0.5,
+                SampleFormat.FLOAT32, false, new BatchEncoder.ChannelFactory() {
+            @Override
+            public WritableByteChannel open(int index, long byteLength) {
+                outputs[index] = new ByteArrayOutputStream((int) byteLength);
+                return Channels.newChannel(outputs[index]);
+            }
+        });
+        batchEncoder.shutdown();
+        assertTrue(batchEncoder.awaitTermination(10, TimeUnit.SECONDS));
+        QRTone qrTone = new QRTone(configuration);
+        long expectedWritten = 0;
+        for(int i = 0; i < payloads.size(); i++) {
+            float[] expected = new float[qrTone.setPayload(payloads.get(i), Configuration.ECC_LEVEL.ECC_M, true)];
+            qrTone.getSamples(expected, 0.5);
+            expectedWritten += expected.length * 4;
+            ByteBuffer bytes = ByteBuffer.wrap(outputs[i].toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(expected.length * 4, bytes.remaining());
+            for(float value : expected) {
+                assertEquals(value, bytes.getFloat(), 0);
+            }
+        }
+        assertEquals(expectedWritten, written);
+    }
+
+    @Test
+    public void testWavFiles() throws Exception {
+        Configuration configuration = Configuration.getAudible(16000);
+        List<byte[]> payloads = generatePayloads(4, 8);
+        List<File> files = new ArrayList<>();
+        for(int i = 0; i < payloads.size(); i++) {
+            files.add(folder.newFile("message_" + i + ".wav"));
+        }
+        BatchEncoder batchEncoder = new BatchEncoder(configuration, 2);
+        long written = batchEncoder.encodeWavFiles(payloads, Configuration.ECC_LEVEL.ECC_Q, true, 0.5,
+                SampleFormat.PCM16, files);
+        batchEncoder.shutdown();
+        long fileBytes = 0;
+        for(int i = 0; i < payloads.size(); i++) {
+            File file = files.get(i);
+            fileBytes += file.length();
+            AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(file);
+            assertEquals(AudioFileFormat.Type.WAVE, fileFormat.getType());
+            AudioFormat format = fileFormat.getFormat();
+            assertEquals(AudioFormat.Encoding.PCM_SIGNED, format.getEncoding());
+            assertEquals(16000, format.getSampleRate(), 0);
+            assertEquals(16, format.getSampleSizeInBits());
+            assertEquals(1, format.getChannels());
+            // Decode back the file content
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            ((Buffer) data).position(BatchEncoder.getWavHeaderLength(SampleFormat.PCM16));
+            QRTone qrTone = new QRTone(configuration);
+            assertEquals(fileFormat.getFrameLength(), data.remaining() / 2);
+            boolean decoded = false;
+            while (data.hasRemaining() && !decoded) {
+                int window = Math.min(qrTone.getMaximumWindowLength(), data.remaining() / 2);
+                ByteBuffer frame = data.duplicate();
+                ((Buffer) frame).limit(frame.position() + window * 2);
+                decoded = qrTone.pushSamples(frame, SampleFormat.PCM16, ByteOrder.LITTLE_ENDIAN);
+                ((Buffer) data).position(frame.position());
+            }
+            if(!decoded) {
+                // flush the last word
+                decoded = qrTone.pushSamples(new float[qrTone.getMaximumWindowLength() * 4]);
+            }
+            assertTrue(decoded);
+            assertArrayEquals(payloads.get(i), qrTone.getPayload());
+        }
+        assertEquals(fileBytes, written);
+    }
+
+    @Test
+    public void testFloatWavHeader() throws Exception {
+        Configuration configuration = Configuration.getAudible(48000);
+        List<byte[]> payloads = generatePayloads(1, 5);
+        File file = folder.newFile("message.wav");
+        BatchEncoder batchEncoder = new BatchEncoder(configuration, 1);
+        batchEncoder.encodeWavFiles(payloads, Configuration.ECC_LEVEL.ECC_L, false, 0.5, SampleFormat.FLOAT32,
+                Collections.singletonList(file));
+        batchEncoder.shutdown();
+        AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(file);
+        assertEquals(AudioFormat.Encoding.PCM_FLOAT, fileFormat.getFormat().getEncoding());
+        assertEquals(32, fileFormat.getFormat().getSampleSizeInBits());
+        assertEquals(new QRTone(configuration).getMessageLength(5, Configuration.ECC_LEVEL.ECC_L, false),
+                fileFormat.getFrameLength());
+    }
+
+    @Test
+    public void testChannelError() throws InterruptedException {
+        BatchEncoder batchEncoder = new BatchEncoder(Configuration.getAudible(16000), 2);
+        try {
+            batchEncoder.encode(generatePayloads(4, 4), Configuration.ECC_LEVEL.ECC_L, true, 0.5,
+                    SampleFormat.PCM16, false, new BatchEncoder.ChannelFactory() {
+                        @Override
+                        public WritableByteChannel open(int index, long byteLength) throws IOException {
+                            throw new IOException("Disk full");
+                        }
+                    });
+            fail();
+        } catch (IOException ex) {
+            assertEquals("Disk full", ex.getMessage());
+        } finally {
+            batchEncoder.shutdown();
+        }
+    }
+
+    @Test
+    public void testChannelErrorWaitsForRunningMessages() throws InterruptedException {
+        final AtomicInteger openChannels = new AtomicInteger(0);
+        final AtomicInteger openedChannels = new AtomicInteger(0);
+        final CountDownLatch writing = new CountDownLatch(1);
+        // Single sample chunks so that the running message is still being written when the other one fails
+        BatchEncoder batchEncoder = new BatchEncoder(Configuration.getAudible(16000), 2, 1);
+        try {
+            batchEncoder.encode(generatePayloads(8, 4), Configuration.ECC_LEVEL.ECC_L, true, 0.5,
+                    SampleFormat.PCM16, false, new BatchEncoder.ChannelFactory() {
+                        @Override
+                        public WritableByteChannel open(int index, long byteLength) throws IOException {
+                            if(index == 0) {
+                                try {
+                                    writing.await();
+                                } catch (InterruptedException ex) {
+                                    throw new IOException(ex);
+                                }
+                                throw new IOException("Disk full");
+                            }
+                            openChannels.incrementAndGet();
+                            openedChannels.incrementAndGet();
+                            return new WritableByteChannel() {
+                                @Override
+                                public int write(ByteBuffer src) {
+                                    writing.countDown();
+                                    int length = src.remaining();
+                                    ((Buffer) src).position(src.limit());
+                                    return length;
+                                }
+
+                                @Override
+                                public boolean isOpen() {
+                                    return true;
+                                }
+
+                                @Override
+                                public void close() {
+                                    openChannels.decrementAndGet();
+                                }
+                            };
+                        }
+                    });
+            fail();
+        } catch (IOException ex) {
+            assertEquals("Disk full", ex.getMessage());
+        } finally {
+            batchEncoder.shutdown();
+        }
+        // No message is still being written and the queued messages have been skipped
+        assertEquals(0, openChannels.get());
+        assertTrue(openedChannels.get() < 7);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compare the table-driven CRC16 with the bit by bit computation.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.noise_planet.qrtone.CRC16Benchmark
+ */
+public class CRC16Benchmark {
+
+    public static void main(String[] args) {
+        byte[] data = new byte[4 * 1024 * 1024];
+        new Random(1337).nextBytes(data);
+        long referenceTime = 0;
+        long tableTime = 0;
+        // First round warm up the JIT
+        for(int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            int expected = CRC16Test.referenceCRC16(data, 0, data.length);
+            referenceTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            CRC16 crc16 = new CRC16();
+            crc16.update(data, 0, data.length);
+            tableTime = System.nanoTime() - start;
+            if(expected != crc16.crc()) {
+                throw new IllegalStateException("CRC16 mismatch");
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "CRC16 of %d MB bit by bit %d ms, table %d ms",
+                data.length / (1024 * 1024), referenceTime / 1000000, tableTime / 1000000));
+    }
+}
@@ -2,6 +2,9 @@ package org.noise_planet.qrtone;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.util.Random;
+
 import static org.junit.Assert.*;
 
 public class CRC16Test {
@@ -14,5 +17,71 @@ public class CRC16Test {
             crc16.add(b);
         }
         assertEquals(0x0C9E, crc16.crc());
+        crc16.reset();
+        crc16.update(values, 0, values.length);
+        assertEquals(0x0C9E, crc16.crc());
+    }
+
+    /**
+     * Bit by bit implementation
+     */
+    static int referenceCRC16(byte[] data, int from, int to) {
+        int crc = 0;
+        for(int idByte = from; idByte < to; idByte++) {
+            int i = (crc ^ data[idByte]) & 0xff;
+            int crcXor = 0;
+            int c = i;
+            for (int j = 0; j < 8; j++) {
+                if (((crcXor ^ c) & 0x0001) != 0) {
+                    crcXor = (crcXor >> 1) ^ 0xA001;
+                } else {
+                    crcXor = crcXor >> 1;
+                }
+                c = c >> 1;
+            }
+            crc = (crc >>> 8) ^ crcXor;
+        }
+        return crc & 0xFFFF;
+    }
+
+    @Test
+    public void testUpdate() {
+        Random random = new Random(1337);
+        byte[] data = new byte[1024];
+        random.nextBytes(data);
+        for(int iteration = 0; iteration < 500; iteration++) {
+            int from = random.nextInt(data.length);
+            int to = from + random.nextInt(data.length - from + 1);
+            int expected = referenceCRC16(data, from, to);
+            // Split in two updates
+            int split = from + random.nextInt(to - from + 1);
+            CRC16 crc16 = new CRC16();
+            crc16.update(data, from, split - from);
+            crc16.update(data, split, to - split);
+            assertEquals(expected, crc16.crc());
+            assertEquals(expected, QRTone.crc16(data, from, to));
+            // Heap buffer
+            crc16.reset();
+            ByteBuffer buffer = ByteBuffer.wrap(data, from, to - from);
+            crc16.update(buffer);
+            assertEquals(expected, crc16.crc());
+            assertFalse(buffer.hasRemaining());
+            // Direct buffer
+            crc16.reset();
+            buffer = ByteBuffer.allocateDirect(to - from);
+            buffer.put(data, from, to - from);
+            buffer.flip();
+            crc16.update(buffer);
+            assertEquals(expected, crc16.crc());
+        }
+    }
+
+    @Test
+    public void testBulkUpdate() {
+        byte[] data = new byte[16 * 1024];
+        new Random(1337).nextBytes(data);
+        CRC16 crc16 = new CRC16();
+        crc16.update(data, 0, data.length);
+        assertEquals(referenceCRC16(data, 0, data.length), crc16.crc());
     }
-}
\ No newline at end of file
+}
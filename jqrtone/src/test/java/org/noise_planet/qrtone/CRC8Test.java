@@ -0,0 +1,64 @@
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CRC8Test {
+
+    /**
+     * Bit by bit implementation
+     */
+    static byte referenceCRC8(byte[] data, int from, int to) {
+        int crc8 = 0;
+        for(int idByte = from; idByte < to; idByte++) {
+            int crc = 0;
+            int accumulator = (crc8 ^ data[idByte]) & 0x0FF;
+            for (int j = 0; j < 8; j++) {
+                if (((accumulator ^ crc) & 0x01) == 0x01) {
+                    crc = ((crc ^ 0x18) >> 1) | 0x80;
+                } else {
+                    crc = crc >> 1;
+                }
+                accumulator = accumulator >> 1;
+            }
+            crc8 = (byte) crc;
+        }
+        return (byte) (crc8 & 0x0FF);
+    }
+
+    @Test
+    public void testUpdate() {
+        Random random = new Random(1337);
+        byte[] data = new byte[1024];
+        random.nextBytes(data);
+        for(int iteration = 0; iteration < 500; iteration++) {
+            int from = random.nextInt(data.length);
+            int to = from + random.nextInt(data.length - from + 1);
+            byte expected = referenceCRC8(data, from, to);
+            // Split in two updates
+            int split = from + random.nextInt(to - from + 1);
+            CRC8 crc8 = new CRC8();
+            crc8.update(data, from, split - from);
+            crc8.update(data, split, to - split);
+            assertEquals(expected, crc8.crc());
+            assertEquals(expected, QRTone.crc8(data, from, to));
+            // Heap buffer
+            crc8.reset();
+            ByteBuffer buffer = ByteBuffer.wrap(data, from, to - from);
+            crc8.update(buffer);
+            assertEquals(expected, crc8.crc());
+            assertFalse(buffer.hasRemaining());
+            // Direct buffer
+            crc8.reset();
+            buffer = ByteBuffer.allocateDirect(to - from);
+            buffer.put(data, from, to - from);
+            buffer.flip();
+            crc8.update(buffer);
+            assertEquals(expected, crc8.crc());
+        }
+    }
+}
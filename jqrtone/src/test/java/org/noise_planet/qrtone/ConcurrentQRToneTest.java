@@ -0,0 +1,95 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+import org.noise_planet.qrtone.utils.TestSignals;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentQRToneTest {
+
+    @Test
+    public void testDecodeFromOtherThread() throws InterruptedException {
+        Configuration configuration = Configuration.getAudible(16000);
+        final ConcurrentQRTone qrTone = new ConcurrentQRTone(configuration);
+        byte[] payload = new byte[]{'c', 'o', 'n', 'c'};
+        final float[] samples = TestSignals.generateMessage(configuration, payload, 0.3, 0.3);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int cursor = 0;
+                while (cursor < samples.length) {
+                    int windowSize = Math.min(qrTone.getMaximumWindowLength(), Math.min(160, samples.length - cursor));
+                    qrTone.pushSamples(samples, cursor, windowSize);
+                    cursor += windowSize;
+                }
+            }
+        });
+        producer.start();
+        ConcurrentQRTone.Message message = qrTone.poll(30, TimeUnit.SECONDS);
+        producer.join();
+        assertNotNull(message);
+        assertArrayEquals(payload, message.payload);
+        assertEquals(0.3, message.sampleIndex / configuration.sampleRate, 0.001);
+        assertNull(qrTone.poll());
+    }
+
+    @Test
+    public void testGetSamples() {
+        Configuration configuration = Configuration.getAudible(16000);
+        ConcurrentQRTone qrTone = new ConcurrentQRTone(configuration);
+        byte[] payload = new byte[]{1, 2, 3};
+        float[] samples = qrTone.getSamples(payload, Configuration.ECC_LEVEL.ECC_Q, true, 0.1);
+        float[] padded = new float[samples.length + 8000];
+        System.arraycopy(samples, 0, padded, 4000, samples.length);
+        Random random = new Random(1337);
+        for(int i = 0; i < padded.length; i++) {
+            padded[i] += (float)(random.nextGaussian() * 1e-3);
+        }
+        int cursor = 0;
+        while (cursor < padded.length) {
+            int windowSize = Math.min(qrTone.getMaximumWindowLength(), padded.length - cursor);
+            qrTone.pushSamples(padded, cursor, windowSize);
+            cursor += windowSize;
+        }
+        ConcurrentQRTone.Message message = qrTone.poll();
+        assertNotNull(message);
+        assertArrayEquals(payload, message.payload);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+import java.util.Random;
+
+/**
+ * Compare the scalar and vector kernels. The vector kernels are available on Java 17 and later with
+ * --add-modules jdk.incubator.vector and META-INF/versions/17 in the class path (or using the multi-release jar).
+ * Run with: java --add-modules jdk.incubator.vector -cp target/classes:target/classes/META-INF/versions/17:target/test-classes org.noise_planet.qrtone.DspKernelsBenchmark
+ */
+public class DspKernelsBenchmark {
+    private static final int ITERATIONS = 2000;
+
+    static double benchmarkGoertzel(DspKernels kernels, float[] samples, float[] windowTable, double[] coefficients) {
+        double[] s1 = new double[coefficients.length];
+        double[] s2 = new double[coefficients.length];
+        long start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS; i++) {
+            kernels.goertzel(samples, 0, samples.length, windowTable, 0, coefficients, s1, s2);
+        }
+        return (System.nanoTime() - start) / 1e3 / ITERATIONS;
+    }
+
+    static double benchmarkMultiply(DspKernels kernels, float[] samples, float[] window, float[] dest) {
+        long start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS * 10; i++) {
+            kernels.multiply(samples, 0, window, 0, dest, 0, samples.length);
+        }
+        return (System.nanoTime() - start) / 1e3 / (ITERATIONS * 10);
+    }
+
+    static double benchmarkSine(DspKernels kernels, float[] dest) {
+        long start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS * 10; i++) {
+            kernels.addSine(dest, 0, dest.length, 0.245, i, 1e-6);
+        }
+        return (System.nanoTime() - start) / 1e3 / (ITERATIONS * 10);
+    }
+
+    public static void main(String[] args) {
+        DspKernels scalar = DspKernels.getScalar();
+        DspKernels instance = DspKernels.getInstance();
+        System.out.println("Vector kernels: " + instance.isVectorized());
+        Random random = new Random(1337);
+        // One word at 44.1 kHz
+        final int length = 2646;
+        float[] samples = new float[length];
+        float[] window = new float[length];
+        for(int i = 0; i < length; i++) {
+            samples[i] = (float)random.nextGaussian();
+            window[i] = random.nextFloat();
+        }
+        System.out.println("kernel,scalar (us),instance (us),speedup");
+        for(int k : new int[] {8, 32, 64}) {
+            float[] windowTable = new float[length * k];
+            for(int i = 0; i < windowTable.length; i++) {
+                windowTable[i] = random.nextFloat();
+            }
+            double[] coefficients = new double[k];
+            for(int i = 0; i < k; i++) {
+                coefficients[i] = 2 * Math.cos(QRTone.M2PI * (1000 + i * 100) / 44100.0);
+            }
+            // warm up
+            benchmarkGoertzel(scalar, samples, windowTable, coefficients);
+            benchmarkGoertzel(instance, samples, windowTable, coefficients);
+            double scalarTime = benchmarkGoertzel(scalar, samples, windowTable, coefficients);
+            double instanceTime = benchmarkGoertzel(instance, samples, windowTable, coefficients);
+            System.out.println(String.format("goertzel %d frequencies,%.1f,%.1f,%.2f", k, scalarTime, instanceTime,
+                    scalarTime / instanceTime));
+        }
+        float[] dest = new float[length];
+        benchmarkMultiply(scalar, samples, window, dest);
+        benchmarkMultiply(instance, samples, window, dest);
+        double scalarTime = benchmarkMultiply(scalar, samples, window, dest);
+        double instanceTime = benchmarkMultiply(instance, samples, window, dest);
+        System.out.println(String.format("window,%.2f,%.2f,%.2f", scalarTime, instanceTime, scalarTime / instanceTime));
+        benchmarkSine(scalar, dest);
+        benchmarkSine(instance, dest);
+        scalarTime = benchmarkSine(scalar, dest);
+        instanceTime = benchmarkSine(instance, dest);
+        System.out.println(String.format("tone,%.2f,%.2f,%.2f", scalarTime, instanceTime, scalarTime / instanceTime));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compare the implementation loaded by {@link DspKernels#getInstance()} with the scalar implementation
+ */
+public class DspKernelsTest {
+
+    @Test
+    public void testVectorLoaded() {
+        if(Boolean.parseBoolean(System.getProperty("qrtone.expectVector", "false"))) {
+            assertTrue(DspKernels.getInstance().isVectorized());
+        }
+        assertFalse(DspKernels.getScalar().isVectorized());
+    }
+
+    @Test
+    public void testGoertzel() {
+        Random random = new Random(1337);
+        // Number of frequencies not multiple of the vector length
+        final int k = 35;
+        final int length = 1001;
+        float[] samples = new float[length + 7];
+        for(int i = 0; i < samples.length; i++) {
+            samples[i] = (float)random.nextGaussian();
+        }
+        float[] windowTable = new float[(length + 2) * k];
+        for(int i = 0; i < windowTable.length; i++) {
+            windowTable[i] = random.nextFloat();
+        }
+        double[] coefficients = new double[k];
+        for(int i = 0; i < k; i++) {
+            coefficients[i] = 2 * Math.cos(QRTone.M2PI * (500 + i * 100) / 44100.0);
+        }
+        double[] s1 = new double[k];
+        double[] s2 = new double[k];
+        double[] expectedS1 = new double[k];
+        double[] expectedS2 = new double[k];
+        DspKernels.getInstance().goertzel(samples, 7, 7 + length, windowTable, 2 * k, coefficients, s1, s2);
+        DspKernels.getScalar().goertzel(samples, 7, 7 + length, windowTable, 2 * k, coefficients, expectedS1, expectedS2);
+        for(int i = 0; i < k; i++) {
+            assertEquals(expectedS1[i], s1[i], Math.abs(expectedS1[i]) * 1e-6 + 1e-6);
+            assertEquals(expectedS2[i], s2[i], Math.abs(expectedS2[i]) * 1e-6 + 1e-6);
+        }
+    }
+
+    @Test
+    public void testMultiply() {
+        Random random = new Random(1337);
+        float[] samples = new float[517];
+        float[] window = new float[530];
+        for(int i = 0; i < samples.length; i++) {
+            samples[i] = (float)random.nextGaussian();
+        }
+        for(int i = 0; i < window.length; i++) {
+            window[i] = random.nextFloat();
+        }
+        float[] result = new float[520];
+        float[] expected = new float[520];
+        DspKernels.getInstance().multiply(samples, 3, window, 11, result, 1, 509);
+        DspKernels.getScalar().multiply(samples, 3, window, 11, expected, 1, 509);
+        assertArrayEquals(expected, result, 0);
+    }
+
+    @Test
+    public void testAddScaled() {
+        Random random = new Random(1337);
+        float[] source = new float[517];
+        for(int i = 0; i < source.length; i++) {
+            source[i] = (float)random.nextGaussian();
+        }
+        float[] result = new float[520];
+        for(int i = 0; i < result.length; i++) {
+            result[i] = (float)random.nextGaussian();
+        }
+        float[] expected = Arrays.copyOf(result, result.length);
+        DspKernels.getInstance().addScaled(source, 3, 0.25f, result, 1, 509);
+        DspKernels.getScalar().addScaled(source, 3, 0.25f, expected, 1, 509);
+        assertArrayEquals(expected, result, 0);
+    }
+
+    @Test
+    public void testAddSine() {
+        final double omega = QRTone.M2PI * 1720 / 44100;
+        float[] samples = new float[44100];
+        float[] expected = new float[samples.length];
+        DspKernels.getInstance().addSine(samples, 3, samples.length, omega, 1000, 0.5);
+        for(int i = 3; i < samples.length; i++) {
+            expected[i] = (float)(Math.sin(omega * (1000 + i - 3)) * 0.5);
+        }
+        assertArrayEquals(expected, samples, 1e-5f);
+        // Same as tone generated sample per sample
+        IterativeTone iterativeTone = new IterativeTone(1720, 44100);
+        IterativeTone blockTone = new IterativeTone(1720, 44100);
+        float[] block = new float[1003];
+        blockTone.addTo(block, 0, 501, 1);
+        blockTone.addTo(block, 501, block.length, 1);
+        for(int i = 0; i < block.length; i++) {
+            assertEquals(iterativeTone.next(), block[i], 1e-5);
+        }
+        assertEquals(iterativeTone.next(), blockTone.next(), 1e-9);
+    }
+
+    @Test
+    public void testAddSinePhase() {
+        final double omega = QRTone.M2PI * 1720 / 44100;
+        final double phase = Math.PI / 2;
+        float[] samples = new float[4410];
+        DspKernels.getInstance().addSine(samples, 3, samples.length, omega, 1000, phase, 0.5);
+        float[] expected = new float[samples.length];
+        DspKernels.getScalar().addSine(expected, 3, samples.length, omega, 1000, phase, 0.5);
+        assertArrayEquals(expected, samples, 1e-5f);
+        for(int i = 3; i < samples.length; i++) {
+            assertEquals(Math.cos(omega * (1000 + i - 3)) * 0.5, samples[i], 1e-5);
+        }
+        // Sample per sample and block rendering of a tone starting at a given phase
+        IterativeTone iterativeTone = new IterativeTone(1720, 44100, phase);
+        IterativeTone blockTone = new IterativeTone(1720, 44100, phase);
+        float[] block = new float[1003];
+        blockTone.addTo(block, 0, 501, 1);
+        blockTone.addTo(block, 501, block.length, 1);
+        for(int i = 0; i < block.length; i++) {
+            double value = iterativeTone.next();
+            assertEquals(Math.cos(omega * i), value, 1e-6);
+            assertEquals(value, block[i], 1e-5);
+        }
+        assertEquals(iterativeTone.next(), blockTone.next(), 1e-9);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameReassemblerTest {
+
+    private static byte[] randomMessage(int length, long seed) {
+        byte[] message = new byte[length];
+        new Random(seed).nextBytes(message);
+        return message;
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        byte[] message = randomMessage(1000, 1);
+        List<byte[]> frames = MessageFramer.split(message, 3, 100);
+        Collections.shuffle(frames, new Random(2));
+        FrameReassembler reassembler = new FrameReassembler(1 << 16, 1000);
+        for(int i = 0; i < frames.size() - 1; i++) {
+            assertFalse(reassembler.pushFrame(frames.get(i), i * 10));
+            // Repeated frames are ignored
+            assertFalse(reassembler.pushFrame(frames.get(i), i * 10 + 5));
+        }
+        assertEquals(1, reassembler.getPendingMessages());
+        assertTrue(reassembler.pushFrame(frames.get(frames.size() - 1), 500));
+        assertArrayEquals(message, reassembler.getMessage());
+        assertEquals(3, reassembler.getMessageId());
+        assertEquals(0, reassembler.getMessageSampleIndex());
+        assertEquals(0, reassembler.getPendingMessages());
+        assertEquals(0, reassembler.getBufferedBytes());
+        assertEquals(1, reassembler.getCompletedMessages());
+    }
+
+    @Test
+    public void testInterleavedMessages() {
+        byte[] first = randomMessage(500, 1);
+        byte[] second = randomMessage(700, 2);
+        List<byte[]> firstFrames = MessageFramer.split(first, 1, 100);
+        List<byte[]> secondFrames = MessageFramer.split(second, 2, 100);
+        FrameReassembler reassembler = new FrameReassembler(1 << 16, 1000);
+        int completed = 0;
+        for(int i = 0; i < secondFrames.size(); i++) {
+            if(i < firstFrames.size() && reassembler.pushFrame(firstFrames.get(i), i)) {
+                assertArrayEquals(first, reassembler.getMessage());
+                completed++;
+            }
+            if(reassembler.pushFrame(secondFrames.get(i), i)) {
+                assertArrayEquals(second, reassembler.getMessage());
+                completed++;
+            }
+        }
+        assertEquals(2, completed);
+        // Single frame messages are delivered immediately
+        assertTrue(reassembler.pushFrame(MessageFramer.split(new byte[]{1, 2}, 9).get(0), 10));
+        assertArrayEquals(new byte[]{1, 2}, reassembler.getMessage());
+    }
+
+    @Test
+    public void testTimeout() {
+        List<byte[]> frames = MessageFramer.split(randomMessage(500, 1), 4, 100);
+        FrameReassembler reassembler = new FrameReassembler(1 << 16, 1000);
+        reassembler.pushFrame(frames.get(0), 0);
+        reassembler.pushFrame(frames.get(1), 900);
+        reassembler.expire(1800);
+        assertEquals(1, reassembler.getPendingMessages());
+        reassembler.expire(1901);
+        assertEquals(0, reassembler.getPendingMessages());
+        assertEquals(0, reassembler.getBufferedBytes());
+        assertEquals(1, reassembler.getExpiredMessages());
+        // The remaining frames alone do not complete the message
+        for(int i = 2; i < frames.size(); i++) {
+            assertFalse(reassembler.pushFrame(frames.get(i), 2000 + i));
+        }
+        assertEquals(1, reassembler.getPendingMessages());
+    }
+
+    @Test
+    public void testMemoryBudget() {
+        List<byte[]> first = MessageFramer.split(randomMessage(400, 1), 1, 104);
+        List<byte[]> second = MessageFramer.split(randomMessage(400, 2), 2, 104);
+        List<byte[]> third = MessageFramer.split(randomMessage(400, 3), 3, 104);
+        FrameReassembler reassembler = new FrameReassembler(500, 1000);
+        for(int i = 0; i < 2; i++) {
+            reassembler.pushFrame(first.get(i), i);
+            reassembler.pushFrame(second.get(i), i);
+        }
+        // Update the first message so that the second one is the least recently updated
+        reassembler.pushFrame(first.get(2), 3);
+        assertEquals(500, reassembler.getBufferedBytes());
+        reassembler.pushFrame(third.get(0), 4);
+        assertEquals(1, reassembler.getEvictedMessages());
+        assertEquals(2, reassembler.getPendingMessages());
+        assertEquals(400, reassembler.getBufferedBytes());
+        assertTrue(reassembler.pushFrame(first.get(3), 5));
+        assertFalse(reassembler.pushFrame(second.get(2), 6));
+        assertEquals(2, reassembler.getPendingMessages());
+    }
+
+    @Test
+    public void testIdentifierReuse() {
+        FrameReassembler reassembler = new FrameReassembler(1 << 16, 1000);
+        reassembler.pushFrame(MessageFramer.split(randomMessage(300, 1), 5, 104).get(0), 0);
+        byte[] message = randomMessage(150, 2);
+        List<byte[]> frames = MessageFramer.split(message, 5, 104);
+        assertFalse(reassembler.pushFrame(frames.get(0), 1));
+        assertEquals(1, reassembler.getEvictedMessages());
+        assertTrue(reassembler.pushFrame(frames.get(1), 2));
+        assertArrayEquals(message, reassembler.getMessage());
+        // Payloads that are not frames
+        assertFalse(reassembler.pushFrame(new byte[]{1, 2}, 3));
+        assertEquals(1, reassembler.getRejectedFrames());
+    }
+
+    @Test
+    public void testRepeatedMessage() {
+        byte[] message = randomMessage(300, 1);
+        List<byte[]> frames = MessageFramer.split(message, 7, 104);
+        byte[] single = MessageFramer.split(new byte[]{1, 2}, 8).get(0);
+        FrameReassembler reassembler = new FrameReassembler(1 << 16, 1000);
+        for(int i = 0; i < frames.size(); i++) {
+            assertEquals(i == frames.size() - 1, reassembler.pushFrame(frames.get(i), i * 100));
+        }
+        assertTrue(reassembler.pushFrame(single, 300));
+        // The sender repeats the messages, they are not delivered again
+        for(int i = 0; i < frames.size(); i++) {
+            assertFalse(reassembler.pushFrame(frames.get(i), 400 + i * 100));
+        }
+        assertFalse(reassembler.pushFrame(single, 700));
+        assertEquals(2, reassembler.getCompletedMessages());
+        assertEquals(frames.size() + 1, reassembler.getRepeatedFrames());
+        assertEquals(0, reassembler.getPendingMessages());
+        assertEquals(0, reassembler.getBufferedBytes());
+        // Once no frame has been received for the timeout, the identifier is free again
+        assertFalse(reassembler.pushFrame(single, 1650));
+        assertFalse(reassembler.pushFrame(frames.get(0), 1650));
+        assertEquals(1, reassembler.getPendingMessages());
+        assertEquals(frames.size() + 2, reassembler.getRepeatedFrames());
+        assertTrue(reassembler.pushFrame(single, 2651));
+        assertEquals(3, reassembler.getCompletedMessages());
+    }
+}
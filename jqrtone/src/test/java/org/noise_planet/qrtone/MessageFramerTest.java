@@ -0,0 +1,151 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MessageFramerTest {
+
+    @Test
+    public void testSplit() {
+        byte[] message = new byte[600];
+        new Random(1337).nextBytes(message);
+        List<byte[]> frames = MessageFramer.split(message, 0x1234);
+        assertEquals(3, frames.size());
+        int cursor = 0;
+        for(int i = 0; i < frames.size(); i++) {
+            byte[] frame = frames.get(i);
+            assertTrue(MessageFramer.isFrame(frame));
+            assertTrue(frame.length <= QRTone.MAX_PAYLOAD_LENGTH);
+            assertEquals(0x1234, MessageFramer.getMessageId(frame));
+            assertEquals(i, MessageFramer.getSequence(frame));
+            assertEquals(3, MessageFramer.getFrameCount(frame));
+            byte[] data = MessageFramer.getData(frame);
+            for (byte value : data) {
+                assertEquals(message[cursor++], value);
+            }
+        }
+        assertEquals(message.length, cursor);
+        // Shorter frames
+        assertEquals(60, MessageFramer.split(message, 1, 14).size());
+        // An empty message still needs a frame
+        List<byte[]> empty = MessageFramer.split(new byte[0], MessageFramer.MAX_MESSAGE_ID);
+        assertEquals(1, empty.size());
+        assertEquals(MessageFramer.MAX_MESSAGE_ID, MessageFramer.getMessageId(empty.get(0)));
+        assertEquals(0, MessageFramer.getData(empty.get(0)).length);
+    }
+
+    @Test
+    public void testLimits() {
+        assertEquals(MessageFramer.MAX_FRAMES, MessageFramer.split(new byte[MessageFramer.MAX_MESSAGE_LENGTH], 0).size());
+        try {
+            MessageFramer.split(new byte[MessageFramer.MAX_MESSAGE_LENGTH + 1], 0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        try {
+            MessageFramer.split(new byte[10], MessageFramer.MAX_MESSAGE_ID + 1);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        try {
+            MessageFramer.split(new byte[10], 0, MessageFramer.FRAME_HEADER_LENGTH);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        assertFalse(MessageFramer.isFrame(new byte[]{0, 1, 2}));
+        assertFalse(MessageFramer.isFrame(new byte[]{0, 1, 2, 1}));
+    }
+
+    /**
+     * Send a message longer than a payload as a chain of frames and as separate messages, and reassemble it
+     */
+    @Test
+    public void testTransmission() {
+        double sampleRate = 16000;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        byte[] message = new byte[1500];
+        new Random(42).nextBytes(message);
+        List<byte[]> frames = MessageFramer.split(message, 7);
+        assertEquals(6, frames.size());
+        QRTone qrTone = new QRTone(configuration);
+        // The last frames are sent first in a chain, then the first frames are sent as separate messages
+        List<List<byte[]>> messages = new ArrayList<>();
+        messages.add(frames.subList(3, 6));
+        for(byte[] frame : frames.subList(0, 3)) {
+            messages.add(Collections.singletonList(frame));
+        }
+        float[] samples = new float[(int)(0.2 * sampleRate)];
+        for(List<byte[]> chain : messages) {
+            int length = chain.size() > 1 ? qrTone.setChainedPayloads(chain, Configuration.ECC_LEVEL.ECC_L, true) :
+                    qrTone.setPayload(chain.get(0), Configuration.ECC_LEVEL.ECC_L, true);
+            int offset = samples.length;
+            samples = Arrays.copyOf(samples, offset + length + (int)(0.2 * sampleRate));
+            qrTone.getSamples(samples, offset, length, Math.pow(10, -26.0 / 20.0) * Math.sqrt(2));
+        }
+        Random random = new Random(1337);
+        double noisePeak = Math.pow(10, -50.0 / 20.0);
+        for (int s = 0; s < samples.length; s++) {
+            samples[s] += (float)(random.nextGaussian() * noisePeak);
+        }
+        QRTone decoder = new QRTone(configuration);
+        FrameReassembler reassembler = new FrameReassembler(configuration, 30);
+        byte[] received = null;
+        int cursor = 0;
+        while (cursor < samples.length) {
+            int windowSize = Math.min(decoder.getMaximumWindowLength(), samples.length - cursor);
+            if(decoder.pushSamples(samples, cursor, windowSize) &&
+                    reassembler.pushFrame(decoder.getPayload(), decoder.gePayloadSampleIndex())) {
+                assertNull(received);
+                received = reassembler.getMessage();
+            }
+            cursor += windowSize;
+        }
+        assertArrayEquals(message, received);
+        assertEquals(7, reassembler.getMessageId());
+        assertEquals(0, reassembler.getPendingMessages());
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PcmConverterTest {
+
+    @Test
+    public void testQuantization() {
+        PcmConverter converter = new PcmConverter();
+        assertEquals(0, converter.convert(0));
+        assertEquals(Short.MAX_VALUE, converter.convert(1));
+        assertEquals(-Short.MAX_VALUE, converter.convert(-1));
+        assertEquals(16384, converter.convert(0.5f));
+        assertEquals(-16383, converter.convert(-0.5f));
+        assertEquals(0, converter.getClippedSamples());
+        short[] converted = new short[4];
+        converter.convert(new float[]{0, 0.25f, -0.25f, 0}, 1, converted, 1, 2);
+        assertArrayEquals(new short[]{0, 8192, -8192, 0}, converted);
+    }
+
+    @Test
+    public void testClipping() {
+        PcmConverter converter = new PcmConverter();
+        assertEquals(Short.MAX_VALUE, converter.convert(1.5f));
+        assertEquals(Short.MIN_VALUE, converter.convert(-1.5f));
+        assertEquals(1, converter.clip(3), 0);
+        assertEquals(-1, converter.clip(-3), 0);
+        assertEquals(0.5, converter.clip(0.5f), 0);
+        assertEquals(4, converter.getClippedSamples());
+        converter.resetClippedSamples();
+        assertEquals(0, converter.getClippedSamples());
+        // Without clipping the values are not checked
+        converter.setClipping(false);
+        assertEquals((short) 40000, converter.convert(40000 / (float) Short.MAX_VALUE));
+        assertEquals(3, converter.clip(3), 0);
+        assertEquals(0, converter.getClippedSamples());
+    }
+
+    @Test
+    public void testTPDFDither() {
+        PcmConverter converter = new PcmConverter(true, 1337);
+        Random random = new Random(42);
+        int count = 200000;
+        double sum = 0;
+        double squareSum = 0;
+        for(int i = 0; i < count; i++) {
+            float sample = (random.nextFloat() * 2 - 1) * 0.5f;
+            short quantized = converter.convert(sample);
+            double error = quantized - sample * Short.MAX_VALUE;
+            // TPDF dither of one LSB peak never adds more than 1.5 LSB of error
+            assertTrue(Math.abs(error) <= 1.5);
+            sum += error;
+            squareSum += error * error;
+        }
+        double mean = sum / count;
+        double variance = squareSum / count - mean * mean;
+        assertEquals(0, mean, 0.01);
+        // Uniform quantization error (1/12) plus triangular dither (1/6)
+        assertEquals(0.25, variance, 0.01);
+        // A constant below half a LSB is preserved on average
+        double average = 0;
+        for(int i = 0; i < count; i++) {
+            average += converter.convert(0.25f / Short.MAX_VALUE);
+        }
+        assertEquals(0.25, average / count, 0.01);
+        assertEquals(0, new PcmConverter().convert(0.25f / Short.MAX_VALUE));
+    }
+
+    @Test
+    public void testSeed() {
+        PcmConverter first = new PcmConverter(true, 7);
+        PcmConverter second = new PcmConverter(true, 7);
+        PcmConverter other = new PcmConverter(true, 8);
+        int differences = 0;
+        for(int i = 0; i < 1000; i++) {
+            float sample = i / 1000.0f;
+            short value = first.convert(sample);
+            assertEquals(value, second.convert(sample));
+            if(value != other.convert(sample)) {
+                differences++;
+            }
+        }
+        assertTrue(differences > 0);
+    }
+}
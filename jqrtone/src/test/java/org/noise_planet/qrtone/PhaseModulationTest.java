@@ -0,0 +1,91 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PhaseModulationTest {
+
+    @Test
+    public void testCapacity() {
+        assertEquals(0, PhaseModulation.getCapacity(1, 2, 2));
+        assertEquals(1, PhaseModulation.getCapacity(2, 2, 2));
+        assertEquals(4, PhaseModulation.getCapacity(5, 2, 2));
+        assertEquals(2, PhaseModulation.getCapacity(5, 2, 1));
+        Configuration configuration = Configuration.getAudible(44100).withPhaseBits(2);
+        // 36 symbols, 13 words carry 26 symbols on frequencies and up to 12 in phase
+        assertEquals(13, configuration.getPayloadWordCount(36));
+        assertEquals(18, configuration.withPhaseBits(0).getPayloadWordCount(36));
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        final int tonesPerWord = 2;
+        final int wordCount = 12;
+        final double sampleRate = 44100;
+        Random random = new Random(1337);
+        double[] frequencies = Configuration.getAudible(sampleRate).computeFrequencies(QRTone.NUM_FREQUENCIES);
+        for(int phaseBits = 1; phaseBits <= Configuration.MAX_PHASE_BITS; phaseBits++) {
+            int phaseSymbols = PhaseModulation.getCapacity(wordCount, tonesPerWord, phaseBits);
+            byte[] symbols = new byte[wordCount * tonesPerWord + phaseSymbols];
+            for(int i = 0; i < symbols.length; i++) {
+                symbols[i] = (byte) random.nextInt(16);
+            }
+            byte[] phases = PhaseModulation.encode(symbols, wordCount, tonesPerWord, phaseBits);
+            // Phases measured with a timing error and an unknown phase origin
+            final double offset = 3.4;
+            double[] measuredPhases = new double[phases.length];
+            double[] omegas = new double[phases.length];
+            for(int slot = 0; slot < phases.length; slot++) {
+                int frequencyIndex = symbols[slot] + (slot % tonesPerWord) * QRTone.FREQUENCY_ROOT;
+                omegas[slot] = QRTone.M2PI * frequencies[frequencyIndex] / sampleRate;
+                measuredPhases[slot] = phases[slot] * Math.PI / 2 - Math.PI / 2 + omegas[slot] * offset +
+                        random.nextGaussian() * 0.05;
+            }
+            byte[] decoded = new byte[symbols.length];
+            float[] confidence = new float[symbols.length];
+            double estimatedOffset = PhaseModulation.decode(measuredPhases, omegas, wordCount, tonesPerWord,
+                    phaseBits, 12, decoded, confidence, 1);
+            assertEquals(offset, estimatedOffset, 0.2);
+            for(int i = wordCount * tonesPerWord; i < symbols.length; i++) {
+                assertEquals(symbols[i], decoded[i]);
+                assertTrue(confidence[i] > 0.5);
+            }
+        }
+    }
+}
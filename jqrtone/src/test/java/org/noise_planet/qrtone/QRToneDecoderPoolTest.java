@@ -0,0 +1,250 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+import org.noise_planet.qrtone.utils.TestSignals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class QRToneDecoderPoolTest {
+
+    @Test
+    public void testDecodeManyStreams() throws InterruptedException {
+        final int streamCount = 8;
+        Configuration configuration = Configuration.getAudible(16000);
+        final Map<Integer, byte[]> decoded = new ConcurrentHashMap<>();
+        final CountDownLatch done = new CountDownLatch(streamCount);
+        QRToneDecoderPool pool = new QRToneDecoderPool(configuration, 3, new QRToneDecoderPool.PayloadCallback() {
+            @Override
+            public void onPayload(int streamId, long payloadSampleIndex, byte[] payload) {
+                decoded.put(streamId, payload);
+                done.countDown();
+            }
+        });
+        float[][] signals = new float[streamCount][];
+        for(int streamId = 0; streamId < streamCount; streamId++) {
+            signals[streamId] = TestSignals.generateMessage(configuration, new byte[]{'s', 't', (byte)streamId}, 0.2 + streamId * 0.05, 0.3);
+        }
+        // Interleave frames of all streams
+        int frameLength = 160;
+        boolean remaining = true;
+        for(int cursor = 0; remaining; cursor += frameLength) {
+            remaining = false;
+            for(int streamId = 0; streamId < streamCount; streamId++) {
+                float[] signal = signals[streamId];
+                if(cursor < signal.length) {
+                    float[] frame = new float[Math.min(frameLength, signal.length - cursor)];
+                    System.arraycopy(signal, cursor, frame, 0, frame.length);
+                    assertTrue(pool.pushSamples(streamId, frame, 10, TimeUnit.SECONDS));
+                    remaining = true;
+                }
+            }
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        for(int streamId = 0; streamId < streamCount; streamId++) {
+            assertArrayEquals(new byte[]{'s', 't', (byte)streamId}, decoded.get(streamId));
+        }
+        assertEquals(0, pool.getRejectedFrames());
+    }
+
+    @Test
+    public void testAdmissionControl() throws InterruptedException {
+        Configuration configuration = Configuration.getAudible(16000);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        QRToneDecoderPool pool = new QRToneDecoderPool(configuration, 2, 2, new QRToneDecoderPool.PayloadCallback() {
+            @Override
+            public void onPayload(int streamId, long payloadSampleIndex, byte[] payload) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        float[] signal = TestSignals.generateMessage(configuration, new byte[]{0x42}, 0.2, 0.1);
+        // Stream 0 and 1 are pinned on distinct workers
+        assertTrue(pool.pushSamples(0, signal));
+        assertTrue(entered.await(30, TimeUnit.SECONDS));
+        // Worker of stream 0 is busy, only two frames can wait
+        assertTrue(pool.pushSamples(0, new float[160]));
+        assertTrue(pool.pushSamples(0, new float[160]));
+        assertFalse(pool.pushSamples(0, new float[160]));
+        assertFalse(pool.pushSamples(0, new float[160], 10, TimeUnit.MILLISECONDS));
+        assertEquals(2, pool.getRejectedFrames());
+        assertEquals(2, pool.getPendingFrames(0));
+        // The other stream is not affected by the burst
+        assertTrue(pool.pushSamples(1, new float[160]));
+        release.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, pool.getPendingFrames(0));
+    }
+
+    @Test
+    public void testCallbackException() throws InterruptedException {
+        Configuration configuration = Configuration.getAudible(16000);
+        final List<byte[]> decoded = Collections.synchronizedList(new ArrayList<byte[]>());
+        final List<RuntimeException> errors = Collections.synchronizedList(new ArrayList<RuntimeException>());
+        // A single worker, it must survive the failing callback
+        QRToneDecoderPool pool = new QRToneDecoderPool(configuration, 1, 4, new QRToneDecoderPool.PayloadCallback() {
+            @Override
+            public void onPayload(int streamId, long payloadSampleIndex, byte[] payload) {
+                decoded.add(payload);
+                if(payload[0] == 1) {
+                    throw new IllegalStateException("Callback failure");
+                }
+            }
+        });
+        pool.setErrorCallback(new QRToneDecoderPool.ErrorCallback() {
+            @Override
+            public void onError(int streamId, RuntimeException exception) {
+                errors.add(exception);
+            }
+        });
+        float[] first = TestSignals.generateMessage(configuration, new byte[]{1}, 0.2, 0.3);
+        float[] second = TestSignals.generateMessage(configuration, new byte[]{2}, 0.2, 0.3);
+        float[] signal = new float[first.length + second.length];
+        System.arraycopy(first, 0, signal, 0, first.length);
+        System.arraycopy(second, 0, signal, first.length, second.length);
+        int frameLength = 160;
+        for(int cursor = 0; cursor < signal.length; cursor += frameLength) {
+            float[] frame = new float[Math.min(frameLength, signal.length - cursor)];
+            System.arraycopy(signal, cursor, frame, 0, frame.length);
+            // Waiting producers must be woken up after the failing frame
+            assertTrue(pool.pushSamples(0, frame, 10, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(2, decoded.size());
+        assertArrayEquals(new byte[]{1}, decoded.get(0));
+        assertArrayEquals(new byte[]{2}, decoded.get(1));
+        assertEquals(1, pool.getProcessingErrors());
+        assertEquals(1, errors.size());
+        assertEquals("Callback failure", errors.get(0).getMessage());
+        assertEquals(0, pool.getPendingFrames(0));
+    }
+
+    @Test
+    public void testCloseStreamKeepsWorker() throws InterruptedException {
+        Configuration configuration = Configuration.getAudible(16000);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        QRToneDecoderPool pool = new QRToneDecoderPool(configuration, 2, new QRToneDecoderPool.PayloadCallback() {
+            @Override
+            public void onPayload(int streamId, long payloadSampleIndex, byte[] payload) {
+                threads.add(Thread.currentThread().getName());
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        });
+        assertTrue(pool.pushSamples(0, TestSignals.generateMessage(configuration, new byte[]{1}, 0.2, 0.1)));
+        assertTrue(entered.await(30, TimeUnit.SECONDS));
+        assertTrue(pool.pushSamples(0, new float[160]));
+        // The closed stream still has a frame to process
+        pool.closeStream(0);
+        assertTrue(pool.pushSamples(0, TestSignals.generateMessage(configuration, new byte[]{2}, 0.2, 0.1)));
+        assertEquals(1, pool.getPendingFrames(0));
+        release.countDown();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        // The new stream is decoded by the worker of the closed stream
+        assertEquals(2, threads.size());
+        assertEquals(threads.get(0), threads.get(1));
+        assertEquals(0, pool.getPendingFrames(0));
+    }
+
+    @Test
+    public void testShutdownWhilePushing() throws InterruptedException {
+        Configuration configuration = Configuration.getAudible(16000);
+        final int producerCount = 4;
+        for(int iteration = 0; iteration < 20; iteration++) {
+            final QRToneDecoderPool pool = new QRToneDecoderPool(configuration, 2, 4, null);
+            final CountDownLatch started = new CountDownLatch(producerCount);
+            Thread[] producers = new Thread[producerCount];
+            for(int i = 0; i < producerCount; i++) {
+                final int streamId = i;
+                producers[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        try {
+                            while (true) {
+                                if(streamId % 2 == 0) {
+                                    pool.pushSamples(streamId, new float[16]);
+                                } else {
+                                    pool.pushSamples(streamId, new float[16], 10, TimeUnit.SECONDS);
+                                }
+                            }
+                        } catch (IllegalStateException | InterruptedException ex) {
+                            // Shut down
+                        }
+                    }
+                });
+                producers[i].start();
+            }
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            pool.shutdown();
+            for(Thread producer : producers) {
+                producer.join(10000);
+                assertFalse(producer.isAlive());
+            }
+            assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+            // No frame has been accepted once the workers have exited
+            for(int streamId = 0; streamId < producerCount; streamId++) {
+                assertEquals(0, pool.getPendingFrames(streamId));
+            }
+        }
+    }
+}
@@ -39,13 +39,18 @@ import be.tarsos.dsp.effects.DelayEffect;
 import be.tarsos.dsp.filters.LowPassFS;
 import be.tarsos.dsp.io.jvm.AudioDispatcherFactory;
 import com.google.zxing.common.reedsolomon.ReedSolomonException;
+import org.junit.Assume;
 import org.junit.Test;
 import org.noise_planet.qrtone.utils.ArrayWriteProcessor;
+import org.noise_planet.qrtone.utils.TestSignals;
 
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -166,6 +171,38 @@ public class QRToneTest {
         assertEquals(0, res.phase, 1e-8);
     }
 
+    @Test
+    public void goertzelBankTest() {
+        double sampleRate = 44100;
+        double[] frequencies = new double[] {1000, 1234.5, 3100, 5000};
+        int[] windowSizes = new int[] {1500, 800, 1201, 300};
+        int[] windowOffsets = new int[] {0, 350, 100, 900};
+        float[] audio = new float[1500];
+        Random random = new Random(1337);
+        for (int s = 0; s < audio.length; s++) {
+            double t = s * (1 / sampleRate);
+            audio[s] = (float)(Math.cos(QRTone.M2PI * 1234.5 * t + 0.3) * 0.5 + random.nextGaussian() * 0.01);
+        }
+        GoertzelBank bank = new GoertzelBank(sampleRate, frequencies, windowSizes, windowOffsets, true);
+        assertEquals(audio.length, bank.getLength());
+        int cursor = 0;
+        while (cursor < audio.length) {
+            int windowSize = Math.min(random.nextInt(115) + 20, audio.length - cursor);
+            bank.processSamples(audio, cursor, cursor + windowSize);
+            cursor += windowSize;
+        }
+        double[] rms = new double[frequencies.length];
+        double[] phase = new double[frequencies.length];
+        bank.computeRMS(rms, phase);
+        for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+            IterativeGeneralizedGoertzel.GoertzelResult expected = new IterativeGeneralizedGoertzel(sampleRate,
+                    frequencies[idfreq], windowSizes[idfreq], true).processSamples(audio, windowOffsets[idfreq],
+                    windowOffsets[idfreq] + windowSizes[idfreq]).computeRMS(true);
+            assertEquals(expected.rms, rms[idfreq], 1e-6);
+            assertEquals(expected.phase, phase[idfreq], 1e-4);
+        }
+    }
+
     public void printArray(double[] frequencies, double[]... arrays) {
         for (int idfreq = 0; idfreq < QRTone.NUM_FREQUENCIES; idfreq++) {
             if (idfreq > 0) {
@@ -414,6 +451,17 @@ public class QRToneTest {
         assertEquals(expectedHeader.getEccLevel(), decodedHeader.getEccLevel());
     }
 
+    @Test
+    public void testEncodeDecodeHeaderChained() {
+        Header expectedHeader = new Header(12, Configuration.ECC_LEVEL.ECC_Q, true, true);
+        Header decodedHeader = Header.decodeHeader(expectedHeader.encodeHeader());
+        assertNotNull(decodedHeader);
+        assertTrue(decodedHeader.chained);
+        assertTrue(decodedHeader.crc);
+        assertEquals(12, decodedHeader.length);
+        assertFalse(Header.decodeHeader(new Header(12, Configuration.ECC_LEVEL.ECC_Q, true).encodeHeader()).chained);
+    }
+
     @Test
     public void testEncodeDecodeHeaderCRC() {
         Header expectedHeader = new Header(QRTone.MAX_PAYLOAD_LENGTH, Configuration.ECC_LEVEL.ECC_L, true);
@@ -574,6 +622,283 @@ public class QRToneTest {
         assertEquals(1, fixedErros.get());
     }
 
+    @Test
+    public void testSymbolDecodingErasures() throws ReedSolomonException {
+        Configuration.ECC_LEVEL eccLevel = Configuration.ECC_LEVEL.ECC_Q;
+        byte[] symbols = QRTone.payloadToSymbols(IPFS_PAYLOAD, eccLevel, true);
+        int blockSymbols = Configuration.getTotalSymbolsForEcc(eccLevel);
+        int numberOfBlocks = (int)Math.ceil(symbols.length / (double)blockSymbols);
+        float[] confidence = new float[symbols.length];
+        Arrays.fill(confidence, 20);
+        // Burst of errors, after deinterleaving each block contains more errors than Reed-Solomon can fix
+        int errors = numberOfBlocks * 5;
+        for(int i = 0; i < errors; i++) {
+            symbols[i] = (byte)((symbols[i] + 1) & 0x0F);
+            confidence[i] = 1;
+        }
+        try {
+            QRTone.decodeSymbols(Arrays.copyOf(symbols, symbols.length), eccLevel, true, null);
+            fail("Hard decision decoding should fail");
+        } catch (ReedSolomonException ex) {
+            // ignore
+        }
+        int[] fixedErrors = new int[1];
+        byte[] processedBytes = QRTone.decodeSymbols(symbols, confidence, eccLevel, true,
+                QRTone.DEFAULT_ERASURE_THRESHOLD, fixedErrors);
+        assertArrayEquals(IPFS_PAYLOAD, processedBytes);
+        assertEquals(errors, fixedErrors[0]);
+    }
+
+    @Test
+    public void testListDecoding() throws ReedSolomonException {
+        Configuration.ECC_LEVEL eccLevel = Configuration.ECC_LEVEL.ECC_L;
+        final int candidateCount = QRTone.DEFAULT_LIST_DECODING_CANDIDATES;
+        byte[] expected = QRTone.payloadToSymbols(IPFS_PAYLOAD, eccLevel, true);
+        int blockSymbols = Configuration.getTotalSymbolsForEcc(eccLevel);
+        int numberOfBlocks = (int)Math.ceil(expected.length / (double)blockSymbols);
+        byte[] symbols = Arrays.copyOf(expected, expected.length);
+        float[] confidence = new float[symbols.length];
+        Arrays.fill(confidence, 20);
+        byte[] candidates = new byte[symbols.length * candidateCount];
+        for(int i = 0; i < symbols.length; i++) {
+            for(int c = 0; c < candidateCount; c++) {
+                candidates[i * candidateCount + c] = (byte)((symbols[i] + c) & 0x0F);
+            }
+        }
+        // Three errors in the first block, more than erasure decoding can fix. The right symbol is the runner-up
+        int[] errorPositions = new int[] {0, numberOfBlocks, 2 * numberOfBlocks};
+        for(int i = 0; i < errorPositions.length; i++) {
+            int position = errorPositions[i];
+            symbols[position] = (byte)((expected[position] + 1) & 0x0F);
+            candidates[position * candidateCount] = symbols[position];
+            candidates[position * candidateCount + 1] = expected[position];
+            confidence[position] = 1 + i;
+        }
+        try {
+            QRTone.decodeSymbols(Arrays.copyOf(symbols, symbols.length), confidence, eccLevel, true,
+                    QRTone.DEFAULT_ERASURE_THRESHOLD, null);
+            fail("Erasure decoding should fail");
+        } catch (ReedSolomonException ex) {
+            // ignore
+        }
+        int[] retries = new int[1];
+        int[] fixedErrors = new int[1];
+        byte[] processedBytes = QRTone.listDecodeSymbols(symbols, confidence, candidates, candidateCount, blockSymbols,
+                Configuration.getEccSymbolsForEcc(eccLevel), true, QRTone.DEFAULT_LIST_DECODING_BUDGET, retries,
+                fixedErrors);
+        assertArrayEquals(IPFS_PAYLOAD, processedBytes);
+        assertEquals(errorPositions.length, fixedErrors[0]);
+        assertTrue(retries[0] > 0);
+        // Not enough attempts
+        retries[0] = 0;
+        assertNull(QRTone.listDecodeSymbols(symbols, confidence, candidates, candidateCount, blockSymbols,
+                Configuration.getEccSymbolsForEcc(eccLevel), true, 1, retries, null));
+        assertEquals(1, retries[0]);
+    }
+
+    @Test
+    public void testFalseHeaderRate() {
+        // Noise detected as gate tones, random symbols with small level gaps
+        final int trials = 20000;
+        Random random = new Random(1337);
+        byte[] symbols = new byte[QRTone.HEADER_SYMBOLS];
+        float[] confidence = new float[QRTone.HEADER_SYMBOLS];
+        int falseHeaders = 0;
+        for(int trial = 0; trial < trials; trial++) {
+            for(int i = 0; i < symbols.length; i++) {
+                symbols[i] = (byte) random.nextInt(16);
+                confidence[i] = (float) (random.nextDouble() * QRTone.DEFAULT_ERASURE_THRESHOLD);
+            }
+            if(QRTone.decodeHeaderSymbols(symbols, confidence, QRTone.DEFAULT_ERASURE_THRESHOLD, null) != null) {
+                falseHeaders++;
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "False header rate %.2f %%", 100.0 * falseHeaders / trials));
+        assertTrue(falseHeaders < trials / 100);
+    }
+
+    @Test
+    public void testSymbolsConfidence() {
+        double sampleRate = 16000;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        float[] samples = TestSignals.generateMessage(configuration, IPFS_PAYLOAD, 0.35, 0.35);
+        QRTone qrTone = new QRTone(configuration);
+        assertArrayEquals(IPFS_PAYLOAD, decodeStream(qrTone, samples));
+        float[] confidence = qrTone.getSymbolsConfidence();
+        assertEquals(QRTone.payloadToSymbols(IPFS_PAYLOAD, Configuration.DEFAULT_ECC_LEVEL, true).length,
+                confidence.length);
+        float minimumConfidence = Float.MAX_VALUE;
+        for(float symbolConfidence : confidence) {
+            minimumConfidence = Math.min(minimumConfidence, symbolConfidence);
+        }
+        // Noise free signal, all symbols are reliable
+        assertTrue(minimumConfidence > QRTone.DEFAULT_ERASURE_THRESHOLD);
+        assertEquals(0, qrTone.getListDecodingRetries());
+    }
+
+    /**
+     * Render the message sample by sample with iterative tone and window generators
+     */
+    static float[] renderIterative(QRTone qrTone, double power) {
+        Configuration configuration = qrTone.getConfiguration();
+        int gateLength = (int)(configuration.sampleRate * configuration.gateTime);
+        int wordLength = (int)(configuration.sampleRate * configuration.wordTime);
+        int wordSilenceLength = (int)(configuration.sampleRate * configuration.wordSilenceTime);
+        double[] frequencies = qrTone.getFrequencies();
+        byte[] symbols = qrTone.symbolsToDeliver;
+        float[] samples = new float[2 * gateLength + (symbols.length / 2) * (wordLength + wordSilenceLength)];
+        int cursor = 0;
+        for(int gate : new int[] {QRTone.FREQUENCY_ROOT, QRTone.FREQUENCY_ROOT + 2}) {
+            IterativeTone tone = new IterativeTone(frequencies[gate], configuration.sampleRate);
+            IterativeHann hann = new IterativeHann(gateLength);
+            for(int i = 0; i < gateLength; i++) {
+                samples[cursor++] = (float)(power * tone.next() * hann.next());
+            }
+        }
+        for(int wordIndex = 0; wordIndex < symbols.length; wordIndex += 2) {
+            cursor += wordSilenceLength;
+            IterativeTone tone1 = new IterativeTone(frequencies[symbols[wordIndex]], configuration.sampleRate);
+            IterativeTone tone2 = new IterativeTone(frequencies[symbols[wordIndex + 1] + QRTone.FREQUENCY_ROOT],
+                    configuration.sampleRate);
+            IterativeTukey tukey = new IterativeTukey(wordLength, QRTone.TUKEY_ALPHA);
+            for(int i = 0; i < wordLength; i++) {
+                samples[cursor++] = (float)(power / 2 * (tone1.next() + tone2.next()) * tukey.next());
+            }
+        }
+        return samples;
+    }
+
+    @Test
+    public void testWaveTableSamples() {
+        double powerPeak = Math.pow(10, -26.0 / 20.0) * Math.sqrt(2);
+        Configuration configuration = Configuration.getAudible(44100);
+        QRTone qrTone = new QRTone(configuration);
+        final int dataSampleLength = qrTone.setPayload(IPFS_PAYLOAD);
+        float[] expected = renderIterative(qrTone, powerPeak);
+        assertEquals(expected.length, dataSampleLength);
+        // Render with random window sizes
+        float[] samples = new float[dataSampleLength];
+        Random random = new Random(QRTone.PERMUTATION_SEED);
+        int cursor = 0;
+        while (cursor < dataSampleLength) {
+            int windowSize = Math.min(random.nextInt(115) + 20, samples.length - cursor);
+            float[] window = new float[windowSize];
+            qrTone.getSamples(window, powerPeak);
+            System.arraycopy(window, 0, samples, cursor, window.length);
+            cursor += windowSize;
+        }
+        assertArrayEquals(expected, samples, 1e-6f);
+        // Tables are shared by equal configurations
+        assertSame(WaveTable.getInstance(configuration), WaveTable.getInstance(Configuration.getAudible(44100)));
+        assertNotSame(WaveTable.getInstance(configuration), WaveTable.getInstance(Configuration.getAudible(48000)));
+    }
+
+    @Test
+    public void testConfigurationEquals() {
+        Configuration configuration = Configuration.getAudible(44100);
+        Configuration same = Configuration.getAudible(44100);
+        assertEquals(configuration, same);
+        assertEquals(configuration.hashCode(), same.hashCode());
+        assertNotEquals(configuration, Configuration.getInaudible(44100));
+        Configuration overlap = new Configuration(configuration.sampleRate, configuration.firstFrequency,
+                configuration.frequencyIncrement, configuration.frequencyMulti, configuration.wordTime,
+                configuration.triggerSnr, configuration.gateTime, configuration.wordSilenceTime, 0.75);
+        assertNotEquals(configuration, overlap);
+    }
+
+    @Test
+    public void testPcmOutput() {
+        Configuration configuration = Configuration.getAudible(16000);
+        QRTone qrTone = new QRTone(configuration);
+        byte[] payload = new byte[]{'p', 'c', 'm', '1', '6'};
+        float[] expected = new float[qrTone.setPayload(payload, Configuration.ECC_LEVEL.ECC_Q, true)];
+        qrTone.getSamples(expected, 0.5);
+        PcmConverter reference = new PcmConverter(true, 1);
+        short[] expectedShort = new short[expected.length];
+        reference.convert(expected, 0, expectedShort, 0, expected.length);
+        // 16 bits integers, written in uneven chunks
+        short[] samples = new short[expected.length + 2];
+        qrTone.setPayload(payload, Configuration.ECC_LEVEL.ECC_Q, true);
+        PcmConverter converter = new PcmConverter(true, 1);
+        int cursor = 0;
+        while(cursor < expected.length) {
+            int length = Math.min(5000, expected.length - cursor);
+            qrTone.getSamples(samples, cursor + 1, length, 0.5, converter);
+            cursor += length;
+        }
+        assertEquals(0, samples[0]);
+        assertArrayEquals(expectedShort, Arrays.copyOfRange(samples, 1, expected.length + 1));
+        assertEquals(0, converter.getClippedSamples());
+        // Byte buffers in both byte orders, the buffer byte order is not modified
+        for(SampleFormat sampleFormat : SampleFormat.values()) {
+            for(ByteOrder byteOrder : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(expected.length * sampleFormat.bytesPerSample + 1);
+                buffer.position(1);
+                qrTone.setPayload(payload, Configuration.ECC_LEVEL.ECC_Q, true);
+                qrTone.getSamples(buffer, sampleFormat, byteOrder, 0.5, new PcmConverter(true, 1));
+                assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+                assertFalse(buffer.hasRemaining());
+                buffer.position(1);
+                buffer.order(byteOrder);
+                for(int i = 0; i < expected.length; i++) {
+                    if(sampleFormat == SampleFormat.PCM16) {
+                        assertEquals(expectedShort[i], buffer.getShort());
+                    } else {
+                        assertEquals(expected[i], buffer.getFloat(), 0);
+                    }
+                }
+            }
+        }
+        // The written samples can be decoded
+        qrTone.setPayload(payload, Configuration.ECC_LEVEL.ECC_Q, true);
+        short[] padded = new short[expected.length + 8000];
+        qrTone.getSamples(padded, 2000, expected.length, 0.5, new PcmConverter(true, 3));
+        Random random = new Random(1337);
+        double noisePeak = Math.pow(10, -50.0 / 20.0) * Short.MAX_VALUE;
+        for (int s = 0; s < padded.length; s++) {
+            padded[s] += (short) (random.nextGaussian() * noisePeak);
+        }
+        QRTone decoder = new QRTone(configuration);
+        boolean decoded = false;
+        cursor = 0;
+        while(cursor < padded.length && !decoded) {
+            int length = Math.min(decoder.getMaximumWindowLength(), padded.length - cursor);
+            decoded = decoder.pushSamples(padded, cursor, length);
+            cursor += length;
+        }
+        assertTrue(decoded);
+        assertArrayEquals(payload, decoder.getPayload());
+    }
+
+    @Test
+    public void testPcmOutputNoAllocation() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+        QRTone qrTone = new QRTone(Configuration.getAudible(16000));
+        PcmConverter converter = new PcmConverter(true, 1);
+        short[] samples = new short[1024];
+        ByteBuffer buffer = ByteBuffer.allocate(1024 * 4);
+        long allocated = 0;
+        int calls = 0;
+        // First round warm up the JIT
+        for(int round = 0; round < 2; round++) {
+            int length = qrTone.setPayload(new byte[]{1, 2, 3, 4}, Configuration.ECC_LEVEL.ECC_L, true);
+            long start = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            calls = 0;
+            for(int cursor = 0; cursor < length; cursor += samples.length * 2) {
+                qrTone.getSamples(samples, 0, samples.length, 0.5, converter);
+                buffer.clear();
+                qrTone.getSamples(buffer, SampleFormat.FLOAT32, ByteOrder.LITTLE_ENDIAN, 0.5, converter);
+                calls += 2;
+            }
+            allocated = bean.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+        }
+        // Allow a few bytes for the measurement itself
+        assertTrue("Allocated " + allocated + " bytes", allocated < calls);
+    }
+
     @Test
     public void testToneGeneration() throws IOException {
         double sampleRate = 44100;
@@ -686,6 +1011,500 @@ public class QRToneTest {
         }
         assertArrayEquals(payload, payloads.get(0));
     }
+    @Test
+    public void testPushSamplesOffset() {
+        double sampleRate = 16000;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        float[] samples = TestSignals.generateMessage(configuration, IPFS_PAYLOAD, 0.35, 0.35);
+        float[] reference = Arrays.copyOf(samples, samples.length);
+        short[] shortSamples = new short[samples.length];
+        for(int i = 0; i < samples.length; i++) {
+            shortSamples[i] = (short)(samples[i] * Short.MAX_VALUE);
+        }
+        // Float samples are analyzed in place
+        QRTone qrTone = new QRTone(configuration);
+        int cursor = 0;
+        boolean found = false;
+        while (cursor < samples.length && !found) {
+            int windowSize = Math.min(qrTone.getMaximumWindowLength(), samples.length - cursor);
+            found = qrTone.pushSamples(samples, cursor, windowSize);
+            cursor += windowSize;
+        }
+        assertTrue(found);
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+        assertArrayEquals(reference, samples, 0);
+        // Short samples
+        qrTone = new QRTone(configuration);
+        cursor = 0;
+        found = false;
+        while (cursor < shortSamples.length && !found) {
+            int windowSize = Math.min(qrTone.getMaximumWindowLength(), shortSamples.length - cursor);
+            found = qrTone.pushSamples(shortSamples, cursor, windowSize);
+            cursor += windowSize;
+        }
+        assertTrue(found);
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+        assertEquals(0.35, qrTone.gePayloadSampleIndex() / sampleRate, 0.001);
+    }
+
+    @Test
+    public void testPushSamplesBuffer() throws IOException {
+        Configuration configuration = Configuration.getAudible(16000);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try(InputStream fileInputStream = QRToneTest.class.getResourceAsStream("ipfs_16khz_16bits_mono.raw")) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = fileInputStream.read(buffer)) != -1) {
+                bos.write(buffer, 0, read);
+            }
+        }
+        byte[] raw = bos.toByteArray();
+        // Direct little endian PCM16, the buffer byte order is left to its big endian default
+        ByteBuffer direct = ByteBuffer.allocateDirect(raw.length);
+        direct.put(raw);
+        direct.flip();
+        QRTone qrTone = new QRTone(configuration);
+        boolean found = false;
+        while (direct.hasRemaining() && !found) {
+            int windowSize = Math.min(128, direct.remaining() / 2);
+            ByteBuffer window = direct.duplicate();
+            window.limit(window.position() + windowSize * 2);
+            found = qrTone.pushSamples(window, SampleFormat.PCM16, ByteOrder.LITTLE_ENDIAN);
+            assertFalse(window.hasRemaining());
+            direct.position(window.position());
+        }
+        assertTrue(found);
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+        assertEquals(ByteOrder.BIG_ENDIAN, direct.order());
+        // Direct float buffer
+        float[] samples = loadShortStream(new ByteArrayInputStream(raw), ByteOrder.LITTLE_ENDIAN);
+        FloatBuffer floatBuffer = ByteBuffer.allocateDirect(samples.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        floatBuffer.put(samples);
+        floatBuffer.flip();
+        qrTone = new QRTone(configuration);
+        found = false;
+        while (floatBuffer.hasRemaining() && !found) {
+            FloatBuffer window = floatBuffer.duplicate();
+            window.limit(window.position() + Math.min(128, window.remaining()));
+            found = qrTone.pushSamples(window);
+            floatBuffer.position(window.position());
+        }
+        assertTrue(found);
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+    }
+
+    @Test
+    public void testTriggerAnalyzerBuffer() {
+        Configuration configuration = Configuration.getAudible(16000);
+        float[] samples = TestSignals.generateMessage(configuration, IPFS_PAYLOAD, 0.35, 0.35);
+        QRTone qrTone = new QRTone(configuration);
+        TriggerAnalyzer arrayAnalyzer = qrTone.triggerAnalyzer;
+        TriggerAnalyzer bufferAnalyzer = new QRTone(configuration).triggerAnalyzer;
+        FloatBuffer direct = ByteBuffer.allocateDirect(samples.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        direct.put(samples);
+        direct.flip();
+        int cursor = 0;
+        while (cursor < samples.length && arrayAnalyzer.getFirstToneLocation() == -1) {
+            int windowSize = Math.min(arrayAnalyzer.getMaximumWindowLength(), samples.length - cursor);
+            arrayAnalyzer.processSamples(samples, cursor, windowSize, cursor);
+            FloatBuffer window = direct.duplicate();
+            window.position(cursor);
+            window.limit(cursor + windowSize);
+            bufferAnalyzer.processSamples(window, cursor);
+            cursor += windowSize;
+        }
+        assertNotEquals(-1, arrayAnalyzer.getFirstToneLocation());
+        assertEquals(arrayAnalyzer.getFirstToneLocation(), bufferAnalyzer.getFirstToneLocation());
+    }
+
+    @Test
+    public void testTriggerOverlap() {
+        double sampleRate = 16000;
+        double timeBlankBefore = 0.35;
+        Configuration audible = Configuration.getAudible(sampleRate);
+        for(double overlap : new double[] {0, 0.5, 0.75, 0.875}) {
+            Configuration configuration = new Configuration(sampleRate, audible.firstFrequency,
+                    audible.frequencyIncrement, audible.frequencyMulti, audible.wordTime, audible.triggerSnr,
+                    audible.gateTime, audible.wordSilenceTime, overlap);
+            float[] samples = TestSignals.generateMessage(configuration, IPFS_PAYLOAD, timeBlankBefore, 0.35);
+            QRTone qrTone = new QRTone(configuration);
+            byte[] payload = null;
+            int cursor = 0;
+            while (cursor < samples.length && payload == null) {
+                int windowSize = Math.min(qrTone.getMaximumWindowLength(), samples.length - cursor);
+                if(qrTone.pushSamples(samples, cursor, windowSize)) {
+                    payload = qrTone.getPayload();
+                }
+                cursor += windowSize;
+            }
+            System.out.println(String.format(Locale.ROOT, "Overlap %.3f window offset %d location error %.4f s",
+                    overlap, qrTone.triggerAnalyzer.getWindowOffset(),
+                    qrTone.gePayloadSampleIndex() / sampleRate - timeBlankBefore));
+            assertArrayEquals(IPFS_PAYLOAD, payload);
+            assertEquals(timeBlankBefore, qrTone.gePayloadSampleIndex() / sampleRate, 0.001);
+        }
+    }
+
+    private static byte[] decodeStream(QRTone qrTone, float[] samples) {
+        int cursor = 0;
+        while (cursor < samples.length) {
+            int windowSize = Math.min(qrTone.getMaximumWindowLength(), samples.length - cursor);
+            if(qrTone.pushSamples(samples, cursor, windowSize)) {
+                return qrTone.getPayload();
+            }
+            cursor += windowSize;
+        }
+        return null;
+    }
+
+    @Test
+    public void testChainedPayloads() {
+        double sampleRate = 16000;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        QRTone qrTone = new QRTone(configuration);
+        List<byte[]> payloads = Arrays.asList(new byte[]{'f', 'i', 'r', 's', 't'}, IPFS_PAYLOAD,
+                new byte[]{'l', 'a', 's', 't'});
+        int chainLength = qrTone.setChainedPayloads(payloads, Configuration.ECC_LEVEL.ECC_Q, true);
+        int separateLength = 0;
+        for(byte[] payload : payloads) {
+            separateLength += qrTone.getMessageLength(payload.length, Configuration.ECC_LEVEL.ECC_Q, true);
+        }
+        int gateLength = (int)(configuration.gateTime * sampleRate);
+        // Gate tones are sent only once
+        assertEquals(separateLength - 4 * gateLength, chainLength);
+        qrTone.setChainedPayloads(payloads, Configuration.ECC_LEVEL.ECC_Q, true);
+        int blankBefore = (int)(0.2 * sampleRate);
+        float[] samples = new float[blankBefore + chainLength + (int)(0.2 * sampleRate)];
+        float[] message = new float[chainLength];
+        qrTone.getSamples(message, Math.pow(10, -26.0 / 20.0) * Math.sqrt(2));
+        System.arraycopy(message, 0, samples, blankBefore, chainLength);
+        Random random = new Random(1337);
+        double noisePeak = Math.pow(10, -50.0 / 20.0);
+        for (int s = 0; s < samples.length; s++) {
+            samples[s] += (float)(random.nextGaussian() * noisePeak);
+        }
+        QRTone decoder = new QRTone(configuration);
+        List<byte[]> decoded = new ArrayList<>();
+        List<Long> locations = new ArrayList<>();
+        int cursor = 0;
+        while (cursor < samples.length) {
+            int windowSize = Math.min(decoder.getMaximumWindowLength(), samples.length - cursor);
+            if(decoder.pushSamples(samples, cursor, windowSize)) {
+                decoded.add(decoder.getPayload());
+                locations.add(decoder.gePayloadSampleIndex());
+            }
+            cursor += windowSize;
+        }
+        assertEquals(payloads.size(), decoded.size());
+        long expectedLocation = blankBefore;
+        for(int i = 0; i < payloads.size(); i++) {
+            assertArrayEquals(payloads.get(i), decoded.get(i));
+            // The following payloads are located at their header
+            assertEquals(expectedLocation / sampleRate, locations.get(i) / sampleRate, 0.001);
+            expectedLocation += (i == 0 ? 2 * gateLength : 0) + qrTone.getMessageLength(payloads.get(i).length,
+                    Configuration.ECC_LEVEL.ECC_Q, true) - 2 * gateLength;
+        }
+        assertEquals(0, decoder.getDecodeContextCount());
+    }
+
+    @Test
+    public void testOverlappingMessagesSamePush() {
+        double sampleRate = 16000;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        QRTone qrTone = new QRTone(configuration);
+        double powerPeak = Math.pow(10, -26.0 / 20.0) * Math.sqrt(2);
+        byte[] first = new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+        byte[] second = new byte[]{42};
+        float[] firstMessage = new float[qrTone.setPayload(first, Configuration.ECC_LEVEL.ECC_H, true)];
+        qrTone.getSamples(firstMessage, powerPeak);
+        float[] secondMessage = new float[qrTone.setPayload(second, Configuration.ECC_LEVEL.ECC_L, false)];
+        qrTone.getSamples(secondMessage, powerPeak);
+        int wordLength = qrTone.wordLength + qrTone.wordSilenceLength;
+        // The second message is sent during the last words of the first message and ends just before it
+        int firstLocation = (int)(0.5 * sampleRate);
+        int firstEnd = firstLocation + firstMessage.length;
+        int secondLocation = firstEnd - 10 * wordLength;
+        int secondEnd = secondLocation + secondMessage.length;
+        float[] samples = new float[firstEnd + (int)(0.5 * sampleRate)];
+        for(int i = 0; i < firstMessage.length; i++) {
+            samples[firstLocation + i] += firstMessage[i];
+        }
+        for(int i = 0; i < secondMessage.length; i++) {
+            samples[secondLocation + i] += secondMessage[i];
+        }
+        Random random = new Random(1);
+        double noisePeak = Math.pow(10, -50.0 / 20.0);
+        for (int s = 0; s < samples.length; s++) {
+            samples[s] += (float)(random.nextGaussian() * noisePeak);
+        }
+        QRTone decoder = new QRTone(configuration);
+        List<QRTone.DecodedMessage> sameWindow = new ArrayList<>();
+        int decodedWindows = 0;
+        int cursor = 0;
+        while (cursor < samples.length) {
+            int windowSize = Math.min(decoder.getMaximumWindowLength(), samples.length - cursor);
+            if(cursor < secondEnd - 2 * wordLength && cursor + windowSize >= secondEnd - 2 * wordLength) {
+                // A single window covers the end of both messages
+                windowSize = firstEnd + wordLength - cursor;
+            }
+            if(decoder.pushSamples(samples, cursor, windowSize)) {
+                decodedWindows++;
+                QRTone.DecodedMessage decodedMessage;
+                while((decodedMessage = decoder.pollDecodedMessage()) != null) {
+                    sameWindow.add(decodedMessage);
+                }
+            }
+            cursor += windowSize;
+        }
+        assertEquals(1, decodedWindows);
+        assertEquals(2, sameWindow.size());
+        assertArrayEquals(second, sameWindow.get(0).payload);
+        assertEquals(secondLocation / sampleRate, sameWindow.get(0).sampleIndex / sampleRate, 0.001);
+        assertArrayEquals(first, sameWindow.get(1).payload);
+        assertEquals(firstLocation / sampleRate, sameWindow.get(1).sampleIndex / sampleRate, 0.001);
+        // Compatibility accessors give the last decoded message
+        assertArrayEquals(first, decoder.getPayload());
+        assertNull(decoder.pollDecodedMessage());
+    }
+
+    @Test
+    public void testTonesPerWord() {
+        double sampleRate = 44100;
+        byte[] payload = Arrays.copyOf(IPFS_PAYLOAD, 64);
+        int previousLength = Integer.MAX_VALUE;
+        for(int tonesPerWord = Configuration.MIN_TONES_PER_WORD; tonesPerWord <= Configuration.MAX_TONES_PER_WORD;
+            tonesPerWord++) {
+            Configuration configuration = Configuration.getInaudible(sampleRate).withTonesPerWord(tonesPerWord);
+            QRTone qrTone = new QRTone(configuration);
+            int messageLength = qrTone.setPayload(payload, Configuration.ECC_LEVEL.ECC_Q, true);
+            assertEquals(qrTone.getMessageLength(payload.length, Configuration.ECC_LEVEL.ECC_Q, true), messageLength);
+            assertTrue(messageLength < previousLength);
+            previousLength = messageLength;
+            int blankBefore = (int)(0.2 * sampleRate);
+            float[] samples = new float[blankBefore + messageLength + (int)(0.2 * sampleRate)];
+            float[] message = new float[messageLength];
+            qrTone.getSamples(message, Math.pow(10, -26.0 / 20.0) * Math.sqrt(2));
+            System.arraycopy(message, 0, samples, blankBefore, messageLength);
+            Random random = new Random(1337);
+            double noisePeak = Math.pow(10, -50.0 / 20.0);
+            for (int s = 0; s < samples.length; s++) {
+                samples[s] += (float)(random.nextGaussian() * noisePeak);
+            }
+            QRTone decoder = new QRTone(configuration);
+            assertArrayEquals(payload, decodeStream(decoder, samples));
+            assertEquals(blankBefore / sampleRate, decoder.gePayloadSampleIndex() / sampleRate, 0.001);
+            System.out.println(String.format(Locale.ROOT, "%d tones per word: %.0f bit/s", tonesPerWord,
+                    payload.length * 8 / (messageLength / sampleRate)));
+        }
+    }
+
+    @Test
+    public void testPhaseModulation() {
+        for(Configuration baseConfiguration : new Configuration[] {Configuration.getAudible(44100),
+                Configuration.getInaudible(44100)}) {
+            double sampleRate = baseConfiguration.sampleRate;
+            byte[] payload = Arrays.copyOf(IPFS_PAYLOAD, 64);
+            int previousLength = Integer.MAX_VALUE;
+            for(int phaseBits = 0; phaseBits <= Configuration.MAX_PHASE_BITS; phaseBits++) {
+                Configuration configuration = baseConfiguration.withPhaseBits(phaseBits);
+                QRTone qrTone = new QRTone(configuration);
+                int messageLength = qrTone.setPayload(payload, Configuration.ECC_LEVEL.ECC_Q, true);
+                assertEquals(qrTone.getMessageLength(payload.length, Configuration.ECC_LEVEL.ECC_Q, true),
+                        messageLength);
+                assertTrue(messageLength < previousLength);
+                previousLength = messageLength;
+                float[] message = new float[messageLength];
+                qrTone.getSamples(message, Math.pow(10, -26.0 / 20.0) * Math.sqrt(2));
+                // The message is not aligned on the sample period of the decoder windows
+                for(int blankBefore : new int[] {(int)(0.2 * sampleRate), (int)(0.2 * sampleRate) + 7}) {
+                    float[] samples = new float[blankBefore + messageLength + (int) (0.2 * sampleRate)];
+                    System.arraycopy(message, 0, samples, blankBefore, messageLength);
+                    Random random = new Random(1337);
+                    double noisePeak = Math.pow(10, -50.0 / 20.0);
+                    for (int s = 0; s < samples.length; s++) {
+                        samples[s] += (float) (random.nextGaussian() * noisePeak);
+                    }
+                    QRTone decoder = new QRTone(configuration);
+                    assertArrayEquals(payload, decodeStream(decoder, samples));
+                    assertEquals(0, decoder.getFixedErrors());
+                }
+                System.out.println(String.format(Locale.ROOT, "%d phase bits: %.0f bit/s", phaseBits,
+                        payload.length * 8 / (messageLength / sampleRate)));
+            }
+        }
+    }
+
+    /**
+     * Resample with linear interpolation, simulate a receiver sample rate higher by the given ppm
+     */
+    private static float[] resample(float[] samples, double ppm) {
+        double step = 1 / (1 + ppm * 1e-6);
+        float[] resampled = new float[(int)((samples.length - 1) / step)];
+        for(int i = 0; i < resampled.length; i++) {
+            double position = i * step;
+            int index = (int) position;
+            double fraction = position - index;
+            resampled[i] = (float) (samples[index] * (1 - fraction) + samples[index + 1] * fraction);
+        }
+        return resampled;
+    }
+
+    @Test
+    public void testTimingRecovery() {
+        double sampleRate = 44100;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        byte[] payload = new byte[200];
+        new Random(1337).nextBytes(payload);
+        float[] samples = TestSignals.generateMessage(configuration, payload, 0.2, 0.2);
+        QRTone qrTone = new QRTone(configuration);
+        assertArrayEquals(payload, decodeStream(qrTone, samples));
+        for(double ppm : new double[] {-3000, 3000}) {
+            float[] drifted = resample(samples, ppm);
+            // The last words are analyzed over the word silence
+            qrTone = new QRTone(configuration);
+            assertNull(decodeStream(qrTone, drifted));
+            qrTone = new QRTone(configuration);
+            qrTone.setTimingRecovery(true);
+            assertArrayEquals(payload, decodeStream(qrTone, drifted));
+            assertEquals(ppm, qrTone.getDriftPpm(), Math.abs(ppm) * 0.1);
+            System.out.println(String.format(Locale.ROOT, "Drift %.0f ppm estimated %.0f ppm", ppm,
+                    qrTone.getDriftPpm()));
+        }
+        // Without drift
+        qrTone = new QRTone(configuration);
+        qrTone.setTimingRecovery(true);
+        assertArrayEquals(payload, decodeStream(qrTone, samples));
+        assertEquals(0, qrTone.getDriftPpm(), 200);
+    }
+
+    @Test
+    public void testTimingDiscriminator() {
+        QRTone qrTone = new QRTone(Configuration.getAudible(44100));
+        double[] discriminator = QRTone.computeTimingDiscriminator(qrTone.wordLength, 100);
+        assertEquals(0, discriminator[100], 1e-9);
+        for(int i = 1; i < discriminator.length; i++) {
+            assertTrue(discriminator[i] >= discriminator[i - 1]);
+        }
+        assertTrue(discriminator[discriminator.length - 1] > discriminator[0]);
+        assertEquals(0, qrTone.estimateTimingError(1, 1), 1e-6);
+        assertTrue(qrTone.estimateTimingError(2, 1) > 0);
+        assertTrue(qrTone.estimateTimingError(1, 2) < 0);
+    }
+
+    private static double averageConfidence(QRTone qrTone) {
+        double sum = 0;
+        for(float confidence : qrTone.getSymbolsConfidence()) {
+            sum += confidence;
+        }
+        return sum / qrTone.getSymbolsConfidence().length;
+    }
+
+    @Test
+    public void testFrequencyCorrection() {
+        double sampleRate = 44100;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        byte[] payload = new byte[64];
+        new Random(1337).nextBytes(payload);
+        for(double offset : new double[] {-0.02, -0.01, 0, 0.01, 0.02}) {
+            // All the frequencies of the audible configuration are shifted by scaling the first one
+            Configuration shifted = new Configuration(sampleRate, configuration.firstFrequency * (1 + offset),
+                    configuration.frequencyIncrement, configuration.frequencyMulti, configuration.wordTime,
+                    configuration.triggerSnr, configuration.gateTime, configuration.wordSilenceTime);
+            float[] samples = TestSignals.generateMessage(shifted, payload, 0.2, 0.2);
+            QRTone nominal = new QRTone(configuration);
+            assertArrayEquals(payload, decodeStream(nominal, samples));
+            assertEquals(0, nominal.getFrequencyOffset(), 0);
+            QRTone corrected = new QRTone(configuration);
+            corrected.setFrequencyCorrection(true);
+            assertArrayEquals(payload, decodeStream(corrected, samples));
+            assertEquals(offset, corrected.getFrequencyOffset(), 5e-4);
+            // Level gap between the best and second best frequency of the symbols
+            double nominalConfidence = averageConfidence(nominal);
+            double correctedConfidence = averageConfidence(corrected);
+            assertTrue(correctedConfidence > nominalConfidence - 0.5);
+            if(Math.abs(offset) >= 0.01) {
+                assertTrue(correctedConfidence > nominalConfidence + 3);
+            }
+            System.out.println(String.format(Locale.ROOT, "Offset %.1f %% estimated %.3f %% symbol level gap" +
+                    " %.1f dB corrected %.1f dB", offset * 100, corrected.getFrequencyOffset() * 100,
+                    nominalConfidence, correctedConfidence));
+        }
+    }
+
+    @Test
+    public void testTonesPerWordChecks() {
+        Configuration audible = Configuration.getAudible(44100);
+        assertEquals(Configuration.DEFAULT_TONES_PER_WORD, audible.tonesPerWord);
+        assertEquals(QRTone.NUM_FREQUENCIES, audible.getFrequencyCount());
+        assertNotEquals(audible, audible.withTonesPerWord(3));
+        assertEquals(audible.withTonesPerWord(3), Configuration.getAudible(44100).withTonesPerWord(3));
+        assertEquals(3, audible.withTonesPerWord(3).getWordCount(8));
+        // 48 audible frequencies fit below 22050 Hz but not 64
+        new QRTone(audible.withTonesPerWord(3));
+        try {
+            new QRTone(audible.withTonesPerWord(4));
+            fail();
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains("Nyquist"));
+        }
+        // Frequencies closer than the resolution of a word
+        Configuration narrow = new Configuration(44100, 18200, 10, 0, Configuration.DEFAULT_WORD_TIME,
+                Configuration.DEFAULT_TRIGGER_SNR, Configuration.DEFAULT_GATE_TIME,
+                Configuration.DEFAULT_WORD_SILENCE_TIME, Configuration.DEFAULT_TRIGGER_OVERLAP, 3);
+        try {
+            narrow.checkFrequencies();
+            fail();
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains("window"));
+        }
+        try {
+            audible.withTonesPerWord(5);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTriggerWhileParsing() {
+        double sampleRate = 16000;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        // Gate tones not followed by a message, the real message is triggered while the false header is parsed
+        float[] falseGate = TestSignals.generateMessage(configuration, IPFS_PAYLOAD, 0.35, 0);
+        int gateLength = (int)(configuration.gateTime * sampleRate);
+        int falseGateLength = (int)(0.35 * sampleRate) + gateLength * 2;
+        float[] message = TestSignals.generateMessage(configuration, IPFS_PAYLOAD, 0.01, 0.35);
+        float[] samples = new float[falseGateLength + message.length];
+        System.arraycopy(falseGate, 0, samples, 0, falseGateLength);
+        System.arraycopy(message, 0, samples, falseGateLength, message.length);
+        QRTone qrTone = new QRTone(configuration);
+        assertArrayEquals(IPFS_PAYLOAD, decodeStream(qrTone, samples));
+        assertEquals(falseGateLength / sampleRate + 0.01, qrTone.gePayloadSampleIndex() / sampleRate, 0.001);
+        // With a single context the second trigger is ignored
+        qrTone = new QRTone(configuration);
+        qrTone.setMaximumDecodeContexts(1);
+        assertNull(decodeStream(qrTone, samples));
+    }
+
+    @Test
+    public void testLateTrigger() {
+        Configuration configuration = Configuration.getInaudible(44100);
+        byte[] payload = new byte[64];
+        new Random(64).nextBytes(payload);
+        float[] samples = TestSignals.generateMessage(configuration, payload, 0.2, 0.2);
+        // With small windows, triggers located in the payload are found after the start of their first word
+        for(int windowSize : new int[]{1, 64, 333}) {
+            QRTone qrTone = new QRTone(configuration);
+            byte[] decoded = null;
+            for(int cursor = 0; cursor < samples.length && decoded == null; cursor += windowSize) {
+                if(qrTone.pushSamples(samples, cursor, Math.min(windowSize, samples.length - cursor))) {
+                    decoded = qrTone.getPayload();
+                }
+            }
+            assertArrayEquals(payload, decoded);
+        }
+    }
+
     @Test
     public void testInterleave() {
         byte[] data = new byte[] {'a', 'b', 'c', '1', '2', '3', 'd', 'e', 'f', '4', '5', '6', 'g', 'h'};
@@ -0,0 +1,214 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class RecordingScannerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Write a recording containing the provided messages
+     * @return Sample index of each message
+     */
+    static long[] writeRecording(File file, Configuration configuration, double duration, double[] locations,
+                                 byte[][] payloads) throws IOException {
+        double powerPeak = Math.pow(10, -26.0 / 20.0) * Math.sqrt(2);
+        double noisePeak = Math.pow(10, -50.0 / 20.0);
+        float[] samples = new float[(int)(duration * configuration.sampleRate)];
+        long[] indexes = new long[locations.length];
+        for(int idMessage = 0; idMessage < locations.length; idMessage++) {
+            QRTone qrTone = new QRTone(configuration);
+            float[] audio = new float[qrTone.setPayload(payloads[idMessage])];
+            qrTone.getSamples(audio, powerPeak);
+            int location = (int)(locations[idMessage] * configuration.sampleRate);
+            indexes[idMessage] = location;
+            System.arraycopy(audio, 0, samples, location, audio.length);
+        }
+        Random random = new Random(1337);
+        ByteBuffer buffer = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (float sample : samples) {
+            buffer.putShort((short) ((sample + random.nextGaussian() * noisePeak) * Short.MAX_VALUE));
+        }
+        try(FileOutputStream fileOutputStream = new FileOutputStream(file)) {
+            fileOutputStream.write(buffer.array());
+        }
+        return indexes;
+    }
+
+    @Test
+    public void testScanRecording() throws IOException {
+        Configuration configuration = Configuration.getAudible(16000);
+        File file = folder.newFile("recording.raw");
+        byte[][] payloads = new byte[][]{"first".getBytes("UTF-8"), QRToneTest.IPFS_PAYLOAD, "last".getBytes("UTF-8")};
+        long[] indexes = writeRecording(file, configuration, 20, new double[]{0.5, 4.2, 15.1}, payloads);
+        RecordingScanner scanner = new RecordingScanner(configuration, SampleFormat.PCM16, ByteOrder.LITTLE_ENDIAN);
+        // Use small regions in order to have messages crossing regions
+        scanner.setRegionSize(10001);
+        final List<Long> foundIndexes = new ArrayList<>();
+        final List<byte[]> foundPayloads = new ArrayList<>();
+        scanner.scan(file, new RecordingScanner.PayloadCallback() {
+            @Override
+            public void onPayload(long sampleIndex, byte[] payload) {
+                foundIndexes.add(sampleIndex);
+                foundPayloads.add(payload);
+            }
+        });
+        assertEquals(payloads.length, foundPayloads.size());
+        for(int i = 0; i < payloads.length; i++) {
+            assertArrayEquals(payloads[i], foundPayloads.get(i));
+            assertEquals(indexes[i], foundIndexes.get(i), configuration.sampleRate * 0.001);
+        }
+    }
+
+    @Test
+    public void testParallelScanRecording() throws IOException {
+        Configuration configuration = Configuration.getAudible(16000);
+        File file = folder.newFile("recording.raw");
+        double[] locations = new double[]{0.5, 21.3, 40.2, 61.0, 84.7, 110.5};
+        byte[][] payloads = new byte[locations.length][];
+        for(int i = 0; i < payloads.length; i++) {
+            payloads[i] = ("message " + i).getBytes("UTF-8");
+        }
+        long[] indexes = writeRecording(file, configuration, 120, locations, payloads);
+        ParallelRecordingScanner scanner = new ParallelRecordingScanner(configuration, SampleFormat.PCM16,
+                ByteOrder.LITTLE_ENDIAN);
+        // A lot of chunks with messages on their boundaries
+        scanner.setChunkLength((long)(configuration.sampleRate * 2.5));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<ParallelRecordingScanner.Message> messages = scanner.scan(file, pool);
+            assertEquals(payloads.length, messages.size());
+            for (int i = 0; i < payloads.length; i++) {
+                assertArrayEquals(payloads[i], messages.get(i).payload);
+                assertEquals(indexes[i], messages.get(i).sampleIndex, configuration.sampleRate * 0.002);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelScanChainedPayloads() throws IOException {
+        Configuration configuration = Configuration.getAudible(16000);
+        File file = folder.newFile("recording.raw");
+        // The chain is longer than the longest message of a single payload
+        List<byte[]> payloads = new ArrayList<>();
+        Random random = new Random(42);
+        for(int i = 0; i < 3; i++) {
+            byte[] payload = new byte[QRTone.MAX_PAYLOAD_LENGTH - i];
+            random.nextBytes(payload);
+            payloads.add(payload);
+        }
+        QRTone qrTone = new QRTone(configuration);
+        float[] audio = new float[qrTone.setChainedPayloads(payloads, Configuration.ECC_LEVEL.ECC_L, true)];
+        assertTrue(audio.length > qrTone.getMaximumMessageLength());
+        assertTrue(audio.length <= qrTone.getMaximumMessageLength(payloads.size()));
+        qrTone.getSamples(audio, Math.pow(10, -26.0 / 20.0) * Math.sqrt(2));
+        ParallelRecordingScanner scanner = new ParallelRecordingScanner(configuration, SampleFormat.PCM16,
+                ByteOrder.LITTLE_ENDIAN, payloads.size());
+        long chunkLength = (long)(configuration.sampleRate * 2.5);
+        scanner.setChunkLength(chunkLength);
+        // The gate tones are in the first chunk, the chained payloads in the following ones
+        int location = (int)(chunkLength - configuration.sampleRate * 0.5);
+        float[] samples = new float[location + audio.length + (int)(configuration.sampleRate * 0.5)];
+        System.arraycopy(audio, 0, samples, location, audio.length);
+        double noisePeak = Math.pow(10, -50.0 / 20.0);
+        ByteBuffer buffer = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (float sample : samples) {
+            buffer.putShort((short) ((sample + random.nextGaussian() * noisePeak) * Short.MAX_VALUE));
+        }
+        try(FileOutputStream fileOutputStream = new FileOutputStream(file)) {
+            fileOutputStream.write(buffer.array());
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<ParallelRecordingScanner.Message> messages = scanner.scan(file, pool);
+            assertEquals(payloads.size(), messages.size());
+            for (int i = 0; i < payloads.size(); i++) {
+                assertArrayEquals(payloads.get(i), messages.get(i).payload);
+            }
+            assertEquals(location, messages.get(0).sampleIndex, configuration.sampleRate * 0.002);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelScanError() throws IOException {
+        final Configuration configuration = Configuration.getAudible(16000);
+        File file = folder.newFile("recording.raw");
+        writeRecording(file, configuration, 30, new double[]{0.5}, new byte[][]{"message".getBytes("UTF-8")});
+        final long failingSample = (long)(configuration.sampleRate * 2);
+        // Fail in the first chunk only, the right halves run in the calling thread and the left halves are forked
+        RecordingScanner failingScanner = new RecordingScanner(configuration, SampleFormat.PCM16,
+                ByteOrder.LITTLE_ENDIAN) {
+            @Override
+            public void scan(FileChannel channel, long fromSample, long toSample, PayloadCallback callback)
+                    throws IOException {
+                if(fromSample < failingSample) {
+                    throw new IOException("Read error");
+                }
+                super.scan(channel, fromSample, toSample, callback);
+            }
+        };
+        ParallelRecordingScanner scanner = new ParallelRecordingScanner(failingScanner, configuration, 1);
+        scanner.setChunkLength((long)(configuration.sampleRate * 2.5));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            scanner.scan(file, pool);
+            fail();
+        } catch (IOException ex) {
+            assertEquals("Read error", ex.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import com.google.zxing.common.reedsolomon.GenericGF;
+import com.google.zxing.common.reedsolomon.ReedSolomonDecoder;
+import com.google.zxing.common.reedsolomon.ReedSolomonException;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compare the GF(16) Reed-Solomon codec with the ZXing decoder, and its syndrome tables with the general decoding.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.noise_planet.qrtone.ReedSolomonGF16Benchmark
+ */
+public class ReedSolomonGF16Benchmark {
+    private static final int ITERATIONS = 200000;
+
+    public static void main(String[] args) throws ReedSolomonException {
+        Random random = new Random(1337);
+        ReedSolomonDecoder reference = new ReedSolomonDecoder(GenericGF.AZTEC_PARAM);
+        ReedSolomonGF16 codec = new ReedSolomonGF16();
+        int[] block = new int[14];
+        for (int i = 0; i < 10; i++) {
+            block[i] = random.nextInt(ReedSolomonGF16.FIELD_SIZE);
+        }
+        codec.encode(block, 4);
+        int[] received = new int[block.length];
+        long referenceTime = 0;
+        long codecTime = 0;
+        // First round warm up the JIT
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                System.arraycopy(block, 0, received, 0, block.length);
+                received[i % 14] ^= 5;
+                received[(i + 3) % 14] ^= 9;
+                reference.decode(received, 4);
+            }
+            referenceTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                System.arraycopy(block, 0, received, 0, block.length);
+                received[i % 14] ^= 5;
+                received[(i + 3) % 14] ^= 9;
+                codec.decode(received, 4);
+            }
+            codecTime = System.nanoTime() - start;
+        }
+        System.out.println(String.format(Locale.ROOT, "Decode %d blocks ZXing %d ms GF16 codec %d ms", ITERATIONS,
+                referenceTime / 1000000, codecTime / 1000000));
+        benchmarkSyndromeTables();
+    }
+
+    static void benchmarkSyndromeTables() throws ReedSolomonException {
+        ReedSolomonGF16 tables = new ReedSolomonGF16(true);
+        ReedSolomonGF16 general = new ReedSolomonGF16(false);
+        int[] block = new int[12];
+        for (int i = 0; i < 6; i++) {
+            block[i] = i + 3;
+        }
+        tables.encode(block, 6);
+        int[] received = new int[block.length];
+        long tablesTime = 0;
+        long generalTime = 0;
+        for (int round = 0; round < 2; round++) {
+            for (ReedSolomonGF16 codec : new ReedSolomonGF16[] {tables, general}) {
+                long start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    System.arraycopy(block, 0, received, 0, block.length);
+                    received[i % 12] ^= 5;
+                    received[(i + 5) % 12] ^= 9;
+                    codec.decode(received, 6);
+                }
+                if (codec == tables) {
+                    tablesTime = System.nanoTime() - start;
+                } else {
+                    generalTime = System.nanoTime() - start;
+                }
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "Decode %d blocks with two errors, general %d ms syndrome " +
+                "tables %d ms", ITERATIONS, generalTime / 1000000, tablesTime / 1000000));
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+import com.google.zxing.common.reedsolomon.GenericGF;
+import com.google.zxing.common.reedsolomon.ReedSolomonDecoder;
+import com.google.zxing.common.reedsolomon.ReedSolomonEncoder;
+import com.google.zxing.common.reedsolomon.ReedSolomonException;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReedSolomonGF16Test {
+
+    @Test
+    public void testEncodeSameAsZXing() {
+        Random random = new Random(1337);
+        ReedSolomonEncoder reference = new ReedSolomonEncoder(GenericGF.AZTEC_PARAM);
+        ReedSolomonGF16 codec = new ReedSolomonGF16();
+        for (int length = 2; length <= ReedSolomonGF16.MAX_BLOCK_LENGTH; length++) {
+            for (int ecc = 1; ecc < length; ecc++) {
+                for (int iteration = 0; iteration < 20; iteration++) {
+                    int[] expected = new int[length];
+                    for (int i = 0; i < length - ecc; i++) {
+                        expected[i] = random.nextInt(ReedSolomonGF16.FIELD_SIZE);
+                    }
+                    int[] got = Arrays.copyOf(expected, length);
+                    // Parity must be overwritten
+                    Arrays.fill(got, length - ecc, length, 5);
+                    reference.encode(expected, ecc);
+                    codec.encode(got, ecc);
+                    assertArrayEquals(expected, got);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDecode() throws ReedSolomonException {
+        Random random = new Random(1337);
+        ReedSolomonEncoder encoder = new ReedSolomonEncoder(GenericGF.AZTEC_PARAM);
+        ReedSolomonDecoder reference = new ReedSolomonDecoder(GenericGF.AZTEC_PARAM);
+        ReedSolomonGF16 codec = new ReedSolomonGF16();
+        int[] erasures = new int[ReedSolomonGF16.MAX_BLOCK_LENGTH];
+        for (int length = 3; length <= ReedSolomonGF16.MAX_BLOCK_LENGTH; length++) {
+            for (int ecc = 1; ecc < length; ecc++) {
+                for (int erasureCount = 0; erasureCount <= ecc; erasureCount++) {
+                    int errorCount = (ecc - erasureCount) / 2;
+                    for (int iteration = 0; iteration < 20; iteration++) {
+                        int[] expected = new int[length];
+                        for (int i = 0; i < length - ecc; i++) {
+                            expected[i] = random.nextInt(ReedSolomonGF16.FIELD_SIZE);
+                        }
+                        encoder.encode(expected, ecc);
+                        int[] received = Arrays.copyOf(expected, length);
+                        BitSet used = new BitSet(length);
+                        for (int c = 0; c < erasureCount + errorCount; c++) {
+                            int location;
+                            do {
+                                location = random.nextInt(length);
+                            } while (used.get(location));
+                            used.set(location);
+                            if (c < erasureCount) {
+                                erasures[c] = location;
+                                received[location] = random.nextInt(ReedSolomonGF16.FIELD_SIZE);
+                            } else {
+                                do {
+                                    received[location] = random.nextInt(ReedSolomonGF16.FIELD_SIZE);
+                                } while (received[location] == expected[location]);
+                            }
+                        }
+                        int[] referenceReceived = Arrays.copyOf(received, length);
+                        int corrupted = 0;
+                        for (int i = 0; i < length; i++) {
+                            if (received[i] != expected[i]) {
+                                corrupted++;
+                            }
+                        }
+                        int fixed = codec.decode(received, ecc, erasures, erasureCount);
+                        assertArrayEquals(expected, received);
+                        assertEquals(corrupted, fixed);
+                        if (erasureCount == 0) {
+                            assertEquals(reference.decode(referenceReceived, ecc), fixed);
+                            assertArrayEquals(expected, referenceReceived);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeNoAllocation() throws ReedSolomonException {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+        ReedSolomonGF16 codec = new ReedSolomonGF16();
+        int[] block = new int[12];
+        for (int i = 0; i < 6; i++) {
+            block[i] = i + 3;
+        }
+        codec.encode(block, 6);
+        int[] received = new int[block.length];
+        int[] erasures = new int[] {2, 7};
+        final int iterations = 100000;
+        long allocated = 0;
+        // First round warm up the JIT
+        for (int round = 0; round < 2; round++) {
+            long start = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int i = 0; i < iterations; i++) {
+                codec.encode(block, 6);
+                System.arraycopy(block, 0, received, 0, block.length);
+                // Two erasures and two errors
+                received[2] ^= 1;
+                received[7] ^= 3;
+                received[i % 2] ^= 6;
+                received[(i % 4) + 8] ^= 9;
+                codec.decode(received, 6, erasures, 2);
+            }
+            allocated = bean.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+        }
+        assertArrayEquals(block, received);
+        // Allow a few bytes for the measurement itself
+        assertTrue("Allocated " + allocated + " bytes", allocated < iterations);
+    }
+
+    private static void checkSyndromeTables(int length, int ecc, Random random) throws ReedSolomonException {
+        ReedSolomonGF16 tables = new ReedSolomonGF16(true);
+        ReedSolomonGF16 general = new ReedSolomonGF16(false);
+        int[] expected = new int[length];
+        for (int i = 0; i < length - ecc; i++) {
+            expected[i] = random.nextInt(ReedSolomonGF16.FIELD_SIZE);
+        }
+        tables.encode(expected, ecc);
+        int[] received = new int[length];
+        // Every single error
+        for (int p1 = 0; p1 < length; p1++) {
+            for (int e1 = 1; e1 < ReedSolomonGF16.FIELD_SIZE; e1++) {
+                System.arraycopy(expected, 0, received, 0, length);
+                received[p1] ^= e1;
+                assertEquals(1, tables.decode(received, ecc));
+                assertArrayEquals(expected, received);
+            }
+        }
+        // Every double error
+        if (ecc >= 4) {
+            for (int p1 = 0; p1 < length; p1++) {
+                for (int p2 = p1 + 1; p2 < length; p2++) {
+                    for (int e1 = 1; e1 < ReedSolomonGF16.FIELD_SIZE; e1++) {
+                        for (int e2 = 1; e2 < ReedSolomonGF16.FIELD_SIZE; e2++) {
+                            System.arraycopy(expected, 0, received, 0, length);
+                            received[p1] ^= e1;
+                            received[p2] ^= e2;
+                            assertEquals(2, tables.decode(received, ecc));
+                            assertArrayEquals(expected, received);
+                        }
+                    }
+                }
+            }
+        }
+        // Beyond capacity both paths must give the same result
+        int[] generalReceived = new int[length];
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            System.arraycopy(expected, 0, received, 0, length);
+            int errors = ecc / 2 + 1 + random.nextInt(2);
+            for (int i = 0; i < errors; i++) {
+                received[random.nextInt(length)] ^= 1 + random.nextInt(ReedSolomonGF16.FIELD_SIZE - 1);
+            }
+            System.arraycopy(received, 0, generalReceived, 0, length);
+            int fixed;
+            try {
+                fixed = tables.decode(received, ecc);
+            } catch (ReedSolomonException ex) {
+                fixed = -1;
+            }
+            int generalFixed;
+            try {
+                generalFixed = general.decode(generalReceived, ecc);
+            } catch (ReedSolomonException ex) {
+                generalFixed = -1;
+            }
+            assertEquals(generalFixed, fixed);
+            if (fixed >= 0) {
+                assertArrayEquals(generalReceived, received);
+            }
+        }
+    }
+
+    @Test
+    public void testSyndromeTables() throws ReedSolomonException {
+        Random random = new Random(1337);
+        for (Configuration.ECC_LEVEL eccLevel : Configuration.ECC_LEVEL.values()) {
+            int length = Configuration.getTotalSymbolsForEcc(eccLevel);
+            int ecc = Configuration.getEccSymbolsForEcc(eccLevel);
+            checkSyndromeTables(length, ecc, random);
+            // Shortened last block
+            checkSyndromeTables(ecc + 2, ecc, random);
+        }
+        checkSyndromeTables(QRTone.HEADER_SYMBOLS, QRTone.HEADER_ECC_SYMBOLS, random);
+    }
+}
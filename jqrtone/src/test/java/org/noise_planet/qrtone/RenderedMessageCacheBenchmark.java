@@ -0,0 +1,69 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.util.Locale;
+
+/**
+ * Compare the rendering of a message with its replay from the {@link RenderedMessageCache}.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.noise_planet.qrtone.RenderedMessageCacheBenchmark
+ */
+public class RenderedMessageCacheBenchmark {
+    private static final int ITERATIONS = 200;
+
+    public static void main(String[] args) {
+        Configuration configuration = Configuration.getAudible(44100);
+        byte[] payload = new byte[32];
+        float[] destination = new float[new QRTone(configuration).getMessageLength(payload.length,
+                Configuration.ECC_LEVEL.ECC_Q, true)];
+        long renderTime = 0;
+        long cacheTime = 0;
+        // First round warm up the JIT
+        for(int round = 0; round < 2; round++) {
+            RenderedMessageCache cache = new RenderedMessageCache(16 * 1024 * 1024);
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                RenderedMessageCacheTest.render(configuration, payload, Configuration.ECC_LEVEL.ECC_Q, true, 0.5);
+            }
+            renderTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                cache.getSamples(configuration, payload, Configuration.ECC_LEVEL.ECC_Q, true, 0.5, destination, 0);
+            }
+            cacheTime = System.nanoTime() - start;
+        }
+        System.out.println(String.format(Locale.ROOT, "Render %d messages %d ms cached replay %d ms", ITERATIONS,
+                renderTime / 1000000, cacheTime / 1000000));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RenderedMessageCacheTest {
+
+    static float[] render(Configuration configuration, byte[] payload, Configuration.ECC_LEVEL eccLevel,
+                                  boolean addPayloadCRC, double power) {
+        QRTone qrTone = new QRTone(configuration);
+        float[] samples = new float[qrTone.setPayload(payload, eccLevel, addPayloadCRC)];
+        qrTone.getSamples(samples, power);
+        return samples;
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        Configuration configuration = Configuration.getAudible(16000);
+        RenderedMessageCache cache = new RenderedMessageCache(16 * 1024 * 1024);
+        byte[] payload = new byte[]{'k', 'i', 'o', 's', 'k'};
+        float[] expected = render(configuration, payload, Configuration.ECC_LEVEL.ECC_Q, true, 0.5);
+        assertArrayEquals(expected, cache.getSamples(configuration, payload, Configuration.ECC_LEVEL.ECC_Q, true,
+                0.5), 0);
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        // Modifying the payload or the returned samples must not alter the cache
+        float[] copy = cache.getSamples(configuration, payload.clone(), Configuration.ECC_LEVEL.ECC_Q, true, 0.5);
+        copy[1000] = 42;
+        payload[0] = 'K';
+        float[] destination = new float[expected.length + 10];
+        assertEquals(expected.length, cache.getSamples(Configuration.getAudible(16000), new byte[]{'k', 'i', 'o', 's',
+                'k'}, Configuration.ECC_LEVEL.ECC_Q, true, 0.5, destination, 10));
+        for(int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], destination[i + 10], 0);
+        }
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(expected.length * 4, cache.getCachedBytes());
+        // Each parameter is part of the key
+        cache.getSamples(configuration, payload, Configuration.ECC_LEVEL.ECC_Q, true, 0.5);
+        cache.getSamples(configuration, new byte[]{'k', 'i', 'o', 's', 'k'}, Configuration.ECC_LEVEL.ECC_H, true, 0.5);
+        cache.getSamples(configuration, new byte[]{'k', 'i', 'o', 's', 'k'}, Configuration.ECC_LEVEL.ECC_Q, false, 0.5);
+        cache.getSamples(configuration, new byte[]{'k', 'i', 'o', 's', 'k'}, Configuration.ECC_LEVEL.ECC_Q, true, 0.25);
+        cache.getSamples(Configuration.getAudible(44100), new byte[]{'k', 'i', 'o', 's', 'k'},
+                Configuration.ECC_LEVEL.ECC_Q, true, 0.5);
+        assertEquals(2, cache.getHits());
+        assertEquals(6, cache.getMisses());
+        assertEquals(6, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getCachedBytes());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void testEncoderReuse() {
+        Configuration[] configurations = new Configuration[]{Configuration.getAudible(16000),
+                Configuration.getAudible(44100)};
+        RenderedMessageCache cache = new RenderedMessageCache(0);
+        // Successive misses on the same thread, alternating configurations and parameters
+        for(int i = 0; i < 8; i++) {
+            Configuration configuration = configurations[(i / 3) % configurations.length];
+            byte[] payload = new byte[1 + i * 5];
+            Arrays.fill(payload, (byte) i);
+            Configuration.ECC_LEVEL eccLevel = Configuration.ECC_LEVEL.values()[i % 4];
+            assertArrayEquals(render(configuration, payload, eccLevel, i % 2 == 0, 0.5),
+                    cache.getSamples(configuration, payload, eccLevel, i % 2 == 0, 0.5), 0);
+        }
+        assertEquals(8, cache.getMisses());
+    }
+
+    @Test
+    public void testEviction() {
+        Configuration configuration = Configuration.getAudible(16000);
+        QRTone qrTone = new QRTone(configuration);
+        long messageBytes = qrTone.getMessageLength(4, Configuration.ECC_LEVEL.ECC_L, true) * 4;
+        RenderedMessageCache cache = new RenderedMessageCache(messageBytes * 3);
+        byte[][] payloads = new byte[][]{{0, 0, 0, 0}, {1, 1, 1, 1}, {2, 2, 2, 2}, {3, 3, 3, 3}};
+        for(int i = 0; i < 3; i++) {
+            cache.getSamples(configuration, payloads[i], Configuration.ECC_LEVEL.ECC_L, true, 0.5);
+        }
+        // Use the first message so that the second one is the least recently used
+        cache.getSamples(configuration, payloads[0], Configuration.ECC_LEVEL.ECC_L, true, 0.5);
+        cache.getSamples(configuration, payloads[3], Configuration.ECC_LEVEL.ECC_L, true, 0.5);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.size());
+        assertEquals(messageBytes * 3, cache.getCachedBytes());
+        long misses = cache.getMisses();
+        cache.getSamples(configuration, payloads[0], Configuration.ECC_LEVEL.ECC_L, true, 0.5);
+        cache.getSamples(configuration, payloads[2], Configuration.ECC_LEVEL.ECC_L, true, 0.5);
+        cache.getSamples(configuration, payloads[3], Configuration.ECC_LEVEL.ECC_L, true, 0.5);
+        assertEquals(misses, cache.getMisses());
+        cache.getSamples(configuration, payloads[1], Configuration.ECC_LEVEL.ECC_L, true, 0.5);
+        assertEquals(misses + 1, cache.getMisses());
+        // A message larger than the budget is not cached
+        RenderedMessageCache tinyCache = new RenderedMessageCache(messageBytes - 1);
+        tinyCache.getSamples(configuration, payloads[0], Configuration.ECC_LEVEL.ECC_L, true, 0.5);
+        assertEquals(0, tinyCache.size());
+        assertEquals(0, tinyCache.getCachedBytes());
+    }
+
+    @Test
+    public void testConcurrentLookups() throws InterruptedException {
+        final Configuration configuration = Configuration.getAudible(16000);
+        final RenderedMessageCache cache = new RenderedMessageCache(64 * 1024 * 1024);
+        final byte[][] payloads = new byte[][]{{1, 2}, {3, 4}, {5, 6}};
+        final float[][] expected = new float[payloads.length][];
+        for(int i = 0; i < payloads.length; i++) {
+            expected[i] = render(configuration, payloads[i], Configuration.ECC_LEVEL.ECC_M, true, 0.5);
+        }
+        final AtomicInteger mismatches = new AtomicInteger(0);
+        List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < 4; t++) {
+            final int offset = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for(int i = 0; i < 30; i++) {
+                        int index = (i + offset) % payloads.length;
+                        float[] samples = cache.getSamples(configuration, payloads[index],
+                                Configuration.ECC_LEVEL.ECC_M, true, 0.5);
+                        if(!Arrays.equals(expected[index], samples)) {
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, mismatches.get());
+        assertEquals(120, cache.getHits() + cache.getMisses());
+        assertEquals(payloads.length, cache.size());
+    }
+
+    @Test
+    public void testRepeatedReplay() {
+        Configuration configuration = Configuration.getAudible(44100);
+        byte[] payload = new byte[32];
+        RenderedMessageCache cache = new RenderedMessageCache(16 * 1024 * 1024);
+        float[] expected = render(configuration, payload, Configuration.ECC_LEVEL.ECC_Q, true, 0.5);
+        float[] destination = new float[expected.length];
+        for(int i = 0; i < 3; i++) {
+            Arrays.fill(destination, 0);
+            assertEquals(expected.length, cache.getSamples(configuration, payload, Configuration.ECC_LEVEL.ECC_Q,
+                    true, 0.5, destination, 0));
+            assertArrayEquals(expected, destination, 0);
+        }
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+import java.util.Random;
+
+/**
+ * Compare the cost of the spectral analysis backends according to the sampling rate and the number of frequencies.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.noise_planet.qrtone.SpectralAnalyzerBenchmark
+ */
+public class SpectralAnalyzerBenchmark {
+    private static final double[] SAMPLE_RATES = new double[] {16000, 44100, 48000};
+    private static final int[] FREQUENCY_COUNTS = new int[] {8, 16, 32, 64, 128};
+    private static final int WORDS = 2000;
+
+    /**
+     * Frequencies linearly spaced between 500 Hz and 45% of the sampling rate
+     */
+    static SpectralAnalyzer createAnalyzer(SpectralAnalyzer.Factory factory, double sampleRate, int frequencyCount, int wordLength) {
+        int increment = (int)((sampleRate * 0.45 - 500) / frequencyCount);
+        Configuration configuration = new Configuration(sampleRate, 500, increment, 0, Configuration.DEFAULT_WORD_TIME,
+                Configuration.DEFAULT_TRIGGER_SNR, Configuration.DEFAULT_GATE_TIME, Configuration.DEFAULT_WORD_SILENCE_TIME);
+        double[] frequencies = configuration.computeFrequencies(frequencyCount);
+        double[] frequencyLimits = configuration.computeFrequencies(frequencyCount, QRTone.WINDOW_WIDTH);
+        int[] windowLengths = new int[frequencyCount];
+        for(int idfreq = 0; idfreq < frequencyCount; idfreq++) {
+            windowLengths[idfreq] = Math.min(wordLength, Configuration.computeMinimumWindowSize(sampleRate,
+                    frequencies[idfreq], frequencyLimits[idfreq]));
+        }
+        return factory.create(sampleRate, frequencies, windowLengths, wordLength);
+    }
+
+    static double benchmark(SpectralAnalyzer analyzer, float[] word, double[] rms) {
+        long start = System.nanoTime();
+        for(int i = 0; i < WORDS; i++) {
+            analyzer.processSamples(word, 0, word.length);
+            analyzer.computeRMS(rms);
+        }
+        return (System.nanoTime() - start) / 1e3 / WORDS;
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(1337);
+        System.out.println("sample rate,frequencies,goertzel (us/word),fft (us/word),winner");
+        for(double sampleRate : SAMPLE_RATES) {
+            int wordLength = (int)(sampleRate * Configuration.DEFAULT_WORD_TIME);
+            float[] word = new float[wordLength];
+            for(int i = 0; i < wordLength; i++) {
+                word[i] = (float)random.nextGaussian();
+            }
+            for(int frequencyCount : FREQUENCY_COUNTS) {
+                double[] rms = new double[frequencyCount];
+                SpectralAnalyzer goertzel = createAnalyzer(GoertzelSpectralAnalyzer.FACTORY, sampleRate, frequencyCount, wordLength);
+                SpectralAnalyzer fft = createAnalyzer(FFTSpectralAnalyzer.FACTORY, sampleRate, frequencyCount, wordLength);
+                // warm up
+                benchmark(goertzel, word, rms);
+                benchmark(fft, word, rms);
+                double goertzelTime = benchmark(goertzel, word, rms);
+                double fftTime = benchmark(fft, word, rms);
+                System.out.println(String.format("%.0f,%d,%.1f,%.1f,%s", sampleRate, frequencyCount, goertzelTime,
+                        fftTime, goertzelTime < fftTime ? "goertzel" : "fft"));
+            }
+        }
+    }
+}
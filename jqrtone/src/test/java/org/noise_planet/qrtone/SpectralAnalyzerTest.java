@@ -0,0 +1,161 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+import org.noise_planet.qrtone.utils.TestSignals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpectralAnalyzerTest {
+
+    static SpectralAnalyzer createAnalyzer(SpectralAnalyzer.Factory factory, Configuration configuration, int wordLength) {
+        double[] frequencies = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES);
+        double[] frequencyLimits = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES, QRTone.WINDOW_WIDTH);
+        int[] windowLengths = new int[frequencies.length];
+        for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+            windowLengths[idfreq] = Math.min(wordLength, Configuration.computeMinimumWindowSize(configuration.sampleRate,
+                    frequencies[idfreq], frequencyLimits[idfreq]));
+        }
+        return factory.create(configuration.sampleRate, frequencies, windowLengths, wordLength);
+    }
+
+    @Test
+    public void testBackendsEquivalent() {
+        Configuration configuration = Configuration.getAudible(44100);
+        double[] frequencies = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES);
+        int wordLength = (int)(configuration.sampleRate * configuration.wordTime);
+        SpectralAnalyzer goertzel = createAnalyzer(GoertzelSpectralAnalyzer.FACTORY, configuration, wordLength);
+        SpectralAnalyzer fft = createAnalyzer(FFTSpectralAnalyzer.FACTORY, configuration, wordLength);
+        double[] goertzelRms = new double[frequencies.length];
+        double[] fftRms = new double[frequencies.length];
+        float[] word = new float[wordLength];
+        for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+            Arrays.fill(word, 0);
+            QRTone.generatePitch(word, 0, wordLength, 0, configuration.sampleRate, frequencies[idfreq], 0.5);
+            // push in two chunks
+            goertzel.processSamples(word, 0, wordLength / 3);
+            goertzel.processSamples(word, wordLength / 3, wordLength);
+            fft.processSamples(word, 0, wordLength / 3);
+            fft.processSamples(word, wordLength / 3, wordLength);
+            goertzel.computeRMS(goertzelRms);
+            fft.computeRMS(fftRms);
+            assertEquals(20 * Math.log10(goertzelRms[idfreq]), 20 * Math.log10(fftRms[idfreq]), 0.5);
+            // other frequencies must remain far below the analyzed tone
+            for(int other = 0; other < frequencies.length; other++) {
+                if(other != idfreq) {
+                    assertTrue(fftRms[other] < fftRms[idfreq] / 10);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeFFTBackend() {
+        Configuration configuration = Configuration.getAudible(44100);
+        byte[] payload = "FFT backend".getBytes();
+        float[] samples = TestSignals.generateMessage(configuration, payload, 0.5, 0.5);
+        QRTone qrTone = new QRTone(configuration, FFTSpectralAnalyzer.FACTORY);
+        Random random = new Random(1337);
+        byte[] decoded = null;
+        int cursor = 0;
+        while (cursor < samples.length) {
+            int windowSize = Math.min(qrTone.getMaximumWindowLength(), Math.min(random.nextInt(500) + 20, samples.length - cursor));
+            if(qrTone.pushSamples(samples, cursor, windowSize)) {
+                decoded = qrTone.getPayload();
+            }
+            cursor += windowSize;
+        }
+        assertArrayEquals(payload, decoded);
+    }
+
+    @Test
+    public void testPhase() {
+        Configuration configuration = Configuration.getAudible(44100);
+        double[] frequencies = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES);
+        int wordLength = (int)(configuration.sampleRate * configuration.wordTime);
+        double[] rms = new double[frequencies.length];
+        double[] phase = new double[frequencies.length];
+        float[] word = new float[wordLength];
+        for(SpectralAnalyzer.Factory factory : new SpectralAnalyzer.Factory[] {GoertzelSpectralAnalyzer.FACTORY,
+                FFTSpectralAnalyzer.FACTORY}) {
+            SpectralAnalyzer analyzer = createAnalyzer(factory, configuration, wordLength);
+            for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+                double tonePhase = idfreq * 0.7;
+                Arrays.fill(word, 0);
+                new IterativeTone(frequencies[idfreq], configuration.sampleRate, tonePhase).addTo(word, 0,
+                        wordLength, 0.5);
+                analyzer.processSamples(word, 0, wordLength / 3);
+                analyzer.processSamples(word, wordLength / 3, wordLength);
+                analyzer.computeRMS(rms, phase);
+                double error = phase[idfreq] - (tonePhase - Math.PI / 2);
+                error -= QRTone.M2PI * Math.round(error / QRTone.M2PI);
+                assertEquals(0, error, 0.01);
+            }
+        }
+    }
+
+    @Test
+    public void testSetFrequencies() {
+        Configuration configuration = Configuration.getAudible(44100);
+        double[] frequencies = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES);
+        double[] shiftedFrequencies = new double[frequencies.length];
+        for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+            shiftedFrequencies[idfreq] = frequencies[idfreq] * 1.02;
+        }
+        int wordLength = (int)(configuration.sampleRate * configuration.wordTime);
+        double[] nominalRms = new double[frequencies.length];
+        double[] shiftedRms = new double[frequencies.length];
+        float[] word = new float[wordLength];
+        for(SpectralAnalyzer.Factory factory : new SpectralAnalyzer.Factory[] {GoertzelSpectralAnalyzer.FACTORY,
+                FFTSpectralAnalyzer.FACTORY}) {
+            SpectralAnalyzer analyzer = createAnalyzer(factory, configuration, wordLength);
+            final int idfreq = 20;
+            QRTone.generatePitch(word, 0, wordLength, 0, configuration.sampleRate, frequencies[idfreq], 0.5);
+            analyzer.processSamples(word, 0, wordLength);
+            analyzer.computeRMS(nominalRms);
+            // A shifted tone is measured at the same level once the analyzer is shifted
+            Arrays.fill(word, 0);
+            QRTone.generatePitch(word, 0, wordLength, 0, configuration.sampleRate, shiftedFrequencies[idfreq], 0.5);
+            analyzer.setFrequencies(shiftedFrequencies);
+            analyzer.processSamples(word, 0, wordLength);
+            analyzer.computeRMS(shiftedRms);
+            assertEquals(20 * Math.log10(nominalRms[idfreq]), 20 * Math.log10(shiftedRms[idfreq]), 0.1);
+        }
+    }
+}
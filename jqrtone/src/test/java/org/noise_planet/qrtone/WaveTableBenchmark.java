@@ -0,0 +1,71 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Compare the iterative tone generation with the wave table rendering of {@link QRTone#getSamples(float[], double)}.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.noise_planet.qrtone.WaveTableBenchmark
+ */
+public class WaveTableBenchmark {
+    private static final int ITERATIONS = 200;
+
+    public static void main(String[] args) {
+        double powerPeak = Math.pow(10, -26.0 / 20.0) * Math.sqrt(2);
+        QRTone qrTone = new QRTone(Configuration.getAudible(44100));
+        final int dataSampleLength = qrTone.setPayload(QRToneTest.IPFS_PAYLOAD);
+        float[] samples = new float[dataSampleLength];
+        long iterativeTime = 0;
+        long waveTableTime = 0;
+        // First round warm up the JIT
+        for(int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                QRToneTest.renderIterative(qrTone, powerPeak);
+            }
+            iterativeTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                qrTone.setPayload(QRToneTest.IPFS_PAYLOAD);
+                Arrays.fill(samples, 0);
+                qrTone.getSamples(samples, powerPeak);
+            }
+            waveTableTime = System.nanoTime() - start;
+        }
+        System.out.println(String.format(Locale.ROOT, "Render %d messages iterative %d ms, wave table %d ms",
+                ITERATIONS, iterativeTime / 1000000, waveTableTime / 1000000));
+    }
+}
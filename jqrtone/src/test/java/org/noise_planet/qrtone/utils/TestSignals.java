@@ -0,0 +1,75 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone.utils;
+
+import org.noise_planet.qrtone.Configuration;
+import org.noise_planet.qrtone.QRTone;
+
+import java.util.Random;
+
+/**
+ * Audio signals shared by the unit tests
+ */
+public class TestSignals {
+
+    private TestSignals() {
+    }
+
+    /**
+     * Render a message at -26 dB with blanks around it, then add a -50 dB white noise (fixed seed)
+     * @param configuration QRTone configuration
+     * @param payload Payload to send
+     * @param blankBefore Duration of the blank before the message, in seconds
+     * @param blankAfter Duration of the blank after the message, in seconds
+     * @return Audio samples
+     */
+    public static float[] generateMessage(Configuration configuration, byte[] payload, double blankBefore,
+                                          double blankAfter) {
+        double powerPeak = Math.pow(10, -26.0 / 20.0) * Math.sqrt(2);
+        QRTone qrTone = new QRTone(configuration);
+        final int dataSampleLength = qrTone.setPayload(payload);
+        int samplesBefore = (int)(blankBefore * configuration.sampleRate);
+        int samplesAfter = (int)(blankAfter * configuration.sampleRate);
+        float[] audio = new float[dataSampleLength];
+        qrTone.getSamples(audio, powerPeak);
+        float[] samples = new float[samplesBefore + dataSampleLength + samplesAfter];
+        System.arraycopy(audio, 0, samples, samplesBefore, dataSampleLength);
+        Random random = new Random(1337);
+        double noisePeak = Math.pow(10, -50.0 / 20.0);
+        for (int s = 0; s < samples.length; s++) {
+            samples[s] += (float)(random.nextGaussian() * noisePeak);
+        }
+        return samples;
+    }
+}
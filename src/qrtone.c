@@ -970,7 +970,7 @@ int8_t qrtone_header_init_from_data(qrtone_header_t* self, int8_t* data) {
     }
     self->ecc_level = data[1] & 0x3;
 
-    qrtone_header_init(self, data[0], ECC_SYMBOLS[self->ecc_level][0], ECC_SYMBOLS[self->ecc_level][1], (int8_t)(data[1] >> 3), self->ecc_level);
+    qrtone_header_init(self, data[0], ECC_SYMBOLS[self->ecc_level][0], ECC_SYMBOLS[self->ecc_level][1], (int8_t)((data[1] >> 3) & 0x01), self->ecc_level);
     return TRUE;
 }
 